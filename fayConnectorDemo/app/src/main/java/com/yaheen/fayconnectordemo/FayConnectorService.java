@@ -12,13 +12,17 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.graphics.BitmapFactory;
+import android.media.AudioAttributes;
 import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioRecord;
 import android.media.MediaPlayer;
 import android.media.MediaRecorder;
+import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
@@ -32,33 +36,101 @@ import com.google.android.material.snackbar.Snackbar;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class FayConnectorService extends Service {
     private AudioRecord record;
     private int recordBufsize = 0;
-    private Socket socket = null;
-    private InputStream in = null;
-    private OutputStream out = null;
-    public static boolean running = false;
+    //录音采样率(KVUtils CaptureRate，不设置时用设备原生采样率)，不是 16k 时重采样后再上行
+    private static final int SERVER_RATE = 16000;
+    private static final int RESAMPLER_TAPS = 32;
+    private int captureRate = SERVER_RATE;
+    private PolyphaseResampler resampler = null;
+    //当前使用的连接，热备接替后指向热备连接
+    private volatile FayConnection connection = null;
+    //热备连接(KVUtils HotStandby)，平时只保持连接不处理数据
+    private FayConnection standbyConnection = null;
+    private final List<ConnectionListener> connectionListeners = new ArrayList<>();
+    private ConnectionSupervisor supervisor = null;
+    public static volatile boolean running = false;
     private File cacheDir = null;
     private String channelId = null;
     private  PendingIntent pendingIntent = null;
     private  NotificationManagerCompat notificationManager = null;
-    private  long totalrece = 0;
-    private long totalsend = 0;
+    private final FayMetrics metrics = new FayMetrics();
+    private final MetricsBinder binder = new MetricsBinder();
     private AudioManager mAudioManager = null;
     private Thread sendThread = null;
-    private Thread receThread = null;
-    private  boolean isPlay = false;
-    private boolean isMic = false;
-    private boolean isRecordStarted = false;
+    private Thread uplinkThread = null;
+    //约2秒的16k/16bit音频
+    private static final int UPLINK_BUFFER_SIZE = 64 * 1024;
+    private AudioRingBuffer uplinkBuffer = null;
+    //断线暂存(KVUtils SpoolSeconds，0 关闭)：断线期间录到的音频存进文件，重连后按 4 倍速补发，超过 SpoolMaxAgeMs 的丢掉
+    private static final int MAX_SPOOL_SECONDS = 120;
+    private static final long DEFAULT_SPOOL_MAX_AGE = 10000;
+    private static final int SPOOL_REPLAY_SPEED = 4;
+    private static final long SPOOL_REPLAY_INTERVAL = 20;
+    //没有待补发的数据时发送线程只等新录音，关闭时由 close 唤醒
+    private static final long UPLINK_IDLE_WAIT = 60000;
+    private UplinkSpool spool = null;
+    //语音检测：开头补发约320ms，结尾多发约320ms
+    private static final int VAD_LOOKBACK_FRAMES = 10;
+    private static final int VAD_HANGOVER_FRAMES = 10;
+    private VoiceGate voiceGate = null;
+    //传输参数(KVUtils TransportProfile)：帧长和批量立即生效，socket 选项下次连接生效
+    private volatile TransportProfile transportProfile = TransportProfile.BALANCED;
+    //上行编码(KVUtils UplinkCodec)和 v2 协议(KVUtils Protocol=v2)：连接后先协商，服务器确认前不发音频
+    private final UplinkSession uplink = new UplinkSession(TransportProfile.MAX_BATCH_BYTES, metrics, new UplinkSession.Listener() {
+        @Override
+        public void onCodecNegotiated(AudioCodec codec, boolean acked) {
+            Log.d("fay", acked ? "服务器确认上行编码:" + codec.id() : "服务器未确认上行编码，使用pcm");
+        }
+
+        @Override
+        public void onProtocolNegotiated(boolean v2, boolean acked) {
+            Log.d("fay", acked ? "服务器确认协议版本:" + (v2 ? ProtocolV2.VERSION : 1) : "服务器不支持v2协议，使用老协议");
+        }
+    });
+    //热麦克风模式(KVUtils KeepMicHot)：播放期间不关 sco 和录音，录到的帧静音，播完立即恢复上行；录音和播放通路都按它
+    private volatile CaptureMode captureMode = new CaptureMode(false, 0);
+    private volatile long resumeRequestedAt = 0;
+    //预录缓冲(KVUtils PrerollMs，0 关闭，只在热麦克风时使用)：保留播放结束到上行恢复之间录到的音频，上行恢复时先发出去
+    private volatile PrerollBuffer preroll = null;
+    //麦克风开关、连接、播放都投递给状态机，由它的事件线程开关麦克风；录音线程阻塞到需要录音为止
+    private static final long CAPTURE_RETRY_DELAY = 10000;
+    private ConnectorStateMachine stateMachine = null;
+    //麦克风关闭后录音线程清掉语音门和预录缓冲
+    private volatile boolean resetCapture = false;
     private BroadcastReceiver scoReceiver;
-    private  long keepTime = 0;
+    private final ExecutorService fileExecutor = Executors.newSingleThreadExecutor();
+    //回复音频缓存，默认50MB
+    private static final long DEFAULT_AUDIO_CACHE_MB = 50;
+    private AudioCache audioCache = null;
+    //回复按顺序播放，下一段提前准备好
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private PlaybackQueue playbackQueue = null;
+    //流式下行(KVUtils DownlinkFormat=pcm/adpcm/mulaw，需要 v2 协议)：服务器确认后回复按 16k pcm 块下发，
+    //经抖动缓冲直接用 AudioTrack 播放，不再等完整的 mp3
+    private static final long JITTER_CAPACITY_MS = 10000;
+    private static final long JITTER_MIN_MS = 60;
+    private static final long JITTER_MAX_MS = 500;
+    private int downlinkFormat = -1;
+    private JitterBuffer jitterBuffer = null;
+    private PcmStreamPlayer streamPlayer = null;
+    private volatile long streamReceiveStart = 0;
+    //流量录制(KVUtils RecordTraffic，RecordTrafficMB 限制文件大小)：每次服务启动录一个文件，用 TrafficReplayer 重放
+    private static final long DEFAULT_RECORD_TRAFFIC_MB = 64;
+    private TrafficRecorder trafficRecorder = null;
+    //TLS(KVUtils Tls=true)：所有连接共用会话缓存，重连时恢复会话；TlsPin 是服务器证书的 SHA-256 指纹，设置后只认这张证书
+    private TlsTransport tlsTransport = null;
 
 
     //创建通知
@@ -80,47 +152,190 @@ public class FayConnectorService extends Service {
         @Override
         public void onReceive(Context context, Intent intent) {
             boolean micEnabled = intent.getBooleanExtra("mic", false);
-            if (micEnabled) {
-                isMic = true;
-            } else {
-                isMic = false;
+            stateMachine.post(micEnabled, ConnectorStateMachine.Event.MIC_ON, ConnectorStateMachine.Event.MIC_OFF);
+        }
+    };
+    //界面修改配置后直接生效，不需要轮询
+    private final KVStore.Listener configListener = new KVStore.Listener() {
+        @Override
+        public void onChanged(String key, String value) {
+            if ("IsMic".equals(key)) {
+                stateMachine.post(Boolean.parseBoolean(value), ConnectorStateMachine.Event.MIC_ON, ConnectorStateMachine.Event.MIC_OFF);
+            } else if ("KeepMicHot".equals(key)) {
+                captureMode = CaptureMode.parse(value, KVUtils.readData(getApplicationContext(), "PrerollMs"));
+                postKeepRecording();
+            } else if ("TransportProfile".equals(key)) {
+                applyTransportProfile(value);
+            }
+        }
+    };
+
+    private void postKeepRecording() {
+        stateMachine.post(captureMode.keepRecording(), ConnectorStateMachine.Event.KEEP_RECORDING_ON, ConnectorStateMachine.Event.KEEP_RECORDING_OFF);
+    }
+
+    //状态机的事件线程回调
+    private final ConnectorStateMachine.Listener stateListener = new ConnectorStateMachine.Listener() {
+        @Override
+        public void startMicrophone() {
+            FayConnectorService.this.startMicrophone();
+        }
+
+        @Override
+        public void stopMicrophone() {
+            FayConnectorService.this.stopMicrophone();
+        }
+
+        @Override
+        public void onTransition(ConnectorStateMachine.Event event, ConnectorStateMachine.State from, ConnectorStateMachine.State to) {
+            if (to == ConnectorStateMachine.State.IDLE) {
+                resetCapture = true;
             }
+            Log.d("fay", "状态:" + event + " " + from + "->" + to);
         }
     };
+
+    private void applyTransportProfile(String value) {
+        TransportProfile profile = TransportProfile.parse(value);
+        transportProfile = profile;
+        for (ConnectionListener l : connectionListeners) {
+            l.owner.setSocketOptions(profile.tcpNoDelay, profile.sendBufferSize);
+        }
+        metrics.setTransportProfile(profile.key);
+        Log.d("fay", "传输参数:" + profile.key);
+    }
+
+    private UplinkSpool createSpool() {
+        int seconds = 0;
+        long maxAge = DEFAULT_SPOOL_MAX_AGE;
+        try {
+            seconds = Math.min(MAX_SPOOL_SECONDS, Integer.parseInt(KVUtils.readData(getApplicationContext(), "SpoolSeconds")));
+            maxAge = Long.parseLong(KVUtils.readData(getApplicationContext(), "SpoolMaxAgeMs"));
+        } catch (NumberFormatException e) {
+        }
+        if (seconds <= 0) {
+            return null;
+        }
+        //16k/16bit 每秒32000字节，另外留出批次头的空间
+        int capacity = seconds * 32000 + seconds * 32000 / 32;
+        try {
+            return new UplinkSpool(new File(getCacheDir(), "uplink_spool"), capacity, maxAge, 32, SPOOL_REPLAY_SPEED);
+        } catch (IOException e) {
+            Log.e("fay", "断线暂存文件创建失败", e);
+            return null;
+        }
+    }
+
+    private TrafficRecorder createTrafficRecorder() {
+        if (!Boolean.parseBoolean(KVUtils.readData(getApplicationContext(), "RecordTraffic"))) {
+            return null;
+        }
+        long mb = DEFAULT_RECORD_TRAFFIC_MB;
+        try {
+            mb = Long.parseLong(KVUtils.readData(getApplicationContext(), "RecordTrafficMB"));
+        } catch (NumberFormatException e) {
+        }
+        File dir = new File(getFilesDir(), "traffic");
+        dir.mkdirs();
+        File file = new File(dir, "session-" + System.currentTimeMillis() + ".fayt");
+        try {
+            Log.d("fay", "录制流量:" + file.getAbsolutePath());
+            return new TrafficRecorder(file, mb * 1024 * 1024);
+        } catch (IOException e) {
+            Log.e("fay", "流量录制文件创建失败", e);
+            return null;
+        }
+    }
+
+    //发送线程调用
+    private void spoolBatch(byte[] batch, int n, long time) {
+        if (spool != null && n > 0) {
+            spool.write(batch, 0, n, time);
+        }
+    }
+
+    //16k/16bit 单声道，按整帧对齐
+    //按配置预先分配，运行中打开热麦克风时也能用
+    private static PrerollBuffer createPreroll(int ms, int frameBytes) {
+        if (ms <= 0) {
+            return null;
+        }
+        int frames = Math.max(1, ms * 32 / frameBytes);
+        return new PrerollBuffer(frames * frameBytes);
+    }
+
+    //mp3(默认)返回 -1，其他按上行编码的名字
+    private static int parseDownlinkFormat(String value) {
+        if (value == null || value.isEmpty() || "mp3".equalsIgnoreCase(value)) {
+            return -1;
+        }
+        return AudioCodec.parse(value);
+    }
+
+    //录音线程调用：预录的音频按时间顺序排在当前帧前面
+    private void flushPreroll(byte[] buf) {
+        int n;
+        long flushed = 0;
+        while ((n = preroll.drain(buf, 0, buf.length)) > 0) {
+            flushed += n;
+            if (voiceGate != null) {
+                voiceGate.process(buf, 0, n);
+            } else {
+                uplinkBuffer.write(buf, 0, n);
+            }
+        }
+        metrics.onPrerollFlushed(flushed);
+    }
+
     private void startMicrophone() {
+        if (record == null) {
+            return;//没有录音权限
+        }
         //开启sco
         mAudioManager.startBluetoothSco();
         mAudioManager.setMode(mAudioManager.MODE_IN_CALL);
         mAudioManager.setBluetoothScoOn(true);
         //开始录音
         record.startRecording();
-        isRecordStarted = true;
         Log.d("fay", "麦克风启动成功");
     }
 
     private void stopMicrophone() {
+        if (record == null) {
+            return;
+        }
         //关闭sco
         mAudioManager.stopBluetoothSco();
         mAudioManager.setBluetoothScoOn(false);
         mAudioManager.setMode(mAudioManager.MODE_NORMAL);
         //停止录音
         record.stop();
-        isRecordStarted = false;
         Log.d("fay", "麦克风关闭成功");
     }
 
 
 
+    //同进程绑定后直接读取运行指标
+    public class MetricsBinder extends Binder {
+        public FayMetrics getMetrics() {
+            return metrics;
+        }
+
+        public boolean isConnected() {
+            return connection != null && connection.isConnected();
+        }
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         super.onStartCommand(intent, START_FLAG_REDELIVERY, startId);
-        isMic = intent.getBooleanExtra("mic", false);
+        stateMachine.post(intent.getBooleanExtra("mic", false), ConnectorStateMachine.Event.MIC_ON, ConnectorStateMachine.Event.MIC_OFF);
         return Service.START_STICKY;
 
     }
@@ -131,11 +346,39 @@ public class FayConnectorService extends Service {
         Log.d("fay", "服务启动");
 
         running = true;
+        spool = createSpool();
+        metrics.setSpool(spool);
+        //开了断线暂存时断线也录音
+        stateMachine = new ConnectorStateMachine(stateListener, spool != null, CAPTURE_RETRY_DELAY);
         this.cacheDir = getApplicationContext().getFilesDir();//getCacheDir();
+        long cacheMb = DEFAULT_AUDIO_CACHE_MB;
+        try {
+            cacheMb = Long.parseLong(KVUtils.readData(getApplicationContext(), "AudioCacheMB"));
+        } catch (NumberFormatException e) {
+        }
+        audioCache = new AudioCache(new File(cacheDir, "audio_cache"), cacheMb * 1024 * 1024);
+        playbackQueue = new PlaybackQueue(new PlaybackQueue.Factory() {
+            @Override
+            public PlaybackQueue.Player create() {
+                return new MediaPlayerAdapter();
+            }
+        }, new PlaybackListener());
 
         // 注册广播接收器
         IntentFilter filter = new IntentFilter(ACTION_CONTROL_MIC);
         registerReceiver(micControlReceiver, filter);
+        KVUtils.addListener(getApplicationContext(), configListener);
+        captureMode = CaptureMode.parse(KVUtils.readData(getApplicationContext(), "KeepMicHot"),
+                KVUtils.readData(getApplicationContext(), "PrerollMs"));
+        postKeepRecording();
+        downlinkFormat = parseDownlinkFormat(KVUtils.readData(getApplicationContext(), "DownlinkFormat"));
+        if (downlinkFormat >= 0) {
+            jitterBuffer = new JitterBuffer(ProtocolV2.DOWNLINK_RATE / 1000 * 2, JITTER_CAPACITY_MS, JITTER_MIN_MS, JITTER_MAX_MS);
+            metrics.setJitterBuffer(jitterBuffer);
+            streamPlayer = new PcmStreamPlayer(jitterBuffer, new StreamListener());
+            streamPlayer.start();
+            uplink.setDownlinkFormat(downlinkFormat);
+        }
 
         //蓝牙sco状态监听
         mAudioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
@@ -156,220 +399,220 @@ public class FayConnectorService extends Service {
         this.registerReceiver(scoReceiver, intentFilter);
 
         //连接socket
-        String serverAddress = KVUtils.readData(getApplicationContext(), "ServerAddress");
-        if (serverAddress == null || serverAddress.split(":").length != 2) {
+        //可以写多个服务器，一个都解析不出来时不启动连接
+        if (ServerList.parse(KVUtils.readData(getApplicationContext(), "ServerAddress")).size() == 0) {
+            return;
+        }
+
+        if (Boolean.parseBoolean(KVUtils.readData(getApplicationContext(), "Tls"))) {
+            try {
+                tlsTransport = TlsTransport.create(KVUtils.readData(getApplicationContext(), "TlsPin"));
+            } catch (GeneralSecurityException e) {
+                Log.e("fay", "TLS 初始化失败", e);
+                return;
+            }
+        }
+        //连接引擎，单线程负责收发；录制文件在 TLS 就绪后再打开，不会留下没人关的映射文件
+        trafficRecorder = createTrafficRecorder();
+        connection = createConnection();
+        if (Boolean.parseBoolean(KVUtils.readData(getApplicationContext(), "HotStandby"))) {
+            standbyConnection = createConnection();
+        }
+        try {
+            connection.start();
+            if (standbyConnection != null) {
+                standbyConnection.start();
+            }
+        } catch (IOException e) {
+            Log.e("fay", "连接引擎启动失败", e);
             return;
         }
+        supervisor = new ConnectionSupervisor(connection, standbyConnection, new ConnectionSupervisor.Listener() {
+            @Override
+            public void onActive(FayConnection c) {
+                connection = c;
+                for (ConnectionListener l : connectionListeners) {
+                    if (l.owner == c) {
+                        l.activate();
+                    }
+                }
+                Log.d("fay", "切换到热备连接:" + supervisor.getCurrentServer());
+            }
+        }, new Random());
+        startConnection();
 
-        //启动发送线程
+        //启动录音线程，录到的数据放进环形缓冲，由发送线程交给连接引擎
+        uplinkBuffer = new AudioRingBuffer(UPLINK_BUFFER_SIZE,
+                AudioRingBuffer.parsePolicy(KVUtils.readData(getApplicationContext(), "UplinkOverflow")));
+        metrics.setCaptureBuffer(uplinkBuffer);
+        preroll = createPreroll(captureMode.prerollMs, transportProfile.frameBytes);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) == PackageManager.PERMISSION_GRANTED) {
+            record = createRecord();
+        }
         sendThread = new Thread(new Runnable() {
             @Override
             public void run() {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                    if (ContextCompat.checkSelfPermission(FayConnectorService.this, Manifest.permission.RECORD_AUDIO) == PackageManager.PERMISSION_GRANTED) {
-                        if (record == null) {
-                            recordBufsize = AudioRecord
-                                    .getMinBufferSize(16000,
-                                            AudioFormat.CHANNEL_IN_MONO,
-                                            AudioFormat.ENCODING_PCM_16BIT);
-                            record = new AudioRecord(MediaRecorder.AudioSource.MIC,
-                                    16000,
-                                    AudioFormat.CHANNEL_IN_MONO,
-                                    AudioFormat.ENCODING_PCM_16BIT,
-                                    recordBufsize);
-
+                if (record == null) {
+                    return;
+                }
+                //原生采样率的一帧，重采样后最多 data.length 字节
+                byte[] raw = resampler == null ? null : new byte[rawFrameBytes(TransportProfile.MAX_FRAME_BYTES)];
+                byte[] data = new byte[resampler == null ? TransportProfile.MAX_FRAME_BYTES
+                        : Math.max(TransportProfile.MAX_FRAME_BYTES, resampler.maxOutputBytes(raw.length))];
+                byte[] flushBuffer = new byte[data.length];
+                if (Boolean.parseBoolean(KVUtils.readData(getApplicationContext(), "Vad"))) {
+                    voiceGate = new VoiceGate(new EnergyVoiceDetector(), data.length,
+                            VAD_LOOKBACK_FRAMES, VAD_HANGOVER_FRAMES, new UplinkGateListener());
+                }
+                Log.d("fay", "开始传输音频");
+                while (true) {
+                    //麦克风关闭、等待连接、播放时暂停都阻塞在这里，由状态机唤醒
+                    ConnectorStateMachine.State state;
+                    try {
+                        state = stateMachine.awaitCapture();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    if (state == ConnectorStateMachine.State.STOPPED) {
+                        break;
+                    }
+                    if (resetCapture) {
+                        resetCapture = false;
+                        if (voiceGate != null) {
+                            voiceGate.reset();
                         }
-
-                        byte[] data = new byte[1024];
-                        Log.d("fay", "开始传输音频");
-                        while (running) {
-                            try {
-                                Thread.sleep(50);
-                            }catch (Exception e){}
-                            if (socket == null || out == null || socket.isClosed()){
-                                if (socket != null && !socket.isClosed()){
-                                    try {
-                                        socket.close();
-                                    } catch (IOException e) {
-                                        e.printStackTrace();
-                                    }
-                                    socket = null;
-                                }
-
-                                try {
-                                    Thread.sleep(1000);
-                                }catch (Exception ee){
-                                }
-                                continue;
-                            }
-                            if (isPlay){
-                                continue;
-                            }
-                            if (!isMic){
-                                if (isRecordStarted) {
-                                    stopMicrophone();
-                                }
-                                try {
-                                    Thread.sleep(1000);
-                                }catch (Exception ee){
-                                }
-                                continue;
-                            }else {
-                                if (!isRecordStarted) { //isPlay == true时在上面已经continue
-                                    startMicrophone();
-                                }
+                        if (preroll != null) {
+                            preroll.clear();
+                        }
+                        if (resampler != null) {
+                            resampler.reset();
+                        }
+                    }
+                    //read 会阻塞到录满为止，不需要额外 sleep
+                    long captureStart = System.currentTimeMillis();
+                    int size;
+                    if (resampler == null) {
+                        size = record.read(data, 0, transportProfile.frameBytes);
+                    } else {
+                        size = record.read(raw, 0, rawFrameBytes(transportProfile.frameBytes));
+                        if (size > 0) {
+                            size = resampler.process(raw, 0, size, data, 0);
+                            if (size == 0) {
+                                continue;//不够一个输出采样
                             }
-                            int size = record.read(data, 0, 1024);
-                            if (size > 0) {
-                                try {
-                                    out.write(data);
-                                }catch (Exception e){
-                                    Log.d("fay", "socket断开10秒后重连");
-                                    if (socket != null && !socket.isClosed()){
-                                        try {
-                                            socket.close();
-                                        } catch (IOException ee) {
-                                            ee.printStackTrace();
-                                        }
-                                    }
-                                    socket = null;
-                                    continue;
-                                }
-                                totalsend += data.length / 1024;
-                            } else {//麦克风被占用了，等待10秒重新录取
-                                stopMicrophone();
-                                try {
-                                    Thread.sleep(10000);
-                                } catch (Exception e) {
-                                }
+                        }
+                    }
+                    if (size > 0) {
+                        metrics.onCapture(size);
+                        state = stateMachine.getState();
+                        if (state == ConnectorStateMachine.State.MUTED) {
+                            //播放期间的帧静音：播放结束后、上行恢复前录到的存进预录缓冲，播放中的是回声，不存；
+                            //不经过语音门，没有语音门时发静音保持上行连续
+                            metrics.onCaptureMuted();
+                            if (preroll != null) {
+                                preroll.offer(data, 0, size, captureStart, resumeRequestedAt);
+                            } else if (voiceGate == null) {
+                                Arrays.fill(data, 0, size, (byte) 0);
+                                uplinkBuffer.write(data, 0, size);
                             }
+                            continue;
+                        }
+                        if (state != ConnectorStateMachine.State.CAPTURING) {
+                            continue;//读的时候状态变了，丢掉这一帧
                         }
-                        running = false;
-                        record.stop();
-                        record = null;
-                        ((AudioManager) getSystemService(Context.AUDIO_SERVICE)).stopBluetoothSco();
+                        long resumeAt = resumeRequestedAt;
+                        if (resumeAt > 0) {
+                            resumeRequestedAt = 0;
+                            metrics.onCaptureResume(System.currentTimeMillis() - resumeAt);
+                        }
+                        if (preroll != null && preroll.getDepth() > 0) {
+                            flushPreroll(flushBuffer);
+                        }
+                        if (voiceGate != null) {
+                            voiceGate.process(data, 0, size);
+                        } else {
+                            uplinkBuffer.write(data, 0, size);
+                        }
+                    } else if (stateMachine.getState() == state) {//麦克风被占用了，状态机关麦克风，10秒后重新录取
+                        metrics.onCaptureError();
+                        stateMachine.post(ConnectorStateMachine.Event.CAPTURE_ERROR);
                         try {
-                            if (socket != null && !socket.isClosed()) {
-                                socket.close();
-                            }
-                        } catch (Exception e) {
+                            stateMachine.awaitChange(state);
+                        } catch (InterruptedException e) {
+                            break;
                         }
-                        socket = null;
-                        Log.d("fay", "send线程结束");
                     }
                 }
-
+                running = false;
+                uplinkBuffer.close();
+                Log.d("fay", "录音线程结束");
             }
         });
         sendThread.start();
 
-        //启动接收线程
-        receThread = new Thread(new Runnable() {
+        //启动发送线程，成批取出缓冲里的音频交给连接引擎
+        uplinkThread = new Thread(new Runnable() {
             @Override
             public void run() {
-                    while (running) {
-                        try {
-                            if (socket == null || in == null || socket.isClosed()) {
-                                if (socket != null && !socket.isClosed()){
-                                    try {
-                                        socket.close();
-                                    } catch (IOException e) {
-                                        e.printStackTrace();
-                                    }
-                                }
-                                socket = null;
-                                try {
-                                    Thread.sleep(1000);
-                                } catch (Exception e) {
-                                }
-                                continue;
-                            }
-                            byte[] data = new byte[9];
-                            byte[] wavhead = new byte[]{0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08};//文件传输开始标记
-                            byte[] keephead = new byte[] {(byte) 0xf0, (byte) 0xf1, (byte) 0xf2, (byte) 0xf3, (byte) 0xf4, (byte) 0xf5, (byte) 0xf6, (byte) 0xf7, (byte) 0xf8};
-                            in.read(data);
-
-                            //心跳信息(大约5秒一个)
-                            if (Arrays.equals(keephead, data)) {
-                                keepTime = new Date().getTime();
-                                continue;
+                byte[] batch = new byte[TransportProfile.MAX_BATCH_BYTES];
+                while (running) {
+                    TransportProfile profile = transportProfile;
+                    //有待补发的数据时不能一直等新的录音
+                    boolean replaying = spool != null && !spool.isEmpty() && connection.isConnected();
+                    long timeout = replaying ? SPOOL_REPLAY_INTERVAL : spool != null && !spool.isEmpty() ? 1000 : UPLINK_IDLE_WAIT;
+                    int n = uplinkBuffer.read(batch, 0, profile.batchBytes, timeout);
+                    if (n == -1) {
+                        break;
+                    }
+                    if (n == 0 && !replaying) {
+                        stateMachine.onIdleWakeup();
+                    }
+                    long firstRead = System.currentTimeMillis();
+                    //第一段音频在缓冲里已经等了多久(16k/16bit 每毫秒32字节)
+                    long queuedMs = (n + uplinkBuffer.getDepth()) / 32;
+                    if (n > 0 && profile.batchDelayMs > 0) {
+                        //低带宽：攒满一批或等到最长时间再发
+                        long deadline = firstRead + profile.batchDelayMs;
+                        while (n < profile.batchBytes) {
+                            long wait = deadline - System.currentTimeMillis();
+                            if (wait <= 0) {
+                                break;
                             }
-                            //开始传输音频
-                            if (Arrays.equals(wavhead, data)) {
-                                Log.d("fay", "开始接收音频文件");
-                                String filedata = "";
-                                data = new byte[1024];
-                                int len = 0;
-                                while ((len = in.read(data)) != -1) {
-                                    keepTime = new Date().getTime();//避免长文件接收时误以为心跳超时
-                                    byte[] temp = new byte[len];
-                                    System.arraycopy(data, 0, temp, 0, len);
-                                    filedata += MainActivity.bytesToHexString(temp);
-                                    int index = filedata.indexOf("080706050403020100");//文件结束标记
-                                    if (filedata.length() > 9 && index > 0) {
-                                        filedata = filedata.substring(0, index).replaceAll("F0F1F2F3F4F5F6F7F8", "");//去掉心跳信息
-                                        File wavFile = new File(cacheDir, String.format("sample-%s.mp3", new Date().getTime() + ""));
-                                        wavFile.createNewFile();
-                                        FileOutputStream fos = new FileOutputStream(wavFile);
-                                        fos.write(MainActivity.decodeHexBytes(filedata.toCharArray()));
-                                        fos.close();
-                                        totalrece += filedata.length() / 2 / 1024;
-                                        Log.d("fay", "mp3文件接收完成:" + wavFile.getAbsolutePath() + "," + filedata.length() / 2);
-                                        try {
-                                            MediaPlayer player = new MediaPlayer();
-                                            player.setDataSource(wavFile.getAbsolutePath());
-                                            player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
-                                                @Override
-                                                public void onPrepared(MediaPlayer mp) {
-                                                    isPlay = true;
-                                                    Log.d("fay", "开始播放");
-                                                    if (isRecordStarted) {
-                                                        stopMicrophone();
-                                                    }
-                                                    try {
-                                                        Thread.sleep(100);
-                                                    } catch (Exception e) {
-
-                                                    }
-                                                    isPlay = true;
-                                                    mp.start();
-                                                }
-                                            });
-                                            player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-
-                                                @Override
-                                                public void onCompletion(MediaPlayer mp) {
-                                                    Log.d("fay", "播放完成");
-                                                    mp.release();
-                                                    if (isRecordStarted) {
-                                                        startMicrophone();
-                                                    }
-                                                    isPlay = false;
-                                                }
-
-                                            });
-                                            player.setVolume(1, 1);
-                                            player.setLooping(false);
-                                            player.prepareAsync();
-
-                                        } catch (IOException e) {
-                                            Log.e("fay", e.toString());
-                                        }
-                                        break;
-                                    }
-
-                                }
-                                Thread.sleep(500);
+                            int m = uplinkBuffer.read(batch, n, profile.batchBytes - n, wait);
+                            if (m <= 0) {
+                                break;
                             }
-                            Thread.sleep(500);
-                        } catch (Exception e) {
-                            e.printStackTrace();
+                            n += m;
                         }
                     }
-                    Log.d("fay", "rece线程结束");
+                    if (!connection.isConnected()) {
+                        spoolBatch(batch, n, firstRead);//未连接，暂存或丢弃
+                        continue;
+                    }
+                    if (!uplink.isReady(System.currentTimeMillis())) {
+                        spoolBatch(batch, n, firstRead);//等待服务器确认编码和协议版本，暂存或丢弃
+                        continue;
+                    }
+                    boolean replay = false;
+                    if (spool != null && !spool.isEmpty()) {
+                        //补发期间新录的也排在暂存的后面，保证顺序
+                        spoolBatch(batch, n, firstRead);
+                        n = spool.read(batch, 0, batch.length, System.currentTimeMillis());
+                        replay = true;
+                    }
+                    if (n == 0) {
+                        continue;
+                    }
+                    uplink.send(batch, 0, n);
+                    if (!replay) {
+                        metrics.onUplinkBatch(queuedMs + System.currentTimeMillis() - firstRead);
+                    }
+                }
+                Log.d("fay", "send线程结束");
             }
         });
-        receThread.start();
+        uplinkThread.start();
 
         //更新通知栏，防死
         new Thread(new Runnable() {
@@ -377,15 +620,32 @@ public class FayConnectorService extends Service {
             public void run() {
                 try{
                     while (running) {
-                        String statusStr = socket == null ? "正在连接" : "已经连接";
+                        String statusStr = connection.isConnected() ? "已经连接" : "正在连接";
+                        FayMetrics.Snapshot snapshot = metrics.snapshot();
+                        long totalrece = snapshot.downlinkBytes / 1024;
+                        long totalsend = snapshot.uplinkBytes / 1024;
                         if (totalsend + totalrece > 2048){
                             inotify("fay connector demo", statusStr + "fay控制器，累计接收/发送：" + String.format("%.2f", (double)totalrece / 1024) + "/" + String.format("%.2f", (double)totalsend / 1024) + "MB");
                         } else {
                             inotify("fay connector demo", statusStr + "fay控制器，累计接收/发送：" + totalrece + "/" + totalsend + "KB");
                         }
-                        if (socket == null || in == null || out == null || new Date().getTime() - keepTime > 60000){
-                            reconnectSocket();
+                        Log.d("fay", "上行缓冲:深度" + uplinkBuffer.getDepth() + "/" + uplinkBuffer.getCapacity()
+                                + ",最大" + uplinkBuffer.getMaxDepth() + ",溢出" + uplinkBuffer.getOverruns()
+                                + "次,丢弃" + uplinkBuffer.getDroppedBytes() + "字节");
+                        if (voiceGate != null) {
+                            Log.d("fay", "语音检测:节省上行" + String.format("%.1f", voiceGate.getReduction() * 100)
+                                    + "%,共" + voiceGate.getUtterances() + "句");
                         }
+                        Log.d("fay", "连接引擎:唤醒" + connection.getWakeups() + "次,待发" + connection.getPendingUplink()
+                                + "字节,丢弃" + connection.getUplinkDropped() + "字节");
+                        Log.d("fay", "音频缓存:" + audioCache.size() + "个," + audioCache.getTotalBytes() / 1024 + "KB,命中"
+                                + audioCache.getHits() + "/未命中" + audioCache.getMisses() + "/淘汰" + audioCache.getEvictions());
+                        Log.d("fay", "指标:" + metrics.dump());
+                        Log.d("fay", "重连" + supervisor.getReconnects() + "次,累计断线" + supervisor.getTotalDowntime()
+                                + "ms,心跳间隔" + supervisor.getHeartbeatInterval() + "ms,热备切换" + supervisor.getFailovers() + "次");
+                        Log.d("fay", "服务器:" + supervisor.dumpServers());
+                        Log.d("fay", "状态机:" + stateMachine.getState() + ",事件" + stateMachine.getEvents() + "次,转换"
+                                + stateMachine.getTransitions() + "次,空闲唤醒" + stateMachine.getIdleWakeupsPerMinute() + "次/分");
                         Thread.sleep(30000);
                     }
                     inotify("fay connector demo", "已经断开fay控制器");
@@ -401,6 +661,482 @@ public class FayConnectorService extends Service {
 
     }
 
+    //依次试 CaptureRate、设备原生采样率、16k、48k、8k，用第一个能初始化的
+    private AudioRecord createRecord() {
+        List<Integer> rates = new ArrayList<>();
+        try {
+            rates.add(Integer.parseInt(KVUtils.readData(getApplicationContext(), "CaptureRate")));
+        } catch (NumberFormatException e) {
+        }
+        //输出的原生采样率，一般也是录音通路的原生采样率
+        try {
+            rates.add(Integer.parseInt(mAudioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE)));
+        } catch (NumberFormatException e) {
+        }
+        rates.add(SERVER_RATE);
+        rates.add(48000);
+        rates.add(8000);
+        for (int rate : rates) {
+            int minBufferSize = AudioRecord.getMinBufferSize(rate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+            if (minBufferSize <= 0) {
+                continue;
+            }
+            AudioRecord r = new AudioRecord(MediaRecorder.AudioSource.MIC, rate,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, minBufferSize);
+            if (r.getState() != AudioRecord.STATE_INITIALIZED) {
+                r.release();
+                continue;
+            }
+            recordBufsize = minBufferSize;
+            captureRate = rate;
+            resampler = rate == SERVER_RATE ? null : new PolyphaseResampler(rate, SERVER_RATE, RESAMPLER_TAPS);
+            Log.d("fay", "录音采样率:" + rate + (resampler == null ? "" : ",重采样到" + SERVER_RATE));
+            return r;
+        }
+        Log.e("fay", "没有可用的录音采样率");
+        return null;
+    }
+
+    //16k 下 frameBytes 字节对应的原生采样率字节数，按整采样
+    private int rawFrameBytes(int frameBytes) {
+        return (int) ((long) frameBytes / 2 * captureRate / SERVER_RATE) * 2;
+    }
+
+    private FayConnection createConnection() {
+        ConnectionListener listener = new ConnectionListener();
+        listener.owner = new FayConnection(listener, UPLINK_BUFFER_SIZE);
+        if (trafficRecorder != null) {
+            listener.owner.setRecorder(trafficRecorder, connectionListeners.size());
+        }
+        listener.owner.setTls(tlsTransport);
+        connectionListeners.add(listener);
+        return listener.owner;
+    }
+
+    //连接引擎回调，在引擎线程执行；不是当前连接(热备)时只通知守护
+    private class ConnectionListener implements FayConnection.Listener {
+        private final ReplySink sink = new ReplySink();
+        private final DownlinkDecoder decoder = new DownlinkDecoder(sink, sink);
+        private FayConnection owner = null;
+
+        @Override
+        public void onConnected() {
+            long handshake = owner.getLastHandshakeMillis();
+            if (handshake >= 0) {
+                metrics.onTlsHandshake(handshake, owner.isLastHandshakeResumed());
+                Log.d("fay", "TLS 握手" + (owner.isLastHandshakeResumed() ? "(恢复会话):" : ":") + handshake + "ms");
+            }
+            if (owner != connection) {
+                //热备连上，守护可能让它直接接替，接替时调用 activate
+                supervisor.onConnected(owner);
+                return;
+            }
+            activate();
+            supervisor.onConnected(owner);
+            Log.d("fay", "连接 fay 控制器成功:" + supervisor.getCurrentServer());
+        }
+
+        //成为当前连接：重新协商编码和协议版本
+        void activate() {
+            //丢弃上一条连接未收完的数据
+            sink.abort();
+            decoder.reset();
+            uplink.start(owner, AudioCodec.parse(KVUtils.readData(getApplicationContext(), "UplinkCodec")),
+                    "v2".equalsIgnoreCase(KVUtils.readData(getApplicationContext(), "Protocol")));
+            metrics.onConnected();
+            stateMachine.post(ConnectorStateMachine.Event.CONNECTED);
+        }
+
+        @Override
+        public void onReceive(byte[] buf, int off, int len) {
+            if (owner != connection) {
+                return;
+            }
+            metrics.onDownlink(len);
+            decoder.feed(buf, off, len);
+        }
+
+        @Override
+        public void onUplinkDrained() {
+        }
+
+        @Override
+        public void onDisconnected(IOException cause) {
+            sink.abort();
+            if (cause != null) {
+                Log.e("fay", (owner == connection ? "" : "热备") + "fay 控制器连接断开:" + cause.getMessage());
+            }
+            //热备接替时守护会调用 activate，CONNECTED 排在后面
+            if (owner == connection) {
+                stateMachine.post(ConnectorStateMachine.Event.DISCONNECTED);
+            }
+            supervisor.onDisconnected(owner, cause);
+        }
+    }
+
+    //语音门放行的帧才进入上行缓冲
+    private class UplinkGateListener implements VoiceGate.Listener {
+        @Override
+        public void onFrame(byte[] buf, int off, int len) {
+            uplinkBuffer.write(buf, off, len);
+        }
+
+        @Override
+        public void onUtteranceStart() {
+            Log.d("fay", "检测到说话");
+        }
+
+        @Override
+        public void onUtteranceEnd() {
+            metrics.onSpeechEnd(System.currentTimeMillis());
+            Log.d("fay", "说话结束");
+        }
+    }
+
+    //接收下行音频：默认收完后写文件再播放；边收边播模式下收到一定数据就开始播放，文件在后台保存。
+    //文件都先写成临时文件，收完后按内容哈希放进缓存，相同的回复只保留一份
+    private class ReplySink implements FrameDecoder.Sink, ProtocolV2.ControlListener {
+        private File wavFile = null;
+        private FileOutputStream fos = null;
+        private final MessageDigest digest = AudioCache.newDigest();
+        private ReplyBuffer buffer = null;
+        private boolean playStarted = false;
+        private long size = 0;
+        private long startTime = 0;
+        //流式下行的解码器，每条回复新建(adpcm 有状态)
+        private AudioCodec streamCodec = null;
+        private byte[] decoded = new byte[4096];
+
+        @Override
+        public void onHeartbeat() {
+            long now = System.currentTimeMillis();
+            metrics.onHeartbeat(now);
+            supervisor.onHeartbeat(connection);
+            uplink.ping(now);
+        }
+
+        @Override
+        public void onProtocolAck(int version) {
+            uplink.onProtocolAck(version);
+        }
+
+        @Override
+        public void onControl(int subtype, byte[] data, int off, int len) {
+            if (subtype == ProtocolV2.CONTROL_DOWNLINK_FORMAT && len >= 1) {
+                uplink.onDownlinkFormatAck(data[off] & 0xff);
+                Log.d("fay", uplink.getDownlinkCodec() >= 0 ? "服务器确认流式下行:" + uplink.getDownlinkCodec() : "服务器不支持请求的下行格式，使用mp3");
+                return;
+            }
+            if (len < 8) {
+                return;
+            }
+            long time = ProtocolV2.readLong(data, off);
+            if (subtype == ProtocolV2.CONTROL_PING) {
+                uplink.pong(time);
+            } else if (subtype == ProtocolV2.CONTROL_PONG) {
+                metrics.onRoundTrip(System.currentTimeMillis() - time);
+            }
+        }
+
+        @Override
+        public void onCodecAck(int codec) {
+            uplink.onCodecAck(codec);
+        }
+
+        @Override
+        public void onFrameStart() {
+            Log.d("fay", "开始接收音频文件");
+            size = 0;
+            startTime = System.currentTimeMillis();
+            metrics.onReplyStart(startTime);
+            if (uplink.getDownlinkCodec() >= 0 && jitterBuffer != null) {
+                streamCodec = AudioCodec.create(uplink.getDownlinkCodec());
+                streamReceiveStart = startTime;
+                jitterBuffer.start(startTime);
+                return;
+            }
+            streamCodec = null;
+            wavFile = audioCache.newTempFile();
+            if (Boolean.parseBoolean(KVUtils.readData(getApplicationContext(), "ProgressivePlay"))) {
+                buffer = new ReplyBuffer();
+                playStarted = false;
+                return;
+            }
+            digest.reset();
+            try {
+                fos = new FileOutputStream(wavFile);
+            } catch (IOException e) {
+                Log.e("fay", e.toString());
+                fos = null;
+            }
+        }
+
+        @Override
+        public void onPayload(byte[] buf, int off, int len) {
+            size += len;
+            if (streamCodec != null) {
+                int max = streamCodec.maxDecodedSize(len);
+                if (decoded.length < max) {
+                    decoded = new byte[max];
+                }
+                int n = streamCodec.decode(buf, off, len, decoded, 0);
+                jitterBuffer.write(decoded, 0, n, System.currentTimeMillis());
+                return;
+            }
+            if (buffer != null) {
+                buffer.append(buf, off, len);
+                if (!playStarted && buffer.length() >= ReplyBuffer.PREROLL_BYTES) {
+                    playStarted = true;
+                    enqueuePlayback(buffer, startTime, 0);
+                }
+                return;
+            }
+            if (fos == null) {
+                return;
+            }
+            digest.update(buf, off, len);
+            try {
+                fos.write(buf, off, len);
+            } catch (IOException e) {
+                Log.e("fay", e.toString());
+                closeQuietly();
+            }
+        }
+
+        @Override
+        public void onFrameEnd() {
+            long endTime = System.currentTimeMillis();
+            metrics.onReplyComplete((int) size);
+            if (streamCodec != null) {
+                Log.d("fay", "流式回复接收完成:" + size + "," + (endTime - startTime) + "ms");
+                jitterBuffer.end(endTime);
+                streamCodec = null;
+                return;
+            }
+            Log.d("fay", "mp3文件接收完成:" + size + "," + (endTime - startTime) + "ms");
+            if (buffer != null) {
+                buffer.complete();
+                if (!playStarted) {//回复很短，不够预读长度
+                    enqueuePlayback(buffer, startTime, endTime);
+                }
+                saveInBackground(buffer, wavFile);
+                buffer = null;
+                return;
+            }
+            if (fos == null) {
+                return;
+            }
+            closeQuietly();
+            enqueuePlayback(audioCache.commit(wavFile, digest.digest()), startTime, endTime);
+        }
+
+        //连接断开，丢弃未收完的音频
+        public void abort() {
+            if (streamCodec != null) {
+                jitterBuffer.clear();
+                streamCodec = null;
+            }
+            if (buffer != null) {
+                buffer.abort();
+                buffer = null;
+            }
+            if (fos != null) {
+                closeQuietly();
+                wavFile.delete();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                fos.close();
+            } catch (IOException e) {
+                Log.e("fay", e.toString());
+            }
+            fos = null;
+        }
+    }
+
+    private void saveInBackground(final ReplyBuffer buffer, final File wavFile) {
+        fileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                FileOutputStream fos = null;
+                try {
+                    MessageDigest digest = AudioCache.newDigest();
+                    fos = new FileOutputStream(wavFile);
+                    buffer.writeTo(new DigestOutputStream(fos, digest));
+                    fos.close();
+                    fos = null;
+                    audioCache.commit(wavFile, digest.digest());
+                } catch (IOException e) {
+                    Log.e("fay", e.toString());
+                } finally {
+                    if (fos != null) {
+                        try {
+                            fos.close();
+                        } catch (IOException e) {
+                            Log.e("fay", e.toString());
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    //在连接线程收到回复，交给主线程的播放队列
+    private void enqueuePlayback(Object source, long receiveStart, long receiveEnd) {
+        final PlaybackQueue.Item item = new PlaybackQueue.Item(source, receiveStart, receiveEnd);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (playbackQueue != null) {
+                    playbackQueue.enqueue(item);
+                }
+            }
+        });
+    }
+
+    private class PlaybackListener implements PlaybackQueue.Listener {
+        @Override
+        public void onActive() {
+            resumeRequestedAt = 0;
+            Log.d("fay", "开始播放");
+            stateMachine.post(ConnectorStateMachine.Event.PLAYBACK_START);
+        }
+
+        @Override
+        public void onItemStarted(PlaybackQueue.Item item, long gap) {
+            long now = System.currentTimeMillis();
+            metrics.onPlaybackStart(item.receiveStart, item.receiveEnd, now);
+            if (gap >= 0) {
+                metrics.onPlaybackGap(gap);
+            }
+            Log.d("fay", "首音延迟:" + (now - item.receiveStart) + "ms" + (gap >= 0 ? ",段间空白:" + gap + "ms" : ""));
+        }
+
+        @Override
+        public void onIdle() {
+            Log.d("fay", "播放完成");
+            resumeRequestedAt = System.currentTimeMillis();
+            stateMachine.post(ConnectorStateMachine.Event.PLAYBACK_IDLE);
+        }
+    }
+
+    //流式播放的开始、结束，在播放线程回调
+    private class StreamListener implements PcmStreamPlayer.Listener {
+        @Override
+        public void onStarted() {
+            long now = System.currentTimeMillis();
+            resumeRequestedAt = 0;
+            stateMachine.post(ConnectorStateMachine.Event.PLAYBACK_START);
+            metrics.onPlaybackStart(streamReceiveStart, 0, now);
+            Log.d("fay", "开始流式播放,首音延迟:" + (now - streamReceiveStart) + "ms,缓冲目标:" + jitterBuffer.getTargetMs() + "ms");
+        }
+
+        @Override
+        public void onIdle() {
+            Log.d("fay", "流式播放完成,欠载:" + jitterBuffer.getUnderruns() + "次");
+            resumeRequestedAt = System.currentTimeMillis();
+            stateMachine.post(ConnectorStateMachine.Event.PLAYBACK_IDLE);
+        }
+
+        @Override
+        public boolean voiceRoute() {
+            return captureMode.voiceRoute();
+        }
+    }
+
+    //MediaPlayer 适配到播放队列，回调在创建它的主线程
+    private class MediaPlayerAdapter implements PlaybackQueue.Player,
+            MediaPlayer.OnPreparedListener, MediaPlayer.OnCompletionListener, MediaPlayer.OnErrorListener, MediaPlayer.OnInfoListener {
+        private final MediaPlayer player = new MediaPlayer();
+        private PlaybackQueue.Callback callback;
+
+        MediaPlayerAdapter() {
+            player.setOnPreparedListener(this);
+            player.setOnCompletionListener(this);
+            player.setOnErrorListener(this);
+            player.setOnInfoListener(this);
+        }
+
+        @Override
+        public void setCallback(PlaybackQueue.Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void prepare(Object source) {
+            try {
+                if (source instanceof ReplyBuffer) {
+                    player.setDataSource(new ReplyDataSource((ReplyBuffer) source));
+                } else {
+                    player.setDataSource(((File) source).getAbsolutePath());
+                }
+                //热麦克风模式下一直处于通话模式，按通话用途播放才会走 sco；播放器会复用，每次准备时按当前配置设置
+                player.setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(captureMode.voiceRoute() ? AudioAttributes.USAGE_VOICE_COMMUNICATION : AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                        .build());
+                player.setVolume(1, 1);
+                player.setLooping(false);
+                player.prepareAsync();
+            } catch (IOException | IllegalStateException e) {
+                Log.e("fay", e.toString());
+                callback.onError(this);
+            }
+        }
+
+        @Override
+        public void start() {
+            player.start();
+            callback.onStarted(this);
+        }
+
+        @Override
+        public void setNext(PlaybackQueue.Player next) {
+            player.setNextMediaPlayer(next == null ? null : ((MediaPlayerAdapter) next).player);
+        }
+
+        @Override
+        public void reset() {
+            player.reset();
+            player.setOnPreparedListener(this);
+            player.setOnCompletionListener(this);
+            player.setOnErrorListener(this);
+            player.setOnInfoListener(this);
+        }
+
+        @Override
+        public void release() {
+            player.release();
+        }
+
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+            callback.onPrepared(this);
+        }
+
+        @Override
+        public void onCompletion(MediaPlayer mp) {
+            callback.onCompletion(this);
+        }
+
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            Log.e("fay", "播放出错:" + what + "," + extra);
+            callback.onError(this);
+            return true;
+        }
+
+        @Override
+        public boolean onInfo(MediaPlayer mp, int what, int extra) {
+            if (what == MediaPlayer.MEDIA_INFO_STARTED_AS_NEXT) {
+                callback.onStarted(this);
+            }
+            return false;
+        }
+    }
+
     private void inotify(String title, String content){
         Intent intent = new Intent(this, MainActivity.class);
         intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
@@ -431,44 +1167,65 @@ public class FayConnectorService extends Service {
         Log.d("fay", "服务关闭");
         super.onDestroy();
         running = false;
-        if (isRecordStarted){
-            stopMicrophone();
+        if (uplinkBuffer != null) {
+            uplinkBuffer.close();
         }
-        if (socket != null && !socket.isClosed()) {
-            try {
-                socket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+        //关麦克风，录音线程随后退出，退出后再释放
+        try {
+            stateMachine.shutdown();
+            if (sendThread != null) {
+                sendThread.join(1000);
+            }
+        } catch (InterruptedException e) {
+        }
+        if (record != null) {
+            record.release();
+            record = null;
+        }
+        if (supervisor != null) {
+            supervisor.stop();
+        }
+        if (spool != null) {
+            spool.close();
+        }
+        for (ConnectionListener l : connectionListeners) {
+            l.owner.shutdown();
+        }
+        if (trafficRecorder != null) {
+            for (ConnectionListener l : connectionListeners) {
+                try {
+                    l.owner.join(1000);
+                } catch (InterruptedException e) {
+                }
             }
+            trafficRecorder.close();
+            Log.d("fay", "流量录制结束:" + trafficRecorder.getRecords() + "条," + trafficRecorder.getBytes() + "字节");
         }
         stopForeground(true);
+        fileExecutor.shutdown();
+        if (playbackQueue != null) {
+            playbackQueue.release();
+            playbackQueue = null;
+        }
+        if (streamPlayer != null) {
+            streamPlayer.release();
+            streamPlayer = null;
+        }
+        KVUtils.removeListener(getApplicationContext(), configListener);
         unregisterReceiver(micControlReceiver);
         unregisterReceiver(scoReceiver);
     }
 
-    private void reconnectSocket() {
-        if (socket != null && !socket.isClosed()) {
-            try {
-                socket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-
+    private void startConnection() {
+        applyTransportProfile(KVUtils.readData(getApplicationContext(), "TransportProfile"));
+        //可以写多个服务器，用逗号分隔
         String serverAddress = KVUtils.readData(getApplicationContext(), "ServerAddress");
-        if (serverAddress == null || serverAddress.split(":").length != 2) {
+        ServerList servers = ServerList.parse(serverAddress);
+        if (servers.size() == 0) {
+            Log.e("fay", "服务器地址错误:" + serverAddress);
             return;
         }
-
-        try {
-            socket = new Socket(serverAddress.split(":")[0], Integer.parseInt(serverAddress.split(":")[1]));
-            in = socket.getInputStream();
-            out = socket.getOutputStream();
-            keepTime = new Date().getTime();
-            Log.d("fay", "重新连接 fay 控制器成功");
-        } catch (IOException e) {
-            Log.e("fay", "重新连接 fay 控制器失败", e);
-        }
+        supervisor.start(servers);
     }
 
-}
+}
\ No newline at end of file
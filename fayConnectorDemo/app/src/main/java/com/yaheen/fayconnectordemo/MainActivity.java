@@ -22,8 +22,10 @@ import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
+import android.widget.AdapterView;
 import android.widget.CompoundButton;
 import android.widget.EditText;
+import android.widget.Spinner;
 import android.widget.Switch;
 import android.widget.TextView;
 
@@ -44,6 +46,8 @@ public class MainActivity extends AppCompatActivity {
     private TextView tv = null;
     private EditText serverAddress = null;
     private Switch microphoneSwitch = null;
+    private Switch progressiveSwitch = null;
+    private Spinner transportSpinner = null;
     private boolean running = false;
     private Intent serviceIntent = null;
 
@@ -53,6 +57,8 @@ public class MainActivity extends AppCompatActivity {
         String serverAddressStr = KVUtils.readData(getApplicationContext(), "ServerAddress");
         serverAddress.setText(serverAddressStr == null ? "192.168.1.101:10001" : serverAddressStr);
         microphoneSwitch.setChecked(Boolean.parseBoolean(KVUtils.readData(getApplicationContext(), "IsMic")));
+        progressiveSwitch.setChecked(Boolean.parseBoolean(KVUtils.readData(getApplicationContext(), "ProgressivePlay")));
+        transportSpinner.setSelection(TransportProfile.parse(KVUtils.readData(getApplicationContext(), "TransportProfile")).ordinal());
     }
 
     @Override
@@ -63,10 +69,14 @@ public class MainActivity extends AppCompatActivity {
         tv = this.findViewById(R.id.tv);
         serverAddress = this.findViewById(R.id.server_address);
         microphoneSwitch = this.findViewById(R.id.microphone_switch);
+        progressiveSwitch = this.findViewById(R.id.progressive_switch);
+        transportSpinner = this.findViewById(R.id.transport_profile);
 
         String serverAddressStr = KVUtils.readData(getApplicationContext(), "ServerAddress");
         serverAddress.setText(serverAddressStr == null ? "192.168.1.101:10001" : serverAddressStr);
         microphoneSwitch.setChecked(Boolean.parseBoolean(KVUtils.readData(getApplicationContext(), "IsMic")));
+        progressiveSwitch.setChecked(Boolean.parseBoolean(KVUtils.readData(getApplicationContext(), "ProgressivePlay")));
+        transportSpinner.setSelection(TransportProfile.parse(KVUtils.readData(getApplicationContext(), "TransportProfile")).ordinal());
 
         serviceIntent = new Intent(this, FayConnectorService.class);
 
@@ -127,41 +137,40 @@ public class MainActivity extends AppCompatActivity {
 
             }
         });
+
+        // 边收边播开关，service 在下一条回复开始时读取
+        progressiveSwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                KVUtils.writeData(getApplicationContext(), "ProgressivePlay", isChecked + "");
+            }
+        });
+
+        // 传输参数，service 监听配置变化，帧长和批量立即生效，socket 选项下次连接生效
+        transportSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                KVUtils.writeData(getApplicationContext(), "TransportProfile", TransportProfile.values()[position].key);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
     }
 
 
     public static String bytesToHexString(byte[] data){
-        String result="";
-        for (int i = 0; i < data.length; i++) {
-            result+=Integer.toHexString((data[i] & 0xFF) | 0x100).toUpperCase().substring(1, 3);
-        }
-        return result;
+        return HexUtils.toHex(data, 0, data.length);
     }
 
 
     public static byte[] decodeHexBytes(char[] data) {
-        int len = data.length;
-        if ((len & 0x01) != 0) {
-            throw new RuntimeException("未知的字符");
-        }
-        byte[] out = new byte[len >> 1];
-        for (int i = 0, j = 0; j < len; i++) {
-            int f = toDigit(data[j], j) << 4;
-            j++;
-            f = f | toDigit(data[j], j);
-            j++;
-            out[i] = (byte) (f & 0xFF);
-        }
-        return out;
+        return HexUtils.fromHex(data);
     }
 
     protected static int toDigit(char ch, int index) {
-        int digit = Character.digit(ch, 16);
-        if (digit == -1) {
-            throw new RuntimeException("非法16进制字符 " + ch
-                    + " 在索引 " + index);
-        }
-        return digit;
+        return HexUtils.toDigit(ch, index);
     }
 
     private boolean isServiceRunning() {
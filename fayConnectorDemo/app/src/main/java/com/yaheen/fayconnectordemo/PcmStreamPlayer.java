@@ -0,0 +1,147 @@
+package com.yaheen.fayconnectordemo;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+import android.util.Log;
+
+//流式下行的播放线程：从抖动缓冲按 20ms 一块取 pcm 写进 AudioTrack，写满时阻塞，正好按播放速度取数据
+public class PcmStreamPlayer {
+
+    public interface Listener {
+        //一条(或连续几条)回复开始出声
+        void onStarted();
+
+        //缓冲播空、回复结束
+        void onIdle();
+
+        //每条回复开始前取一次：热麦克风模式下一直处于通话模式，按通话用途播放才会走 sco
+        boolean voiceRoute();
+    }
+
+    private static final int BLOCK_MS = 20;
+    //关闭时检查的间隔
+    private static final long WAIT_TIMEOUT = 1000;
+    //等 AudioTrack 播完时查播放位置的间隔
+    private static final long DRAIN_POLL_MS = 5;
+
+    private final JitterBuffer buffer;
+    private final Listener listener;
+    private final int minSize;
+    private final int blockBytes;
+    //只在播放线程里换，release 在线程结束后释放
+    private volatile AudioTrack track;
+    private boolean trackVoiceRoute;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public PcmStreamPlayer(JitterBuffer buffer, Listener listener) {
+        this.buffer = buffer;
+        this.listener = listener;
+        int rate = ProtocolV2.DOWNLINK_RATE;
+        this.blockBytes = rate / 1000 * BLOCK_MS * 2;
+        this.minSize = AudioTrack.getMinBufferSize(rate, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        this.trackVoiceRoute = listener.voiceRoute();
+        this.track = buildTrack(trackVoiceRoute);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "fay-pcm-player");
+    }
+
+    //AudioTrack 的用途在创建时定下，换通路只能重建
+    private AudioTrack buildTrack(boolean voiceRoute) {
+        int rate = ProtocolV2.DOWNLINK_RATE;
+        return new AudioTrack.Builder()
+                .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(voiceRoute ? AudioAttributes.USAGE_VOICE_COMMUNICATION : AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                        .build())
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setSampleRate(rate)
+                        .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                        .setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
+                        .build())
+                .setTransferMode(AudioTrack.MODE_STREAM)
+                .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                .setBufferSizeInBytes(Math.max(minSize, 2 * blockBytes))
+                .build();
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    private void loop() {
+        byte[] block = new byte[blockBytes];
+        try {
+            while (running) {
+                if (!buffer.awaitPlaying(WAIT_TIMEOUT)) {
+                    continue;
+                }
+                //KeepMicHot 运行中改了，这条回复按新的通路播放；上一条已经 stop、flush，直接换
+                boolean voiceRoute = listener.voiceRoute();
+                if (voiceRoute != trackVoiceRoute) {
+                    track.release();
+                    track = buildTrack(voiceRoute);
+                    trackVoiceRoute = voiceRoute;
+                    Log.d("fay", "流式播放改为" + (voiceRoute ? "通话" : "媒体") + "用途");
+                }
+                //播放位置是无符号 32 位的帧数
+                long startHead = track.getPlaybackHeadPosition() & 0xffffffffL;
+                long framesWritten = 0;
+                track.play();
+                listener.onStarted();
+                while (running) {
+                    int n = buffer.read(block, 0, block.length, System.currentTimeMillis());
+                    if (n > 0) {
+                        int written = track.write(block, 0, n);
+                        if (written > 0) {
+                            framesWritten += written / 2;
+                        } else {
+                            Log.e("fay", "AudioTrack 写入失败:" + written);
+                        }
+                    } else if (buffer.getState() == JitterBuffer.State.IDLE) {
+                        break;
+                    } else {
+                        //欠载，等缓冲重新到目标深度，AudioTrack 这段时间输出静音
+                        buffer.awaitPlaying(WAIT_TIMEOUT);
+                    }
+                }
+                //stream 模式下 stop 立即返回，AudioTrack 缓冲里最多还有一整块没播；等播放位置追上写入的再通知，
+                //否则麦克风会在回复的结尾恢复
+                awaitPlayed(startHead, framesWritten);
+                track.stop();
+                //已经播完，flush 只是把播放位置清零，下一条从 0 开始数
+                track.flush();
+                listener.onIdle();
+            }
+        } catch (InterruptedException e) {
+        } catch (IllegalStateException e) {
+            Log.e("fay", "AudioTrack 播放失败:" + e.getMessage());
+        }
+    }
+
+    private void awaitPlayed(long startHead, long framesWritten) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + framesWritten * 1000 / ProtocolV2.DOWNLINK_RATE + WAIT_TIMEOUT;
+        while (running && System.currentTimeMillis() < deadline) {
+            long played = ((track.getPlaybackHeadPosition() & 0xffffffffL) - startHead) & 0xffffffffL;
+            if (played >= framesWritten) {
+                return;
+            }
+            Thread.sleep(DRAIN_POLL_MS);
+        }
+    }
+
+    public void release() {
+        running = false;
+        buffer.close();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+        }
+        track.release();
+    }
+}
@@ -0,0 +1,36 @@
+package com.yaheen.fayconnectordemo;
+
+import android.media.MediaDataSource;
+
+import java.io.IOException;
+
+//把 ReplyBuffer 提供给 MediaPlayer，实现边收边播
+public class ReplyDataSource extends MediaDataSource {
+
+    private final ReplyBuffer buffer;
+
+    public ReplyDataSource(ReplyBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (size == 0) {
+            return 0;
+        }
+        try {
+            return this.buffer.readAt(position, buffer, offset, size);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return buffer.getSize();
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+}
@@ -0,0 +1,41 @@
+package com.yaheen.fayconnectordemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+//每帧 1024 字节(32ms)上行音频的编码开销
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CodecBenchmark {
+
+    @Param({"0", "1", "2"})
+    public int codecId;
+
+    private AudioCodec codec;
+    private byte[] pcm;
+    private byte[] out;
+
+    @Setup
+    public void setup() {
+        codec = AudioCodec.create(codecId);
+        pcm = new byte[1024];
+        for (int i = 0; i < 512; i++) {
+            AudioCodec.writeSample(pcm, 2 * i, (int) (8000 * Math.sin(2 * Math.PI * 220 * i / 16000.0)));
+        }
+        out = new byte[codec.maxEncodedSize(pcm.length)];
+    }
+
+    @Benchmark
+    public int encodeFrame() {
+        return codec.encode(pcm, 0, pcm.length, out, 0);
+    }
+}
@@ -0,0 +1,170 @@
+package com.yaheen.fayconnectordemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//连接器对本地替身服务器的端到端耗时：上行吞吐、回复首字节时间、断线恢复时间，都走真实的本地 TCP
+public class EndToEndBenchmark {
+
+    private static final long TIMEOUT = 5000;
+    private static final int UPLINK_BYTES = 64 * 1024;
+
+    @State(Scope.Benchmark)
+    public static class Session {
+        //对应传输配置里的每帧字节数
+        @Param({"640", "2048", "8192"})
+        public int batch;
+
+        FakeFayServer server;
+        ConnectorHarness connector;
+        byte[] pcm;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            server = new FakeFayServer();
+            server.setHeartbeatInterval(100);
+            server.start(0);
+            connector = new ConnectorHarness(batch, 42);
+            connector.start("127.0.0.1", server.getPort());
+            expect(connector.await("connected", TIMEOUT), "connected");
+            server.awaitClients(1, TIMEOUT);
+            pcm = new byte[UPLINK_BYTES];
+            new Random(1).nextBytes(pcm);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            connector.stop();
+            server.stop();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Reply {
+        //服务器收到一句话后到开始回复的时间，0 时测的就是本地链路和解析的开销
+        @Param({"0", "20"})
+        public long delayMs;
+
+        FakeFayServer server;
+        ConnectorHarness connector;
+        final byte[] trigger = new byte[2048];
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            server = new FakeFayServer();
+            server.setReply(FakeFayServer.mp3Like(32 * 1024, 1));
+            server.setReplyAfterBytes(trigger.length);
+            server.setReplyDelay(delayMs);
+            server.setReplyChunking(4096, 2);
+            server.start(0);
+            connector = new ConnectorHarness(trigger.length, 42);
+            connector.start("127.0.0.1", server.getPort());
+            expect(connector.await("connected", TIMEOUT), "connected");
+        }
+
+        //回复剩下的部分不计时，收完再开始下一次
+        @TearDown(Level.Invocation)
+        public void drain() throws Exception {
+            expect(connector.await("reply-end", TIMEOUT), "reply-end");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            connector.stop();
+            server.stop();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Reconnect {
+        FakeFayServer server;
+        ConnectorHarness connector;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            server = new FakeFayServer();
+            server.setHeartbeatInterval(100);
+            server.start(0);
+            //seed 固定，每轮的退避抖动序列一样
+            connector = new ConnectorHarness(2048, 42);
+            connector.start("127.0.0.1", server.getPort());
+            expect(connector.await("connected", TIMEOUT), "connected");
+        }
+
+        //收到心跳后退避才会回到初始值，每次断线都从同样的状态开始
+        @Setup(Level.Invocation)
+        public void ready() throws Exception {
+            server.awaitClients(1, TIMEOUT);
+            expect(connector.await("heartbeat", TIMEOUT), "heartbeat");
+            connector.clearEvents();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            connector.stop();
+            server.stop();
+        }
+    }
+
+    private static void expect(ConnectorHarness.Event event, String type) {
+        if (event == null) {
+            throw new IllegalStateException("等待 " + type + " 超时");
+        }
+    }
+
+    //每次发 64KB，等服务器全部收到，ops/s * 64KB 就是吞吐
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long uplinkThroughput(Session s) throws Exception {
+        long target = s.server.getReceivedBytes() + UPLINK_BYTES;
+        int sent = 0;
+        while (sent < UPLINK_BYTES) {
+            int n = s.connector.send(s.pcm, sent, Math.min(s.batch, UPLINK_BYTES - sent));
+            if (n == 0) {
+                Thread.yield();//发送缓冲满了，等连接引擎写出去
+            }
+            sent += n;
+        }
+        if (!s.server.awaitReceived(target, TIMEOUT)) {
+            throw new IllegalStateException("上行超时");
+        }
+        return sent;
+    }
+
+    //说完一句到收到回复开始标记
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long replyTimeToFirstByte(Reply r) throws Exception {
+        r.connector.send(r.trigger, 0, r.trigger.length);
+        ConnectorHarness.Event start = r.connector.await("reply-start", TIMEOUT);
+        expect(start, "reply-start");
+        return start.time;
+    }
+
+    //服务器断开所有连接到连接器重新连上，包含守护的退避时间
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 20)
+    public long reconnectRecovery(Reconnect r) throws Exception {
+        r.server.dropAll();
+        expect(r.connector.await("connected", TIMEOUT), "connected");
+        return r.connector.getSupervisor().getLastDowntime();
+    }
+}
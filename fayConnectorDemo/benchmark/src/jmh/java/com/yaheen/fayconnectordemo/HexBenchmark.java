@@ -0,0 +1,48 @@
+package com.yaheen.fayconnectordemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HexBenchmark {
+
+    //旧实现是平方复杂度，只测到 64KB
+    @Param({"1024", "16384", "65536"})
+    public int size;
+
+    private byte[] data;
+    private char[] hex;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(1).nextBytes(data);
+        hex = HexUtils.toHex(data, 0, size).toCharArray();
+    }
+
+    @Benchmark
+    public String legacyBytesToHexString() {
+        return LegacyProtocol.bytesToHexString(data);
+    }
+
+    @Benchmark
+    public String toHex() {
+        return HexUtils.toHex(data, 0, data.length);
+    }
+
+    @Benchmark
+    public byte[] fromHex() {
+        return HexUtils.fromHex(hex);
+    }
+}
@@ -0,0 +1,65 @@
+package com.yaheen.fayconnectordemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class KVBenchmark {
+
+    private File legacyFile;
+    private File storeFile;
+    private KVStore store;
+    private boolean toggle;
+
+    @Setup
+    public void setup() throws IOException {
+        legacyFile = File.createTempFile("kv_legacy", ".txt");
+        storeFile = File.createTempFile("kv_store", ".txt");
+        LegacyProtocol.writeData(legacyFile, "ServerAddress", "192.168.1.101:10001");
+        LegacyProtocol.writeData(legacyFile, "IsMic", "true");
+        store = new KVStore(storeFile);
+        store.put("ServerAddress", "192.168.1.101:10001");
+        store.put("IsMic", "true");
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.flush();
+        legacyFile.delete();
+        storeFile.delete();
+    }
+
+    @Benchmark
+    public String legacyRead() {
+        return LegacyProtocol.readData(legacyFile, "IsMic");
+    }
+
+    @Benchmark
+    public void legacyWrite() {
+        toggle = !toggle;
+        LegacyProtocol.writeData(legacyFile, "IsMic", toggle + "");
+    }
+
+    @Benchmark
+    public String storeRead() {
+        return store.get("IsMic");
+    }
+
+    @Benchmark
+    public void storeWrite() {
+        toggle = !toggle;
+        store.put("IsMic", toggle + "");
+    }
+}
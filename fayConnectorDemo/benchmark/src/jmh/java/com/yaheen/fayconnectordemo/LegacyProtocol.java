@@ -0,0 +1,110 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+//旧版实现，原样保留作为基准对比
+public class LegacyProtocol {
+
+    public static String bytesToHexString(byte[] data){
+        String result="";
+        for (int i = 0; i < data.length; i++) {
+            result+=Integer.toHexString((data[i] & 0xFF) | 0x100).toUpperCase().substring(1, 3);
+        }
+        return result;
+    }
+
+    //旧版接收循环：每次 read 都转成16进制字符串累加，再在整串里找结束标记
+    public static byte[] receive(byte[] stream, int readSize) {
+        String filedata = "";
+        int off = 9;//跳过开始标记
+        while (off < stream.length) {
+            int len = Math.min(readSize, stream.length - off);
+            byte[] temp = new byte[len];
+            System.arraycopy(stream, off, temp, 0, len);
+            off += len;
+            filedata += bytesToHexString(temp);
+            int index = filedata.indexOf("080706050403020100");//文件结束标记
+            if (filedata.length() > 9 && index > 0) {
+                filedata = filedata.substring(0, index).replaceAll("F0F1F2F3F4F5F6F7F8", "");//去掉心跳信息
+                return HexUtils.fromHex(filedata.toCharArray());
+            }
+        }
+        return null;
+    }
+
+    public static void writeData(File file, String key, String value) {
+        Map<String, String> dataMap = new HashMap<>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("=", 2);
+                if (parts.length >= 2) {
+                    dataMap.put(parts[0], parts[1]);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        dataMap.put(key, value);
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(file, false));
+            for (Map.Entry<String, String> entry : dataMap.entrySet()) {
+                writer.write(entry.getKey() + "=" + entry.getValue());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    public static String readData(File file, String key) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("=", 2);
+                if (parts.length >= 2 && parts[0].equals(key)) {
+                    return parts[1];
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return null;
+    }
+}
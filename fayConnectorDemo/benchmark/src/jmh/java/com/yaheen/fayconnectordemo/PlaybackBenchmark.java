@@ -0,0 +1,88 @@
+package com.yaheen.fayconnectordemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * mp3 回复的首音时间：说完一句到播放器拿到开头的数据，对比先写完文件再播和边收边播(ReplyBuffer)。
+ * 替身服务器按 4KB/10ms 发回复，先写文件的随回复长度增长，边收边播在收到 ReplyBuffer.PREROLL_BYTES 时开始。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PlaybackBenchmark {
+
+    private static final long TIMEOUT = 10000;
+
+    @Param({"false", "true"})
+    public boolean progressive;
+
+    @Param({"32", "128", "512"})
+    public int replyKb;
+
+    private FakeFayServer server;
+    private ConnectorHarness connector;
+    private File dir;
+    private final byte[] trigger = new byte[2048];
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = new FakeFayServer();
+        server.setReply(FakeFayServer.mp3Like(replyKb * 1024, 1));
+        server.setReplyAfterBytes(trigger.length);
+        server.setReplyChunking(4096, 10);
+        server.start(0);
+        dir = Files.createTempDirectory("playback").toFile();
+        connector = new ConnectorHarness(trigger.length, 42);
+        connector.setPlayback(dir, progressive);
+        connector.start("127.0.0.1", server.getPort());
+        expect(connector.await("connected", TIMEOUT), "connected");
+    }
+
+    //边收边播时回复还没收完，收完再开始下一次
+    @TearDown(Level.Invocation)
+    public void drain() throws Exception {
+        if (progressive) {
+            expect(connector.await("reply-end", TIMEOUT), "reply-end");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connector.stop();
+        server.stop();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static void expect(ConnectorHarness.Event event, String type) {
+        if (event == null) {
+            throw new IllegalStateException("等待 " + type + " 超时");
+        }
+    }
+
+    @Benchmark
+    public long timeToFirstAudio() throws Exception {
+        connector.send(trigger, 0, trigger.length);
+        ConnectorHarness.Event first = connector.await("first-audio", TIMEOUT);
+        expect(first, "first-audio");
+        return first.time;
+    }
+}
@@ -0,0 +1,82 @@
+package com.yaheen.fayconnectordemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//一条完整回复(开始标记 + mp3 + 结束标记)按 1024 字节一次 read 的解析开销
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReceiveBenchmark {
+
+    @Param({"1024", "16384", "262144", "1048576"})
+    public int size;
+
+    private byte[] stream;
+    private long received;
+    private FrameDecoder decoder;
+
+    @Setup
+    public void setup() {
+        byte[] payload = new byte[size];
+        new Random(1).nextBytes(payload);
+        for (int i = 0; i < size; i++) {//避免随机数据里刚好出现结束标记的首字节
+            if (payload[i] == 0x08) {
+                payload[i] = 0x09;
+            }
+        }
+        stream = new byte[size + 18];
+        System.arraycopy(FrameDecoder.START_MARKER, 0, stream, 0, 9);
+        System.arraycopy(payload, 0, stream, 9, size);
+        System.arraycopy(FrameDecoder.END_MARKER, 0, stream, size + 9, 9);
+        decoder = new FrameDecoder(new FrameDecoder.Sink() {
+            @Override
+            public void onHeartbeat() {
+            }
+
+            @Override
+            public void onCodecAck(int codec) {
+            }
+
+            @Override
+            public void onProtocolAck(int version) {
+            }
+
+            @Override
+            public void onFrameStart() {
+            }
+
+            @Override
+            public void onPayload(byte[] buf, int off, int len) {
+                received += len;
+            }
+
+            @Override
+            public void onFrameEnd() {
+            }
+        });
+    }
+
+    @Benchmark
+    public byte[] legacyHexAccumulate() {
+        return LegacyProtocol.receive(stream, 1024);
+    }
+
+    @Benchmark
+    public void frameDecoder(Blackhole bh) {
+        for (int off = 0; off < stream.length; off += 1024) {
+            decoder.feed(stream, off, Math.min(1024, stream.length - off));
+        }
+        bh.consume(received);
+    }
+}
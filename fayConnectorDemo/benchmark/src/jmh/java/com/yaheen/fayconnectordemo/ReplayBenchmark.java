@@ -0,0 +1,132 @@
+package com.yaheen.fayconnectordemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把录下的会话流量不等待地重放进接收路径(连接回调 -> 下行解码)，得到处理整个会话下行的时间。
+ * 用 -Dfay.recording=现场录的文件 跑真实流量；不指定时生成一个合成的会话：心跳、上行加 20 条按 1000~1800 字节分段到达的回复。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReplayBenchmark {
+
+    private File synthetic;
+    private TrafficReplayer replayer;
+    private TrafficReplayer.Sink sink;
+    private long replyBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        String path = System.getProperty("fay.recording");
+        File file;
+        if (path != null) {
+            file = new File(path);
+        } else {
+            synthetic = File.createTempFile("replay", ".fayt");
+            record(synthetic);
+            file = synthetic;
+        }
+        replayer = new TrafficReplayer(file);
+        DownlinkDecoder decoder = new DownlinkDecoder(new FrameDecoder.Sink() {
+            @Override
+            public void onHeartbeat() {
+            }
+
+            @Override
+            public void onCodecAck(int codec) {
+            }
+
+            @Override
+            public void onProtocolAck(int version) {
+            }
+
+            @Override
+            public void onFrameStart() {
+            }
+
+            @Override
+            public void onPayload(byte[] buf, int off, int len) {
+                replyBytes += len;
+            }
+
+            @Override
+            public void onFrameEnd() {
+            }
+        }, new ProtocolV2.ControlListener() {
+            @Override
+            public void onControl(int subtype, byte[] data, int off, int len) {
+            }
+        });
+        sink = TrafficReplayer.toListener(new FayConnection.Listener() {
+            @Override
+            public void onConnected() {
+                decoder.reset();
+            }
+
+            @Override
+            public void onReceive(byte[] buf, int off, int len) {
+                decoder.feed(buf, off, len);
+            }
+
+            @Override
+            public void onUplinkDrained() {
+            }
+
+            @Override
+            public void onDisconnected(IOException cause) {
+            }
+        }, 0);
+    }
+
+    private static void record(File file) throws IOException {
+        TrafficRecorder recorder = new TrafficRecorder(file, 64 * 1024 * 1024);
+        recorder.event(TrafficRecorder.CONNECTED, 0);
+        byte[] up = new byte[640];
+        for (int reply = 0; reply < 20; reply++) {
+            recorder.record(TrafficRecorder.DOWNLINK, 0, FrameDecoder.HEARTBEAT_MARKER, 0, FrameDecoder.MARKER_LEN);
+            for (int i = 0; i < 50; i++) {
+                recorder.record(TrafficRecorder.UPLINK, 0, up, 0, up.length);
+            }
+            byte[] mp3 = FakeFayServer.mp3Like(32 * 1024, reply);
+            byte[] stream = new byte[mp3.length + 2 * FrameDecoder.MARKER_LEN];
+            System.arraycopy(FrameDecoder.START_MARKER, 0, stream, 0, FrameDecoder.MARKER_LEN);
+            System.arraycopy(mp3, 0, stream, FrameDecoder.MARKER_LEN, mp3.length);
+            System.arraycopy(FrameDecoder.END_MARKER, 0, stream, FrameDecoder.MARKER_LEN + mp3.length, FrameDecoder.MARKER_LEN);
+            Random random = new Random(reply);
+            for (int off = 0; off < stream.length; ) {
+                int n = Math.min(stream.length - off, 1000 + random.nextInt(800));
+                recorder.record(TrafficRecorder.DOWNLINK, 0, stream, off, n);
+                off += n;
+            }
+        }
+        recorder.event(TrafficRecorder.DISCONNECTED, 0);
+        recorder.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (synthetic != null) {
+            synthetic.delete();
+        }
+    }
+
+    @Benchmark
+    public long session() throws Exception {
+        replyBytes = 0;
+        replayer.replay(sink, 0);
+        return replyBytes;
+    }
+}
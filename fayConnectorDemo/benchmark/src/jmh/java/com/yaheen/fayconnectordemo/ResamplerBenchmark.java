@@ -0,0 +1,50 @@
+package com.yaheen.fayconnectordemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+//把 1 秒设备原生采样率的录音按 20ms 一帧转成 16k，结果就是每秒音频的 CPU 时间
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResamplerBenchmark {
+
+    @Param({"48000", "44100", "8000"})
+    public int rate;
+
+    @Param({"16", "32"})
+    public int taps;
+
+    private PolyphaseResampler resampler;
+    private byte[] pcm;
+    private byte[] out;
+    private int frame;
+
+    @Setup
+    public void setup() {
+        resampler = new PolyphaseResampler(rate, 16000, taps);
+        pcm = new byte[rate * 2];
+        for (int i = 0; i < rate; i++) {
+            AudioCodec.writeSample(pcm, 2 * i, (int) (8000 * Math.sin(2 * Math.PI * 220 * i / (double) rate)));
+        }
+        frame = rate / 50 * 2;
+        out = new byte[resampler.maxOutputBytes(frame)];
+    }
+
+    @Benchmark
+    public int oneSecond() {
+        int n = 0;
+        for (int off = 0; off + frame <= pcm.length; off += frame) {
+            n += resampler.process(pcm, off, frame, out, 0);
+        }
+        return n;
+    }
+}
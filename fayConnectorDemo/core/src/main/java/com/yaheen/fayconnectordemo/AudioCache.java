@@ -0,0 +1,219 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 回复音频缓存：按内容哈希去重，超过容量按最近最少使用淘汰。
+ * 索引保存在 index.txt，每行 "哈希 大小 最后使用时间"，按使用先后排序，重启后恢复。
+ */
+public class AudioCache {
+
+    private static final String INDEX_FILE = "index.txt";
+    private static final String SUFFIX = ".mp3";
+
+    private static class Entry {
+        final String hash;
+        final long size;
+        long lastUsed;
+
+        Entry(String hash, long size, long lastUsed) {
+            this.hash = hash;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private final File dir;
+    private final long maxBytes;
+    //accessOrder=true，迭代顺序就是 LRU 顺序
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+    private int tempSeq = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public AudioCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        dir.mkdirs();
+        loadIndex();
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //接收过程中先写到临时文件
+    public synchronized File newTempFile() {
+        return new File(dir, "tmp-" + System.currentTimeMillis() + "-" + (tempSeq++) + ".part");
+    }
+
+    /**
+     * 临时文件收完后放进缓存，返回可以播放的文件。
+     * 已有相同内容时删除临时文件，直接返回已有文件。
+     */
+    public synchronized File commit(File temp, byte[] digest) {
+        String hash = toHex(digest);
+        File target = fileFor(hash);
+        Entry entry = entries.get(hash);
+        if (entry != null && target.exists()) {
+            hits++;
+            temp.delete();
+            entry.lastUsed = System.currentTimeMillis();
+            saveIndex();
+            return target;
+        }
+        misses++;
+        if (entry != null) {//索引里有但文件丢了
+            entries.remove(hash);
+            totalBytes -= entry.size;
+        }
+        if (!temp.renameTo(target)) {
+            //改名失败就直接用临时文件，不进缓存
+            return temp;
+        }
+        entry = new Entry(hash, target.length(), System.currentTimeMillis());
+        entries.put(hash, entry);
+        totalBytes += entry.size;
+        evict(hash);
+        saveIndex();
+        return target;
+    }
+
+    //淘汰最久没用的，刚放进来的不淘汰
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry e = it.next().getValue();
+            if (e.hash.equals(keep)) {
+                continue;
+            }
+            it.remove();
+            totalBytes -= e.size;
+            evictions++;
+            fileFor(e.hash).delete();
+        }
+    }
+
+    private File fileFor(String hash) {
+        return new File(dir, hash + SUFFIX);
+    }
+
+    private void loadIndex() {
+        File index = new File(dir, INDEX_FILE);
+        if (index.exists()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new FileReader(index));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split(" ");
+                    if (parts.length != 3) {
+                        continue;
+                    }
+                    File f = fileFor(parts[0]);
+                    if (!f.exists()) {
+                        continue;
+                    }
+                    Entry e = new Entry(parts[0], f.length(), Long.parseLong(parts[2]));
+                    entries.put(e.hash, e);
+                    totalBytes += e.size;
+                }
+            } catch (IOException | NumberFormatException e) {
+                e.printStackTrace();
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        //清理上次没收完的临时文件和不在索引里的文件
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (name.endsWith(".part")
+                        || (name.endsWith(SUFFIX) && !entries.containsKey(name.substring(0, name.length() - SUFFIX.length())))) {
+                    f.delete();
+                }
+            }
+        }
+        evict(null);
+    }
+
+    //先写临时文件再改名，避免写到一半断电索引损坏
+    private void saveIndex() {
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(tmp, false));
+            for (Entry e : entries.values()) {
+                writer.write(e.hash + " " + e.size + " " + e.lastUsed);
+                writer.newLine();
+            }
+            writer.close();
+            writer = null;
+            if (!tmp.renameTo(new File(dir, INDEX_FILE))) {
+                throw new IOException("索引改名失败");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,66 @@
+package com.yaheen.fayconnectordemo;
+
+/**
+ * 上行音频编码。输入输出都是 16bit 小端单声道 PCM；
+ * 有状态的编码(ADPCM)一个实例只能用于一个方向的一条连接。
+ */
+public abstract class AudioCodec {
+
+    public static final int PCM = 0;
+    public static final int MULAW = 1;
+    public static final int IMA_ADPCM = 2;
+
+    public static AudioCodec create(int id) {
+        switch (id) {
+            case MULAW:
+                return new MuLawCodec();
+            case IMA_ADPCM:
+                return new ImaAdpcmCodec();
+            case PCM:
+                return new PcmCodec();
+            default:
+                throw new IllegalArgumentException("未知的编码:" + id);
+        }
+    }
+
+    //KVUtils 里保存的名字：pcm / mulaw / adpcm
+    public static int parse(String name) {
+        if ("mulaw".equalsIgnoreCase(name)) {
+            return MULAW;
+        }
+        if ("adpcm".equalsIgnoreCase(name)) {
+            return IMA_ADPCM;
+        }
+        return PCM;
+    }
+
+    public abstract int id();
+
+    public abstract int maxEncodedSize(int pcmBytes);
+
+    //返回写入 out 的字节数
+    public abstract int encode(byte[] pcm, int off, int len, byte[] out, int outOff);
+
+    public abstract int maxDecodedSize(int encodedBytes);
+
+    //返回写入 pcm 的字节数
+    public abstract int decode(byte[] in, int off, int len, byte[] pcm, int pcmOff);
+
+    //新连接开始前、上行丢帧后清空状态
+    public void reset() {
+    }
+
+    //编码结果依赖前面的数据，丢掉一段后解码端必须一起重置
+    public boolean isStateful() {
+        return false;
+    }
+
+    static int readSample(byte[] pcm, int i) {
+        return (short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8));
+    }
+
+    static void writeSample(byte[] pcm, int i, int s) {
+        pcm[i] = (byte) s;
+        pcm[i + 1] = (byte) (s >> 8);
+    }
+}
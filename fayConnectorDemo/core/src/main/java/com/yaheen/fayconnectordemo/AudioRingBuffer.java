@@ -0,0 +1,182 @@
+package com.yaheen.fayconnectordemo;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 录音线程和发送线程之间的单生产者/单消费者环形缓冲，预先分配，无锁。
+ * 满了以后按 OverflowPolicy 阻塞录音线程或者丢弃最旧的数据。
+ */
+public class AudioRingBuffer {
+
+    public enum OverflowPolicy {
+        BLOCK,
+        DROP_OLDEST
+    }
+
+    private final byte[] data;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    //读写位置只增不减，取模得到数组下标
+    private final AtomicLong readPos = new AtomicLong();
+    private final AtomicLong writePos = new AtomicLong();
+    private volatile Thread waitingReader = null;
+    private volatile Thread waitingWriter = null;
+    private volatile boolean closed = false;
+
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private volatile long maxDepth = 0;
+
+    public AudioRingBuffer(int capacity, OverflowPolicy policy) {
+        this.data = new byte[capacity];
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    public static OverflowPolicy parsePolicy(String value) {
+        return "block".equalsIgnoreCase(value) ? OverflowPolicy.BLOCK : OverflowPolicy.DROP_OLDEST;
+    }
+
+    //只能由生产者调用，BLOCK 模式下关闭或中断时返回 false
+    public boolean write(byte[] buf, int off, int len) {
+        if (len > capacity) {
+            throw new IllegalArgumentException("len > capacity: " + len);
+        }
+        long w = writePos.get();
+        boolean blocked = false;
+        while (w + len - readPos.get() > capacity) {
+            if (closed) {
+                return false;
+            }
+            if (policy == OverflowPolicy.DROP_OLDEST) {
+                long r = readPos.get();
+                long need = w + len - capacity;
+                if (need > r && readPos.compareAndSet(r, need)) {
+                    overruns.incrementAndGet();
+                    droppedBytes.addAndGet(need - r);
+                }
+                continue;
+            }
+            if (!blocked) {
+                blocked = true;
+                overruns.incrementAndGet();
+            }
+            waitingWriter = Thread.currentThread();
+            if (w + len - readPos.get() > capacity && !closed) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+            }
+            waitingWriter = null;
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        int index = (int) (w % capacity);
+        int first = Math.min(len, capacity - index);
+        System.arraycopy(buf, off, data, index, first);
+        if (first < len) {
+            System.arraycopy(buf, off + first, data, 0, len - first);
+        }
+        writePos.set(w + len);
+        long depth = w + len - readPos.get();
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        Thread reader = waitingReader;
+        if (reader != null) {
+            LockSupport.unpark(reader);
+        }
+        return true;
+    }
+
+    /**
+     * 只能由消费者调用。至少等到 1 个字节，最多读 maxLen 字节；
+     * 超时返回 0，关闭且读空后返回 -1。
+     */
+    public int read(byte[] buf, int off, int maxLen, long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            long r = readPos.get();
+            long w = writePos.get();
+            int n = (int) Math.min(maxLen, w - r);
+            if (n > 0) {
+                int index = (int) (r % capacity);
+                int first = Math.min(n, capacity - index);
+                System.arraycopy(data, index, buf, off, first);
+                if (first < n) {
+                    System.arraycopy(data, 0, buf, off + first, n - first);
+                }
+                //拷贝期间被生产者丢弃(覆盖)了，重新读
+                if (!readPos.compareAndSet(r, r + n)) {
+                    continue;
+                }
+                Thread writer = waitingWriter;
+                if (writer != null) {
+                    LockSupport.unpark(writer);
+                }
+                return n;
+            }
+            if (closed) {
+                return -1;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return 0;
+            }
+            waitingReader = Thread.currentThread();
+            if (writePos.get() == readPos.get() && !closed) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            waitingReader = null;
+            if (Thread.currentThread().isInterrupted()) {
+                return 0;
+            }
+        }
+    }
+
+    //丢弃所有未读数据，只能由消费者调用
+    public void clear() {
+        while (true) {
+            long r = readPos.get();
+            long w = writePos.get();
+            if (r == w || readPos.compareAndSet(r, w)) {
+                return;
+            }
+        }
+    }
+
+    public void close() {
+        closed = true;
+        Thread reader = waitingReader;
+        if (reader != null) {
+            LockSupport.unpark(reader);
+        }
+        Thread writer = waitingWriter;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    //当前排队的字节数
+    public int getDepth() {
+        return (int) (writePos.get() - readPos.get());
+    }
+
+    public long getMaxDepth() {
+        return maxDepth;
+    }
+
+    //缓冲满的次数(丢弃或阻塞)
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+}
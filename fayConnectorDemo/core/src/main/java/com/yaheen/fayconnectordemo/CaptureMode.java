@@ -0,0 +1,45 @@
+package com.yaheen.fayconnectordemo;
+
+/**
+ * 播放期间的麦克风和声音通路，由 KVUtils 的 KeepMicHot、PrerollMs 决定。
+ * 热麦克风时播放期间不关录音和 sco，手机一直在通话模式，回复也要按通话用途播放；
+ * 否则播放期间关麦克风、回到普通模式，回复按媒体用途播放。录音和播放都从这里取，两边不会不一致。
+ * 预录缓冲只在热麦克风时有效：播放期间不录音就没有可存的，单独设置 PrerollMs 不会让通路停在通话模式。
+ */
+public class CaptureMode {
+
+    public static final int MAX_PREROLL_MS = 2000;
+
+    public final boolean keepMicHot;
+    //配置的预录时长，0 表示关闭
+    public final int prerollMs;
+
+    public CaptureMode(boolean keepMicHot, int prerollMs) {
+        this.keepMicHot = keepMicHot;
+        this.prerollMs = Math.max(0, Math.min(MAX_PREROLL_MS, prerollMs));
+    }
+
+    public static CaptureMode parse(String keepMicHot, String prerollMs) {
+        int ms = 0;
+        try {
+            ms = Integer.parseInt(prerollMs);
+        } catch (NumberFormatException e) {
+        }
+        return new CaptureMode(Boolean.parseBoolean(keepMicHot), ms);
+    }
+
+    //播放期间继续录音(状态机的 KEEP_RECORDING)
+    public boolean keepRecording() {
+        return keepMicHot;
+    }
+
+    //回复按通话用途播放，走 sco；和播放期间是否还在通话模式一致
+    public boolean voiceRoute() {
+        return keepRecording();
+    }
+
+    //播放结束到上行恢复之间的录音存进预录缓冲
+    public boolean prerollActive() {
+        return keepRecording() && prerollMs > 0;
+    }
+}
@@ -0,0 +1,326 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接守护：连接引擎报告断开(I/O 错误、读超时、连接失败)后立即按带抖动的指数退避重连；
+ * 根据实际心跳间隔设置读超时；统计重连次数和断线时长。
+ * 收到第一个心跳后才清零退避，避免服务器连上就断时频繁重连。
+ * 有多个服务器时每次连接前并行探测，选连续失败少、延迟低的；可选一条热备连接连到次优的服务器，
+ * 主连接断开时直接切换过去，不用等退避和握手。
+ */
+public class ConnectionSupervisor {
+
+    public interface Listener {
+        //热备连接接替了主连接，在守护的锁里回调
+        void onActive(FayConnection connection);
+    }
+
+    private static final long BASE_DELAY = 500;
+    private static final long MAX_DELAY = 30000;
+    //还没收到心跳时的读超时，服务器大约 5 秒一个心跳
+    private static final long DEFAULT_READ_TIMEOUT = 15000;
+    private static final long MIN_READ_TIMEOUT = 8000;
+    private static final int MISSED_HEARTBEATS = 3;
+    private static final int PROBE_TIMEOUT = 1000;
+    private static final long STANDBY_RETRY_DELAY = 5000;
+
+    private FayConnection connection;
+    private FayConnection standby;//null 表示不用热备
+    private final Listener listener;
+    private final Random random;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService prober = Executors.newCachedThreadPool();
+    private ScheduledFuture<?> pending = null;
+    private ScheduledFuture<?> standbyPending = null;
+    private ServerList servers = null;
+    private ServerList.Server current = null;
+    private ServerList.Server standbyServer = null;
+    private boolean standbyConnected = false;
+    private boolean running = false;
+    private int attempts = 0;
+    private long downSince = 0;
+    private long lastHeartbeat = 0;
+    private double heartbeatInterval = 0;
+
+    private volatile long reconnects = 0;
+    private volatile long totalDowntime = 0;
+    private volatile long lastDowntime = 0;
+    private volatile long failovers = 0;
+
+    public ConnectionSupervisor(FayConnection connection) {
+        this(connection, new Random());
+    }
+
+    public ConnectionSupervisor(FayConnection connection, Random random) {
+        this(connection, null, null, random);
+    }
+
+    public ConnectionSupervisor(FayConnection connection, FayConnection standby, Listener listener, Random random) {
+        this.connection = connection;
+        this.standby = standby;
+        this.listener = listener;
+        this.random = random;
+    }
+
+    public void start(String host, int port) {
+        start(new ServerList(Collections.singletonList(new ServerList.Server(host, port))));
+    }
+
+    public synchronized void start(ServerList servers) {
+        this.servers = servers;
+        running = true;
+        attempts = 0;
+        downSince = 0;
+        connection.setReadTimeout(DEFAULT_READ_TIMEOUT);
+        if (standby != null) {
+            standby.setReadTimeout(DEFAULT_READ_TIMEOUT);
+        }
+        if (servers.size() > 1) {
+            schedulePrimary(0, false);
+        } else {
+            current = servers.best(null);
+            connection.connect(current.host, current.port);
+        }
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        if (standbyPending != null) {
+            standbyPending.cancel(false);
+            standbyPending = null;
+        }
+        scheduler.shutdownNow();
+        prober.shutdownNow();
+    }
+
+    //以下由连接引擎回调转发过来，不带连接参数的表示主连接
+    public synchronized void onConnected() {
+        onConnected(connection);
+    }
+
+    public synchronized void onConnected(FayConnection c) {
+        if (c == standby) {
+            standbyConnected = true;
+            servers.onConnected(standbyServer);
+            if (downSince > 0) {
+                //主连接正在重连，热备直接顶上
+                promote();
+            }
+            return;
+        }
+        servers.onConnected(current);
+        recordRecovery();
+        lastHeartbeat = 0;
+        if (standby != null && !standbyConnected && (standbyPending == null || standbyPending.isDone())) {
+            scheduleStandby(0);
+        }
+    }
+
+    public synchronized void onDisconnected(IOException cause) {
+        onDisconnected(connection, cause);
+    }
+
+    public synchronized void onDisconnected(FayConnection c, IOException cause) {
+        if (!running) {
+            return;
+        }
+        if (c == standby) {
+            if (standbyServer != null) {
+                servers.onFailure(standbyServer);
+            }
+            standbyConnected = false;
+            standbyServer = null;
+            if (standbyPending == null || standbyPending.isDone()) {
+                scheduleStandby(STANDBY_RETRY_DELAY);
+            }
+            return;
+        }
+        if (current != null) {
+            servers.onFailure(current);
+        }
+        if (downSince == 0) {
+            downSince = System.currentTimeMillis();
+        }
+        if (standbyConnected) {
+            promote();
+            return;
+        }
+        if (pending != null && !pending.isDone()) {
+            return;
+        }
+        schedulePrimary(nextDelay(), true);
+    }
+
+    //热备和主连接互换，断开的主连接之后作为热备重连
+    private void promote() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        FayConnection old = connection;
+        connection = standby;
+        standby = old;
+        current = standbyServer;
+        standbyServer = null;
+        standbyConnected = false;
+        failovers++;
+        reconnects++;
+        recordRecovery();
+        lastHeartbeat = 0;
+        if (listener != null) {
+            listener.onActive(connection);
+        }
+        scheduleStandby(BASE_DELAY);
+    }
+
+    private void recordRecovery() {
+        if (downSince > 0) {
+            lastDowntime = System.currentTimeMillis() - downSince;
+            totalDowntime += lastDowntime;
+            downSince = 0;
+        }
+    }
+
+    //探测在调度线程里做，不持有锁，避免阻塞连接引擎的回调
+    private void schedulePrimary(long delay, final boolean reconnect) {
+        pending = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                probeAll();
+                synchronized (ConnectionSupervisor.this) {
+                    if (!running || (reconnect && downSince == 0)) {
+                        return;//热备已经接替
+                    }
+                    if (reconnect) {
+                        reconnects++;
+                    }
+                    current = servers.best(standbyServer);
+                    if (current == null) {
+                        current = servers.best(null);
+                    }
+                    connection.connect(current.host, current.port);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleStandby(long delay) {
+        standbyPending = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                probeAll();
+                synchronized (ConnectionSupervisor.this) {
+                    if (!running || standbyConnected || !connection.isConnected()) {
+                        return;//主连接恢复后会再安排
+                    }
+                    standbyServer = servers.best(current);
+                    if (standbyServer == null) {
+                        return;//没有别的服务器，不开热备
+                    }
+                    standby.connect(standbyServer.host, standbyServer.port);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    //并行探测所有服务器，最多等 PROBE_TIMEOUT
+    private void probeAll() {
+        final ServerList list = servers;
+        if (list.size() <= 1) {
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (final ServerList.Server server : list.getServers()) {
+                futures.add(prober.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        list.onProbe(server, ServerList.probe(server, PROBE_TIMEOUT));
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (Exception e) {
+            //停止时线程池被关闭
+        }
+    }
+
+    public void onHeartbeat() {
+        onHeartbeat(null);
+    }
+
+    public synchronized void onHeartbeat(FayConnection c) {
+        if (c != null && c != connection) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        attempts = 0;
+        if (current != null) {
+            servers.onHealthy(current);
+        }
+        if (lastHeartbeat > 0) {
+            long interval = now - lastHeartbeat;
+            heartbeatInterval = heartbeatInterval == 0 ? interval : heartbeatInterval * 0.8 + interval * 0.2;
+            connection.setReadTimeout(Math.max(MIN_READ_TIMEOUT, (long) (heartbeatInterval * MISSED_HEARTBEATS)));
+        }
+        lastHeartbeat = now;
+    }
+
+    //等间隔抖动：[d/2, d]
+    synchronized long nextDelay() {
+        long delay = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempts, 16));
+        attempts++;
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    public long getReconnects() {
+        return reconnects;
+    }
+
+    public long getTotalDowntime() {
+        return totalDowntime;
+    }
+
+    public long getLastDowntime() {
+        return lastDowntime;
+    }
+
+    //热备接替主连接的次数
+    public long getFailovers() {
+        return failovers;
+    }
+
+    public synchronized ServerList.Server getCurrentServer() {
+        return current;
+    }
+
+    public synchronized String dumpServers() {
+        return servers == null ? "" : servers.dump();
+    }
+
+    //当前仍处于断线状态的时长
+    public synchronized long getCurrentDowntime() {
+        return downSince == 0 ? 0 : System.currentTimeMillis() - downSince;
+    }
+
+    public synchronized long getHeartbeatInterval() {
+        return (long) heartbeatInterval;
+    }
+}
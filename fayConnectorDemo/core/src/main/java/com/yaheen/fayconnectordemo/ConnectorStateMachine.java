@@ -0,0 +1,289 @@
+package com.yaheen.fayconnectordemo;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 麦克风/连接/播放的状态机，跑在自己的单线程事件循环里：麦克风开关、连接建立/断开、播放开始/结束都作为事件投递进来，
+ * 在事件线程里立即算出新状态并开关麦克风，不再由各线程轮询共享的标志。
+ * 录音线程用 awaitCapture 阻塞到需要录音为止；状态变化记在环形的转换日志里，空闲唤醒按分钟统计。
+ */
+public class ConnectorStateMachine {
+
+    public enum State {
+        IDLE,//麦克风关闭
+        WAITING_CONNECTION,//没有连接也不暂存，录到的音频没有用，麦克风关闭
+        CAPTURING,
+        MUTED,//播放中继续录音，录到的帧静音
+        SUSPENDED,//播放中，麦克风关闭
+        BACKOFF,//录音出错，等一段时间重试
+        STOPPED;
+
+        //这些状态下麦克风应该打开
+        boolean microphoneOn() {
+            return reading();
+        }
+
+        //这些状态下录音线程读取麦克风
+        public boolean reading() {
+            return this == CAPTURING || this == MUTED;
+        }
+    }
+
+    public enum Event {
+        MIC_ON,
+        MIC_OFF,
+        CONNECTED,
+        DISCONNECTED,
+        PLAYBACK_START,
+        PLAYBACK_IDLE,
+        KEEP_RECORDING_ON,
+        KEEP_RECORDING_OFF,
+        CAPTURE_ERROR,
+        RETRY,
+        SHUTDOWN
+    }
+
+    //都在事件线程回调
+    public interface Listener {
+        void startMicrophone();
+
+        void stopMicrophone();
+
+        void onTransition(Event event, State from, State to);
+    }
+
+    private static final int LOG_SIZE = 32;
+    private static final long MINUTE = 60000;
+
+    private final Listener listener;
+    private final boolean captureWhileDisconnected;
+    private final long retryDelayMs;
+    private final ScheduledThreadPoolExecutor loop;
+
+    //以下输入只在事件线程修改
+    private boolean mic = false;
+    private boolean connected = false;
+    private boolean playing = false;
+    private boolean keepRecording = false;
+    private boolean backoff = false;
+    private boolean shutdown = false;
+    private boolean microphoneOn = false;
+    private volatile State state = State.IDLE;
+
+    //转换日志，事件线程写，dump 时加锁读
+    private final long[] logTime = new long[LOG_SIZE];
+    private final Event[] logEvent = new Event[LOG_SIZE];
+    private final State[] logFrom = new State[LOG_SIZE];
+    private final State[] logTo = new State[LOG_SIZE];
+    private int logCount = 0;
+
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong transitions = new AtomicLong();
+    private final AtomicLong idleWakeups = new AtomicLong();
+    private long lastMinuteTotal = 0;
+    private volatile long idleWakeupsPerMinute = 0;
+
+    //captureWhileDisconnected 为 true 时断线也录音(断线暂存)；录音出错后等 retryDelayMs 再开麦克风
+    public ConnectorStateMachine(Listener listener, boolean captureWhileDisconnected, long retryDelayMs) {
+        this.listener = listener;
+        this.captureWhileDisconnected = captureWhileDisconnected;
+        this.retryDelayMs = retryDelayMs;
+        this.loop = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "fay-state");
+            }
+        });
+        //关闭时不再等待还没到时间的重试
+        loop.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        loop.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                long total = idleWakeups.get();
+                idleWakeupsPerMinute = total - lastMinuteTotal;
+                lastMinuteTotal = total;
+            }
+        }, MINUTE, MINUTE, TimeUnit.MILLISECONDS);
+    }
+
+    //任意线程调用，事件按投递顺序处理
+    public void post(final Event event) {
+        try {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handle(event);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //已经关闭
+        }
+    }
+
+    public void post(boolean on, Event whenOn, Event whenOff) {
+        post(on ? whenOn : whenOff);
+    }
+
+    //处理完 SHUTDOWN(关麦克风)再返回
+    public void shutdown() throws InterruptedException {
+        post(Event.SHUTDOWN);
+        loop.shutdown();
+        loop.awaitTermination(1000, TimeUnit.MILLISECONDS);
+    }
+
+    //事件线程里处理一个事件，测试里直接调用
+    void handle(Event event) {
+        events.incrementAndGet();
+        switch (event) {
+            case MIC_ON:
+                mic = true;
+                break;
+            case MIC_OFF:
+                mic = false;
+                break;
+            case CONNECTED:
+                connected = true;
+                break;
+            case DISCONNECTED:
+                connected = false;
+                break;
+            case PLAYBACK_START:
+                playing = true;
+                break;
+            case PLAYBACK_IDLE:
+                playing = false;
+                break;
+            case KEEP_RECORDING_ON:
+                keepRecording = true;
+                break;
+            case KEEP_RECORDING_OFF:
+                keepRecording = false;
+                break;
+            case CAPTURE_ERROR:
+                if (!backoff && !shutdown) {
+                    backoff = true;
+                    loop.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            handle(Event.RETRY);
+                        }
+                    }, retryDelayMs, TimeUnit.MILLISECONDS);
+                }
+                break;
+            case RETRY:
+                backoff = false;
+                break;
+            case SHUTDOWN:
+                shutdown = true;
+                break;
+            default:
+                break;
+        }
+        State from = state;
+        State to = compute();
+        if (to == from) {
+            idleWakeups.incrementAndGet();//事件没有引起状态变化
+            return;
+        }
+        //先开麦克风再让录音线程读；先让录音线程停止读再关麦克风，录音线程不会读到关闭的麦克风
+        if (!microphoneOn && to.microphoneOn()) {
+            microphoneOn = true;
+            listener.startMicrophone();
+        }
+        synchronized (this) {
+            state = to;
+            int i = logCount % LOG_SIZE;
+            logTime[i] = System.currentTimeMillis();
+            logEvent[i] = event;
+            logFrom[i] = from;
+            logTo[i] = to;
+            logCount++;
+            notifyAll();
+        }
+        if (microphoneOn && !to.microphoneOn()) {
+            microphoneOn = false;
+            listener.stopMicrophone();
+        }
+        transitions.incrementAndGet();
+        listener.onTransition(event, from, to);
+    }
+
+    private State compute() {
+        if (shutdown) {
+            return State.STOPPED;
+        }
+        if (!mic) {
+            return State.IDLE;
+        }
+        if (backoff) {
+            return State.BACKOFF;
+        }
+        if (!connected && !captureWhileDisconnected) {
+            return State.WAITING_CONNECTION;
+        }
+        if (playing) {
+            return keepRecording ? State.MUTED : State.SUSPENDED;
+        }
+        return State.CAPTURING;
+    }
+
+    //录音线程调用：阻塞到需要读麦克风或已停止，返回当前状态
+    public synchronized State awaitCapture() throws InterruptedException {
+        while (!state.reading() && state != State.STOPPED) {
+            wait();
+            if (!state.reading() && state != State.STOPPED) {
+                idleWakeups.incrementAndGet();//被唤醒但仍然不用录音
+            }
+        }
+        return state;
+    }
+
+    //录音线程报告出错后调用，等状态机处理完再继续，避免对出错的麦克风空转
+    public synchronized void awaitChange(State from) throws InterruptedException {
+        while (state == from) {
+            wait();
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    //其它线程等待超时、空转时调用
+    public void onIdleWakeup() {
+        idleWakeups.incrementAndGet();
+    }
+
+    public long getEvents() {
+        return events.get();
+    }
+
+    public long getTransitions() {
+        return transitions.get();
+    }
+
+    public long getIdleWakeups() {
+        return idleWakeups.get();
+    }
+
+    //上一分钟的空闲唤醒次数
+    public long getIdleWakeupsPerMinute() {
+        return idleWakeupsPerMinute;
+    }
+
+    //最近的状态转换，按时间顺序，每行: 时间 事件 原状态->新状态
+    public synchronized String dumpTransitions() {
+        StringBuilder sb = new StringBuilder();
+        int first = Math.max(0, logCount - LOG_SIZE);
+        for (int n = first; n < logCount; n++) {
+            int i = n % LOG_SIZE;
+            sb.append(logTime[i]).append(' ').append(logEvent[i]).append(' ')
+                    .append(logFrom[i]).append("->").append(logTo[i]).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package com.yaheen.fayconnectordemo;
+
+/**
+ * 下行解码：连接后先按老协议的标记解析，服务器确认 v2 后改为按长度前缀帧解析。
+ * 两种协议的回复音频、心跳都转换成同样的 FrameDecoder.Sink 回调，上层不用区分协议。
+ */
+public class DownlinkDecoder {
+
+    //控制帧都很短，超过这个长度直接丢弃
+    private static final int MAX_CONTROL_LEN = 256;
+
+    private final FrameDecoder.Sink sink;
+    private final ProtocolV2.ControlListener control;
+    private final FrameDecoder legacy;
+    private final ProtocolV2.Decoder v2;
+    private final byte[] controlBuffer = new byte[MAX_CONTROL_LEN];
+    private int controlLen = 0;
+    private boolean useV2 = false;
+    private boolean inReply = false;
+
+    public DownlinkDecoder(final FrameDecoder.Sink sink, ProtocolV2.ControlListener control) {
+        this.sink = sink;
+        this.control = control;
+        this.legacy = new FrameDecoder(new FrameDecoder.Sink() {
+            @Override
+            public void onHeartbeat() {
+                sink.onHeartbeat();
+            }
+
+            @Override
+            public void onCodecAck(int codec) {
+                sink.onCodecAck(codec);
+            }
+
+            @Override
+            public void onProtocolAck(int version) {
+                useV2 = version == ProtocolV2.VERSION;
+                sink.onProtocolAck(version);
+            }
+
+            @Override
+            public void onFrameStart() {
+                sink.onFrameStart();
+            }
+
+            @Override
+            public void onPayload(byte[] buf, int off, int len) {
+                sink.onPayload(buf, off, len);
+            }
+
+            @Override
+            public void onFrameEnd() {
+                sink.onFrameEnd();
+            }
+        });
+        this.v2 = new ProtocolV2.Decoder(new V2Listener());
+    }
+
+    public boolean isV2() {
+        return useV2;
+    }
+
+    public boolean isInFrame() {
+        return useV2 ? inReply : legacy.isInFrame();
+    }
+
+    public void reset() {
+        legacy.reset();
+        v2.reset();
+        useV2 = false;
+        inReply = false;
+        controlLen = 0;
+    }
+
+    public void feed(byte[] buf, int off, int len) {
+        while (len > 0) {
+            if (useV2) {
+                v2.feed(buf, off, len);
+                return;
+            }
+            int n = legacy.feed(buf, off, len);
+            off += n;
+            len -= n;
+        }
+    }
+
+    private class V2Listener implements ProtocolV2.Listener {
+        @Override
+        public void onFrameStart(int type, int length) {
+            if (type == ProtocolV2.AUDIO_DOWN) {
+                if (length == 0 && inReply) {
+                    inReply = false;
+                    sink.onFrameEnd();
+                } else if (length > 0 && !inReply) {
+                    inReply = true;
+                    sink.onFrameStart();
+                }
+            } else if (type == ProtocolV2.HEARTBEAT) {
+                sink.onHeartbeat();
+            } else if (type == ProtocolV2.CONTROL) {
+                controlLen = 0;
+            }
+        }
+
+        @Override
+        public void onFramePayload(int type, byte[] buf, int off, int len) {
+            if (type == ProtocolV2.AUDIO_DOWN) {
+                sink.onPayload(buf, off, len);
+            } else if (type == ProtocolV2.CONTROL) {
+                int n = Math.min(len, MAX_CONTROL_LEN - controlLen);
+                System.arraycopy(buf, off, controlBuffer, controlLen, n);
+                controlLen += n;
+            }
+            //其他类型(包括以后新增的)直接跳过
+        }
+
+        @Override
+        public void onFrameEnd(int type) {
+            if (type == ProtocolV2.CONTROL && controlLen > 0 && controlLen < MAX_CONTROL_LEN) {
+                control.onControl(controlBuffer[0] & 0xff, controlBuffer, 1, controlLen - 1);
+            }
+        }
+    }
+}
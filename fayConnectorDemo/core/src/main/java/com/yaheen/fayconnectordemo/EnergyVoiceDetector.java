@@ -0,0 +1,69 @@
+package com.yaheen.fayconnectordemo;
+
+/**
+ * 基于能量和过零率的语音检测。噪声底噪在非语音帧上自适应跟踪，
+ * 能量高出底噪 marginDb 判为语音；能量只是略高但过零率很高的帧视为噪声(嘶嘶声)。
+ */
+public class EnergyVoiceDetector implements VoiceDetector {
+
+    private static final double MIN_SPEECH_DB = -55;//低于这个电平一律当作静音
+    private static final double INITIAL_FLOOR_DB = -70;
+
+    private final double marginDb;
+    private final double maxZcr;
+    private double floorDb = INITIAL_FLOOR_DB;
+    private boolean floorInitialized = false;
+
+    public EnergyVoiceDetector() {
+        this(10, 0.35);
+    }
+
+    public EnergyVoiceDetector(double marginDb, double maxZcr) {
+        this.marginDb = marginDb;
+        this.maxZcr = maxZcr;
+    }
+
+    @Override
+    public boolean isSpeech(byte[] pcm, int off, int len) {
+        int samples = len / 2;
+        if (samples == 0) {
+            return false;
+        }
+        double sum = 0;
+        int crossings = 0;
+        int prev = 0;
+        for (int i = 0; i < samples; i++) {
+            int s = (short) ((pcm[off + 2 * i] & 0xff) | (pcm[off + 2 * i + 1] << 8));
+            sum += (double) s * s;
+            if (i > 0 && (s >= 0) != (prev >= 0)) {
+                crossings++;
+            }
+            prev = s;
+        }
+        double rms = Math.sqrt(sum / samples);
+        double db = 20 * Math.log10(Math.max(rms, 1) / 32768.0);
+        double zcr = (double) crossings / samples;
+
+        if (!floorInitialized) {
+            floorDb = db;
+            floorInitialized = true;
+        }
+        boolean speech = db > MIN_SPEECH_DB && db > floorDb + marginDb
+                && (zcr < maxZcr || db > floorDb + 2 * marginDb);
+        if (!speech) {
+            //底噪下降快、上升慢
+            floorDb = db < floorDb ? db : floorDb * 0.95 + db * 0.05;
+        }
+        return speech;
+    }
+
+    @Override
+    public void reset() {
+        floorDb = INITIAL_FLOOR_DB;
+        floorInitialized = false;
+    }
+
+    public double getFloorDb() {
+        return floorDb;
+    }
+}
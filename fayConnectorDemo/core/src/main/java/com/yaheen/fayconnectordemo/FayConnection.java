@@ -0,0 +1,459 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 基于 SocketChannel + Selector 的连接引擎，单线程完成连接、收、发，没有 sleep 轮询。
+ * 回调都在引擎线程里执行，不要在回调里做耗时操作。send 可以在任意线程调用。
+ * 设置了 TlsTransport 时连上后先完成 TLS 握手再回调 onConnected，收发的都是明文，录制的也是明文。
+ */
+public class FayConnection {
+
+    public interface Listener {
+        void onConnected();
+
+        //下行原始字节，buf 只在回调期间有效
+        void onReceive(byte[] buf, int off, int len);
+
+        //上行缓冲已全部写出
+        void onUplinkDrained();
+
+        //连接失败或断开，cause 为 null 表示主动断开
+        void onDisconnected(IOException cause);
+    }
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private final Listener listener;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final byte[] readArray = new byte[READ_BUFFER_SIZE];
+    private final ByteBuffer writeBuffer;//写模式，只在持有锁时访问
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+    private Thread thread;
+    private SocketChannel channel = null;
+    private SelectionKey key = null;
+    private long connectDeadline = 0;
+    private volatile long readTimeout = 0;//0 表示不检测
+    private volatile boolean connected = false;
+    private volatile boolean tcpNoDelay = false;
+    private volatile int sendBufferSize = 0;//0 表示系统默认
+    private volatile boolean appliedNoDelay = false;
+    private volatile boolean running = false;
+    private volatile TrafficRecorder recorder = null;
+    private volatile int recorderStream = 0;
+    private volatile TlsTransport tls = null;
+    private TlsChannel tlsChannel = null;
+    private String host = null;
+    private int port = 0;
+    private volatile long lastHandshakeMillis = -1;
+    private volatile boolean lastHandshakeResumed = false;
+
+    private volatile long wakeups = 0;
+    private volatile long bytesRead = 0;
+    private volatile long bytesWritten = 0;
+    private volatile long uplinkDropped = 0;
+    private volatile long lastReceiveTime = 0;
+
+    public FayConnection(Listener listener, int uplinkBufferSize) {
+        this.listener = listener;
+        this.writeBuffer = ByteBuffer.allocateDirect(uplinkBufferSize);
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        selector = Selector.open();
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "fay-connection");
+        thread.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    public void join(long millis) throws InterruptedException {
+        if (thread != null) {
+            thread.join(millis);
+        }
+    }
+
+    //异步连接，之前的连接会被关闭
+    public void connect(final String host, final int port) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                close(null);
+                FayConnection.this.host = host;
+                FayConnection.this.port = port;
+                try {
+                    channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+                    if (sendBufferSize > 0) {
+                        channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+                    }
+                    appliedNoDelay = channel.getOption(StandardSocketOptions.TCP_NODELAY);
+                    //TLS 握手也算在连接超时里
+                    connectDeadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+                    if (channel.connect(new InetSocketAddress(host, port))) {
+                        key = channel.register(selector, SelectionKey.OP_READ);
+                        onConnectFinished();
+                    } else {
+                        key = channel.register(selector, SelectionKey.OP_CONNECT);
+                    }
+                } catch (IOException e) {
+                    close(e);
+                }
+            }
+        });
+    }
+
+    //下次 connect 时生效
+    public void setSocketOptions(boolean tcpNoDelay, int sendBufferSize) {
+        this.tcpNoDelay = tcpNoDelay;
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    //null 表示明文，下次 connect 时生效；同一个 TlsTransport 的连接之间共享会话缓存
+    public void setTls(TlsTransport tls) {
+        this.tls = tls;
+    }
+
+    //录制这条连接收到、写出的字节，stream 区分同一文件里的多条连接；null 停止录制
+    public void setRecorder(TrafficRecorder recorder, int stream) {
+        this.recorderStream = stream;
+        this.recorder = recorder;
+    }
+
+    //当前连接实际的 TCP_NODELAY
+    public boolean isTcpNoDelay() {
+        return appliedNoDelay;
+    }
+
+    public void disconnect() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                close(null);
+            }
+        });
+    }
+
+    //超过这么久没有收到任何数据就认为连接已断开
+    public void setReadTimeout(long millis) {
+        readTimeout = millis;
+        post(null);
+    }
+
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    //把数据放进上行缓冲，返回实际放入的字节数；缓冲满时多出的部分丢弃(实时音频不等待)
+    public int send(byte[] buf, int off, int len) {
+        if (!connected) {
+            return 0;
+        }
+        int n;
+        boolean wasEmpty;
+        synchronized (writeBuffer) {
+            wasEmpty = writeBuffer.position() == 0;
+            n = Math.min(len, writeBuffer.remaining());
+            writeBuffer.put(buf, off, n);
+            //send 和 offer 在不同线程调用，计数也放在锁里
+            uplinkDropped += len - n;
+        }
+        if (wasEmpty && n > 0) {
+            post(null);
+        }
+        return n;
+    }
+
+    //整帧放入上行缓冲，放不下就全部丢弃，保证 v2 帧不会被截断
+    public boolean offer(byte[] buf, int off, int len) {
+        if (!connected) {
+            return false;
+        }
+        boolean wasEmpty;
+        synchronized (writeBuffer) {
+            if (writeBuffer.remaining() < len) {
+                uplinkDropped += len;
+                return false;
+            }
+            wasEmpty = writeBuffer.position() == 0;
+            writeBuffer.put(buf, off, len);
+        }
+        if (wasEmpty && len > 0) {
+            post(null);
+        }
+        return true;
+    }
+
+    public int getPendingUplink() {
+        synchronized (writeBuffer) {
+            return writeBuffer.position();
+        }
+    }
+
+    private void post(Runnable task) {
+        if (task != null) {
+            tasks.add(task);
+        }
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                long timeout = 0;
+                long now = System.currentTimeMillis();
+                if (channel != null && !connected) {
+                    timeout = Math.max(1, connectDeadline - now);
+                } else if (connected && readTimeout > 0) {
+                    timeout = Math.max(1, lastReceiveTime + readTimeout - now);
+                }
+                selector.select(timeout);
+                wakeups++;
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                now = System.currentTimeMillis();
+                if (channel != null && !connected && now >= connectDeadline) {
+                    close(new IOException("连接超时"));
+                    continue;
+                }
+                if (connected && readTimeout > 0 && now - lastReceiveTime >= readTimeout) {
+                    close(new IOException("读取超时，" + readTimeout + "ms没有收到数据"));
+                    continue;
+                }
+                for (SelectionKey k : selector.selectedKeys()) {
+                    if (k != key || !k.isValid()) {
+                        continue;
+                    }
+                    if (k.isConnectable()) {
+                        channel.finishConnect();
+                        onConnectFinished();
+                    }
+                    boolean handshaking = tlsChannel != null && !connected;
+                    if (k.isValid() && k.isReadable()) {
+                        if (handshaking) {
+                            continueHandshake();
+                        } else {
+                            doRead();
+                        }
+                    }
+                    if (k.isValid() && k.isWritable()) {
+                        if (handshaking && !connected) {
+                            continueHandshake();
+                        } else {
+                            doWrite();
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+                if (connected && key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) == 0 && getPendingUplink() > 0) {
+                    doWrite();
+                }
+            } catch (IOException e) {
+                close(e);
+            } catch (Exception e) {
+                close(new IOException(e));
+            }
+        }
+        close(null);
+        try {
+            selector.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private void onConnectFinished() throws IOException {
+        TlsTransport t = tls;
+        if (t == null) {
+            lastHandshakeMillis = -1;
+            onReady();
+            return;
+        }
+        tlsChannel = new TlsChannel(t.newEngine(host, port), channel);
+        key.interestOps(SelectionKey.OP_READ);
+        continueHandshake();
+    }
+
+    //握手没完成时等可读，有密文没写完时也等可写
+    private void continueHandshake() throws IOException {
+        if (!tlsChannel.handshake()) {
+            key.interestOps(tlsChannel.hasPendingOutput() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            return;
+        }
+        lastHandshakeMillis = tlsChannel.getHandshakeMillis();
+        lastHandshakeResumed = tlsChannel.isResumed();
+        onReady();
+        //和握手最后一条消息一起到的数据已经从 socket 读出来了，不会再触发可读
+        if (channel != null) {
+            doRead();
+        }
+    }
+
+    private void onReady() {
+        connected = true;
+        lastReceiveTime = System.currentTimeMillis();
+        key.interestOps(SelectionKey.OP_READ);
+        synchronized (writeBuffer) {
+            writeBuffer.clear();
+        }
+        TrafficRecorder r = recorder;
+        if (r != null) {
+            r.event(TrafficRecorder.CONNECTED, recorderStream);
+        }
+        listener.onConnected();
+    }
+
+    private void doRead() throws IOException {
+        if (tlsChannel != null) {
+            int n;
+            while (tlsChannel != null && (n = tlsChannel.read(readArray, 0, readArray.length)) != 0) {
+                if (n == -1) {
+                    throw new IOException("服务器关闭了连接");
+                }
+                onRead(n);
+            }
+            if (tlsChannel != null && tlsChannel.hasPendingOutput()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            return;
+        }
+        readBuffer.clear();
+        int n = channel.read(readBuffer);
+        if (n == -1) {
+            throw new IOException("服务器关闭了连接");
+        }
+        if (n == 0) {
+            return;
+        }
+        readBuffer.flip();
+        readBuffer.get(readArray, 0, n);
+        onRead(n);
+    }
+
+    private void onRead(int n) {
+        bytesRead += n;
+        lastReceiveTime = System.currentTimeMillis();
+        TrafficRecorder r = recorder;
+        if (r != null) {
+            r.record(TrafficRecorder.DOWNLINK, recorderStream, readArray, 0, n);
+        }
+        listener.onReceive(readArray, 0, n);
+    }
+
+    private void doWrite() throws IOException {
+        boolean drained;
+        synchronized (writeBuffer) {
+            writeBuffer.flip();
+            int n = tlsChannel != null ? tlsChannel.write(writeBuffer) : channel.write(writeBuffer);
+            bytesWritten += n;
+            TrafficRecorder r = recorder;
+            if (r != null && n > 0) {
+                ByteBuffer written = writeBuffer.duplicate();
+                written.position(0);
+                written.limit(n);
+                r.record(TrafficRecorder.UPLINK, recorderStream, written);
+            }
+            writeBuffer.compact();
+            drained = writeBuffer.position() == 0 && (tlsChannel == null || !tlsChannel.hasPendingOutput());
+        }
+        //写不完就等 OP_WRITE，写完了取消关注，避免空转
+        key.interestOps(drained ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        if (drained) {
+            listener.onUplinkDrained();
+        }
+    }
+
+    private void close(IOException cause) {
+        if (channel == null) {
+            return;
+        }
+        boolean wasConnected = connected;
+        connected = false;
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
+        if (tlsChannel != null) {
+            tlsChannel.close();
+            tlsChannel = null;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+        channel = null;
+        synchronized (writeBuffer) {
+            writeBuffer.clear();
+        }
+        TrafficRecorder r = recorder;
+        if (r != null && wasConnected) {
+            r.event(TrafficRecorder.DISCONNECTED, recorderStream);
+        }
+        if (wasConnected || cause != null) {
+            listener.onDisconnected(cause);
+        }
+    }
+
+    //select 返回的次数
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getUplinkDropped() {
+        return uplinkDropped;
+    }
+
+    //最近一次 TLS 握手的时间，明文连接为 -1
+    public long getLastHandshakeMillis() {
+        return lastHandshakeMillis;
+    }
+
+    //最近一次 TLS 握手是否恢复了缓存的会话
+    public boolean isLastHandshakeResumed() {
+        return lastHandshakeResumed;
+    }
+
+    public long getLastReceiveTime() {
+        return lastReceiveTime;
+    }
+}
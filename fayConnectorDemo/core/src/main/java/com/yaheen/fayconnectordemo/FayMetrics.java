@@ -0,0 +1,278 @@
+package com.yaheen.fayconnectordemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 运行指标：字节/帧计数、采集溢出、心跳延迟和几段关键延迟的直方图。
+ * 计数只做一次原子加法，录音、发送、连接线程都可以直接调用；通过服务的 Binder 给界面读取。
+ */
+public class FayMetrics {
+
+    //一次快照，dump 用相邻两次快照算速率
+    public static class Snapshot {
+        public final long time;
+        public final long captureBytes;
+        public final long captureFrames;
+        public final long captureOverruns;
+        public final long captureDropped;
+        public final long captureMuted;
+        public final long prerollBytes;
+        public final long uplinkBytes;
+        public final long uplinkDropped;
+        public final long uplinkBatches;
+        public final long downlinkBytes;
+        public final long downlinkReads;
+        public final long replies;
+        public final long replyBytes;
+        public final long heartbeats;
+        public final long spooledBytes;
+        public final long spoolReplayedBytes;
+        public final long spoolExpiredBytes;
+        public final long spoolDroppedBytes;
+        public final long jitterDepthMs;
+        public final long jitterTargetMs;
+        public final long jitterUnderruns;
+        public final double jitterMs;
+
+        Snapshot(FayMetrics m, long time) {
+            this.time = time;
+            AudioRingBuffer ring = m.captureBuffer;
+            captureBytes = m.captureBytes.get();
+            captureFrames = m.captureFrames.get();
+            captureOverruns = m.captureErrors.get() + (ring == null ? 0 : ring.getOverruns());
+            captureDropped = ring == null ? 0 : ring.getDroppedBytes();
+            captureMuted = m.captureMuted.get();
+            prerollBytes = m.prerollBytes.get();
+            uplinkBytes = m.uplinkBytes.get();
+            uplinkDropped = m.uplinkDropped.get();
+            uplinkBatches = m.uplinkBatches.get();
+            downlinkBytes = m.downlinkBytes.get();
+            downlinkReads = m.downlinkReads.get();
+            replies = m.replies.get();
+            replyBytes = m.replyBytes.get();
+            heartbeats = m.heartbeats.get();
+            UplinkSpool spool = m.spool;
+            spooledBytes = spool == null ? 0 : spool.getSpooledBytes();
+            spoolReplayedBytes = spool == null ? 0 : spool.getReplayedBytes();
+            spoolExpiredBytes = spool == null ? 0 : spool.getExpiredBytes();
+            spoolDroppedBytes = spool == null ? 0 : spool.getDroppedBytes();
+            JitterBuffer jitter = m.jitterBuffer;
+            jitterDepthMs = jitter == null ? 0 : jitter.getDepthMs();
+            jitterTargetMs = jitter == null ? 0 : jitter.getTargetMs();
+            jitterUnderruns = jitter == null ? 0 : jitter.getUnderruns();
+            jitterMs = jitter == null ? 0 : jitter.getJitterMs();
+        }
+    }
+
+    //说话结束到收到回复第一个字节
+    public final LatencyHistogram speechToReply = new LatencyHistogram();
+    //回复接收完成到开始播放
+    public final LatencyHistogram receiveToPlay = new LatencyHistogram();
+    //开始接收回复到开始播放
+    public final LatencyHistogram firstAudio = new LatencyHistogram();
+    //播放结束到录到第一帧可上行音频
+    public final LatencyHistogram captureResume = new LatencyHistogram();
+    //连续回复之间的播放空白
+    public final LatencyHistogram playbackGap = new LatencyHistogram();
+    //心跳比平均间隔晚到的时间，老协议没有回显，用它近似网络往返的抖动
+    public final LatencyHistogram heartbeatDelay = new LatencyHistogram();
+    //上行一批音频从录到到交给连接引擎的时间
+    public final LatencyHistogram uplinkLatency = new LatencyHistogram();
+    //v2 协议下每个心跳后发 ping，收到 pong 的往返时间
+    public final LatencyHistogram rtt = new LatencyHistogram();
+    //TLS 完整握手、恢复会话的握手时间
+    public final LatencyHistogram tlsFull = new LatencyHistogram();
+    public final LatencyHistogram tlsResumed = new LatencyHistogram();
+
+    private final AtomicLong captureBytes = new AtomicLong();
+    private final AtomicLong captureFrames = new AtomicLong();
+    private final AtomicLong captureErrors = new AtomicLong();
+    private final AtomicLong captureMuted = new AtomicLong();
+    private final AtomicLong prerollBytes = new AtomicLong();
+    private final AtomicLong uplinkBytes = new AtomicLong();
+    private final AtomicLong uplinkDropped = new AtomicLong();
+    private final AtomicLong uplinkBatches = new AtomicLong();
+    private final AtomicLong downlinkBytes = new AtomicLong();
+    private final AtomicLong downlinkReads = new AtomicLong();
+    private final AtomicLong replies = new AtomicLong();
+    private final AtomicLong replyBytes = new AtomicLong();
+    private final AtomicLong heartbeats = new AtomicLong();
+    private volatile AudioRingBuffer captureBuffer = null;
+    private volatile UplinkSpool spool = null;
+    private volatile JitterBuffer jitterBuffer = null;
+    private volatile String transportProfile = null;
+    private volatile long speechEndTime = 0;
+    private long lastHeartbeat = 0;
+    private double heartbeatInterval = 0;
+    private Snapshot lastDump = null;
+
+    //采集缓冲的溢出次数和丢弃字节直接从缓冲读取
+    public void setCaptureBuffer(AudioRingBuffer buffer) {
+        captureBuffer = buffer;
+    }
+
+    //断线暂存的计数也直接从暂存读取
+    public void setSpool(UplinkSpool spool) {
+        this.spool = spool;
+    }
+
+    //流式下行的缓冲深度、目标和欠载次数
+    public void setJitterBuffer(JitterBuffer buffer) {
+        jitterBuffer = buffer;
+    }
+
+    public void setTransportProfile(String name) {
+        transportProfile = name;
+    }
+
+    public void onCapture(int bytes) {
+        captureBytes.addAndGet(bytes);
+        captureFrames.incrementAndGet();
+    }
+
+    //AudioRecord 读失败
+    public void onCaptureError() {
+        captureErrors.incrementAndGet();
+    }
+
+    //播放期间录到、被静音的帧
+    public void onCaptureMuted() {
+        captureMuted.incrementAndGet();
+    }
+
+    //上行恢复时补发的预录音频
+    public void onPrerollFlushed(long bytes) {
+        prerollBytes.addAndGet(bytes);
+    }
+
+    public void onCaptureResume(long millis) {
+        captureResume.record(millis);
+    }
+
+    //交给连接引擎的上行字节(编码后)，accepted 小于 len 的部分被丢弃
+    public void onUplink(int len, int accepted) {
+        uplinkBytes.addAndGet(accepted);
+        if (accepted < len) {
+            uplinkDropped.addAndGet(len - accepted);
+        }
+    }
+
+    //每发出一批上行音频调用一次
+    public void onUplinkBatch(long latencyMillis) {
+        uplinkBatches.incrementAndGet();
+        uplinkLatency.record(latencyMillis);
+    }
+
+    //下行原始字节，包括标记和心跳
+    public void onDownlink(int bytes) {
+        downlinkBytes.addAndGet(bytes);
+        downlinkReads.incrementAndGet();
+    }
+
+    //以下时间都用 System.currentTimeMillis()
+    public void onSpeechEnd(long now) {
+        speechEndTime = now;
+    }
+
+    public void onReplyStart(long now) {
+        long end = speechEndTime;
+        if (end > 0) {
+            speechEndTime = 0;
+            speechToReply.record(now - end);
+        }
+    }
+
+    public void onReplyComplete(int bytes) {
+        replies.incrementAndGet();
+        replyBytes.addAndGet(bytes);
+    }
+
+    //receiveEnd 为 0 表示开始播放时还没收完(边收边播)
+    public void onPlaybackStart(long receiveStart, long receiveEnd, long now) {
+        firstAudio.record(now - receiveStart);
+        if (receiveEnd > 0) {
+            receiveToPlay.record(now - receiveEnd);
+        }
+    }
+
+    public void onPlaybackGap(long millis) {
+        playbackGap.record(millis);
+    }
+
+    //只在连接线程调用
+    public void onConnected() {
+        lastHeartbeat = 0;
+    }
+
+    public void onHeartbeat(long now) {
+        heartbeats.incrementAndGet();
+        if (lastHeartbeat > 0) {
+            long interval = now - lastHeartbeat;
+            if (heartbeatInterval > 0) {
+                heartbeatDelay.record(Math.max(0, interval - (long) heartbeatInterval));
+            }
+            heartbeatInterval = heartbeatInterval == 0 ? interval : heartbeatInterval * 0.8 + interval * 0.2;
+        }
+        lastHeartbeat = now;
+    }
+
+    public void onRoundTrip(long millis) {
+        rtt.record(millis);
+    }
+
+    public void onTlsHandshake(long millis, boolean resumed) {
+        (resumed ? tlsResumed : tlsFull).record(millis);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this, System.currentTimeMillis());
+    }
+
+    //一行紧凑的汇总，速率按上一次 dump 到现在计算
+    public synchronized String dump() {
+        Snapshot now = snapshot();
+        Snapshot prev = lastDump;
+        lastDump = now;
+        double seconds = prev == null ? 0 : (now.time - prev.time) / 1000.0;
+        StringBuilder sb = new StringBuilder();
+        if (transportProfile != null) {
+            sb.append("profile=").append(transportProfile).append(',');
+        }
+        sb.append("up=").append(now.captureBytes).append('/').append(now.uplinkBytes).append('B');
+        sb.append(",drop=").append(now.captureDropped).append('/').append(now.uplinkDropped).append('B');
+        sb.append(",overrun=").append(now.captureOverruns);
+        sb.append(",muted=").append(now.captureMuted);
+        sb.append(",preroll=").append(now.prerollBytes).append('B');
+        if (spool != null) {
+            sb.append(",spool=").append(now.spooledBytes).append('/').append(now.spoolReplayedBytes).append('/')
+                    .append(now.spoolExpiredBytes).append('/').append(now.spoolDroppedBytes).append('B');
+        }
+        sb.append(",down=").append(now.downlinkBytes).append('B');
+        sb.append(",reply=").append(now.replies).append('/').append(now.replyBytes).append('B');
+        sb.append(",hb=").append(now.heartbeats);
+        if (jitterBuffer != null) {
+            sb.append(",jitter=").append(now.jitterDepthMs).append('/').append(now.jitterTargetMs).append("ms/")
+                    .append(now.jitterUnderruns).append("ur/").append(String.format("%.1f", now.jitterMs)).append("ms");
+        }
+        if (seconds > 0) {
+            sb.append(",rate=").append(String.format("%.1f", (now.captureFrames - prev.captureFrames) / seconds)).append("fps/")
+                    .append((long) ((now.uplinkBytes - prev.uplinkBytes) / seconds)).append("Bps/")
+                    .append(String.format("%.1f", (now.uplinkBatches - prev.uplinkBatches) / seconds)).append("pps/")
+                    .append((long) ((now.downlinkBytes - prev.downlinkBytes) / seconds)).append("Bps");
+        }
+        sb.append(",upLat[").append(uplinkLatency).append(']');
+        sb.append(",eos->reply[").append(speechToReply).append(']');
+        sb.append(",recv->play[").append(receiveToPlay).append(']');
+        sb.append(",first[").append(firstAudio).append(']');
+        sb.append(",gap[").append(playbackGap).append(']');
+        sb.append(",resume[").append(captureResume).append(']');
+        sb.append(",hbDelay[").append(heartbeatDelay).append(']');
+        if (rtt.getCount() > 0) {
+            sb.append(",rtt[").append(rtt).append(']');
+        }
+        if (tlsFull.getCount() + tlsResumed.getCount() > 0) {
+            sb.append(",tls[").append(tlsFull).append("],tlsResumed[").append(tlsResumed).append(']');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,161 @@
+package com.yaheen.fayconnectordemo;
+
+/**
+ * 下行数据流解码器：直接在原始字节上查找 9 字节的开始/结束/心跳标记，
+ * 标记可以被拆分在两次 read 之间。音频数据不做任何拷贝，直接交给 Sink。
+ */
+public class FrameDecoder {
+
+    public static final int MARKER_LEN = 9;
+    //文件传输开始标记
+    public static final byte[] START_MARKER = {0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08};
+    //文件传输结束标记
+    public static final byte[] END_MARKER = {0x08, 0x07, 0x06, 0x05, 0x04, 0x03, 0x02, 0x01, 0x00};
+    //心跳标记(大约5秒一个)
+    public static final byte[] HEARTBEAT_MARKER = {(byte) 0xf0, (byte) 0xf1, (byte) 0xf2, (byte) 0xf3, (byte) 0xf4, (byte) 0xf5, (byte) 0xf6, (byte) 0xf7, (byte) 0xf8};
+
+    //上行编码协商标记，后面跟 1 字节编码 id(AudioCodec)。客户端连接后发出，服务器回复同样内容表示接受的编码；
+    //上行丢帧后客户端会再发一次，服务器把上行解码器恢复到初始状态
+    public static final byte[] CODEC_MARKER = {(byte) 0xe0, (byte) 0xe1, (byte) 0xe2, (byte) 0xe3, (byte) 0xe4, (byte) 0xe5, (byte) 0xe6, (byte) 0xe7, (byte) 0xe8};
+
+    //协议版本协商标记，后面跟 1 字节版本号，用法和编码协商一样，见 ProtocolV2
+    public static final byte[] PROTOCOL_MARKER = {(byte) 0xd0, (byte) 0xd1, (byte) 0xd2, (byte) 0xd3, (byte) 0xd4, (byte) 0xd5, (byte) 0xd6, (byte) 0xd7, (byte) 0xd8};
+
+    public static byte[] codecAnnounce(int codec) {
+        byte[] announce = new byte[MARKER_LEN + 1];
+        System.arraycopy(CODEC_MARKER, 0, announce, 0, MARKER_LEN);
+        announce[MARKER_LEN] = (byte) codec;
+        return announce;
+    }
+
+    public interface Sink {
+        void onHeartbeat();
+
+        //服务器确认的上行编码
+        void onCodecAck(int codec);
+
+        //服务器确认的协议版本，之后的数据按新版本解析
+        void onProtocolAck(int version);
+
+        void onFrameStart();
+
+        //buf 只在回调期间有效
+        void onPayload(byte[] buf, int off, int len);
+
+        void onFrameEnd();
+    }
+
+    private final Sink sink;
+    private boolean inFrame = false;
+    private byte[] matching = null;//正在匹配的标记
+    private int matched = 0;
+    private boolean awaitingCodec = false;//编码协商标记后面的 1 字节
+    private boolean awaitingProtocol = false;
+
+    public FrameDecoder(Sink sink) {
+        this.sink = sink;
+    }
+
+    public boolean isInFrame() {
+        return inFrame;
+    }
+
+    //断线重连后丢弃未完成的状态
+    public void reset() {
+        inFrame = false;
+        matching = null;
+        matched = 0;
+        awaitingCodec = false;
+        awaitingProtocol = false;
+    }
+
+    //返回处理了的字节数：收到协议版本确认后立即返回，剩下的数据由调用方交给新协议的解码器
+    public int feed(byte[] buf, int off, int len) {
+        int end = off + len;
+        int runStart = off;//尚未交给 sink 的音频数据起点
+        int i = off;
+        while (i < end) {
+            byte b = buf[i];
+            if (awaitingCodec) {
+                awaitingCodec = false;
+                i++;
+                sink.onCodecAck(b & 0xff);
+                continue;
+            }
+            if (awaitingProtocol) {
+                awaitingProtocol = false;
+                sink.onProtocolAck(b & 0xff);
+                return i + 1 - off;
+            }
+            if (matching != null) {
+                if (b == matching[matched]) {
+                    matched++;
+                    i++;
+                    if (matched == MARKER_LEN) {
+                        byte[] marker = matching;
+                        matching = null;
+                        matched = 0;
+                        runStart = i;
+                        onMarker(marker);
+                    }
+                    continue;
+                }
+                //匹配失败，已暂存的标记前缀其实是音频数据，当前字节重新判断
+                if (inFrame) {
+                    sink.onPayload(matching, 0, matched);
+                }
+                matching = null;
+                matched = 0;
+                runStart = i;
+            }
+            byte[] candidate = candidate(b);
+            if (candidate != null) {
+                if (inFrame && i > runStart) {
+                    sink.onPayload(buf, runStart, i - runStart);
+                }
+                matching = candidate;
+                matched = 1;
+                i++;
+                runStart = i;
+                continue;
+            }
+            i++;
+        }
+        if (inFrame && matching == null && end > runStart) {
+            sink.onPayload(buf, runStart, end - runStart);
+        }
+        return len;
+    }
+
+    private byte[] candidate(byte b) {
+        if (b == HEARTBEAT_MARKER[0]) {
+            return HEARTBEAT_MARKER;
+        }
+        if (inFrame) {
+            return b == END_MARKER[0] ? END_MARKER : null;
+        }
+        if (b == CODEC_MARKER[0]) {
+            return CODEC_MARKER;
+        }
+        if (b == PROTOCOL_MARKER[0]) {
+            return PROTOCOL_MARKER;
+        }
+        return b == START_MARKER[0] ? START_MARKER : null;
+    }
+
+    private void onMarker(byte[] marker) {
+        if (marker == HEARTBEAT_MARKER) {
+            sink.onHeartbeat();
+        } else if (marker == CODEC_MARKER) {
+            awaitingCodec = true;
+        } else if (marker == PROTOCOL_MARKER) {
+            awaitingProtocol = true;
+        } else if (marker == START_MARKER) {
+            inFrame = true;
+            sink.onFrameStart();
+        } else {
+            inFrame = false;
+            sink.onFrameEnd();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.yaheen.fayconnectordemo;
+
+//16进制编解码，一次分配结果数组，不做字符串拼接
+public class HexUtils {
+
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+    public static String toHex(byte[] data, int off, int len) {
+        char[] out = new char[len * 2];
+        for (int i = 0; i < len; i++) {
+            int b = data[off + i] & 0xff;
+            out[2 * i] = DIGITS[b >>> 4];
+            out[2 * i + 1] = DIGITS[b & 0x0f];
+        }
+        return new String(out);
+    }
+
+    public static byte[] fromHex(char[] data) {
+        int len = data.length;
+        if ((len & 0x01) != 0) {
+            throw new RuntimeException("未知的字符");
+        }
+        byte[] out = new byte[len >> 1];
+        for (int i = 0, j = 0; j < len; i++, j += 2) {
+            out[i] = (byte) ((toDigit(data[j], j) << 4) | toDigit(data[j + 1], j + 1));
+        }
+        return out;
+    }
+
+    static int toDigit(char ch, int index) {
+        int digit = Character.digit(ch, 16);
+        if (digit == -1) {
+            throw new RuntimeException("非法16进制字符 " + ch
+                    + " 在索引 " + index);
+        }
+        return digit;
+    }
+}
@@ -0,0 +1,137 @@
+package com.yaheen.fayconnectordemo;
+
+/**
+ * IMA-ADPCM，4:1。连续码流，不带块头：编解码两端都从握手后的初始状态开始，
+ * 依靠 TCP 保证顺序和完整；上行缓冲满丢掉数据时由 UplinkSession 通知服务器，两端一起重置。
+ * 每字节两个采样，先低 4 位后高 4 位。
+ */
+public class ImaAdpcmCodec extends AudioCodec {
+
+    private static final int[] INDEX_TABLE = {-1, -1, -1, -1, 2, 4, 6, 8, -1, -1, -1, -1, 2, 4, 6, 8};
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767};
+
+    private int predictor = 0;
+    private int index = 0;
+    //奇数个采样时留下的低 4 位
+    private int pendingNibble = -1;
+
+    @Override
+    public int id() {
+        return IMA_ADPCM;
+    }
+
+    @Override
+    public void reset() {
+        predictor = 0;
+        index = 0;
+        pendingNibble = -1;
+    }
+
+    @Override
+    public boolean isStateful() {
+        return true;
+    }
+
+    @Override
+    public int maxEncodedSize(int pcmBytes) {
+        return pcmBytes / 4 + 1;
+    }
+
+    @Override
+    public int encode(byte[] pcm, int off, int len, byte[] out, int outOff) {
+        int samples = len / 2;
+        int o = outOff;
+        for (int i = 0; i < samples; i++) {
+            int nibble = encodeSample(readSample(pcm, off + 2 * i));
+            if (pendingNibble < 0) {
+                pendingNibble = nibble;
+            } else {
+                out[o++] = (byte) (pendingNibble | (nibble << 4));
+                pendingNibble = -1;
+            }
+        }
+        return o - outOff;
+    }
+
+    @Override
+    public int maxDecodedSize(int encodedBytes) {
+        return encodedBytes * 4;
+    }
+
+    @Override
+    public int decode(byte[] in, int off, int len, byte[] pcm, int pcmOff) {
+        int o = pcmOff;
+        for (int i = 0; i < len; i++) {
+            int b = in[off + i] & 0xff;
+            writeSample(pcm, o, decodeNibble(b & 0x0f));
+            writeSample(pcm, o + 2, decodeNibble(b >> 4));
+            o += 4;
+        }
+        return o - pcmOff;
+    }
+
+    private int encodeSample(int sample) {
+        int step = STEP_TABLE[index];
+        int diff = sample - predictor;
+        int nibble = 0;
+        if (diff < 0) {
+            nibble = 8;
+            diff = -diff;
+        }
+        int delta = step >> 3;
+        if (diff >= step) {
+            nibble |= 4;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 2;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 1;
+            delta += step;
+        }
+        update(nibble, delta);
+        return nibble;
+    }
+
+    private int decodeNibble(int nibble) {
+        int step = STEP_TABLE[index];
+        int delta = step >> 3;
+        if ((nibble & 4) != 0) {
+            delta += step;
+        }
+        if ((nibble & 2) != 0) {
+            delta += step >> 1;
+        }
+        if ((nibble & 1) != 0) {
+            delta += step >> 2;
+        }
+        update(nibble, delta);
+        return predictor;
+    }
+
+    private void update(int nibble, int delta) {
+        predictor += (nibble & 8) != 0 ? -delta : delta;
+        if (predictor > 32767) {
+            predictor = 32767;
+        } else if (predictor < -32768) {
+            predictor = -32768;
+        }
+        index += INDEX_TABLE[nibble];
+        if (index < 0) {
+            index = 0;
+        } else if (index > 88) {
+            index = 88;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.yaheen.fayconnectordemo;
+
+/**
+ * 流式 pcm 回复的自适应抖动缓冲：连接线程按到达写入，播放线程按固定块读取。
+ * 每条回复先缓冲到目标深度再开始播放；目标深度按到达时间的抖动估计(类似 RFC 3550 的 interarrival jitter)
+ * 和最近的最大晚到(慢慢衰减，偶尔的卡顿也能记住)自动调整，播放中读空(欠载)时回到缓冲状态并额外加深目标，
+ * 之后每条回复减半。
+ * 写入按 TCP 到达的任意长度，读出总是整个 16bit 采样，半个采样留到下次，AudioTrack 不会收到奇数字节。
+ * 所有时间由调用方传入，测试可以用合成的到达时间序列驱动。
+ */
+public class JitterBuffer {
+
+    public enum State {
+        IDLE,
+        BUFFERING,
+        PLAYING
+    }
+
+    //目标深度 = 抖动估计的倍数 + 欠载补偿
+    private static final double JITTER_MULTIPLIER = 4;
+    private static final long UNDERRUN_STEP_MS = 20;
+    //最大晚到每块衰减的比例，20ms 一块时约 3.5 秒减半
+    private static final double PEAK_DECAY = 1.0 / 256;
+    private static final int SAMPLE_BYTES = 2;
+
+    private final int bytesPerMs;
+    private final long minTargetMs;
+    private final long maxTargetMs;
+    private final byte[] data;
+    private long readPos = 0;
+    private long writePos = 0;
+    private State state = State.IDLE;
+    private boolean ended = true;
+    private boolean closed = false;
+
+    //到达时间统计，按毫秒
+    private boolean firstChunk = true;
+    private double mediaMs = 0;//本条回复已到达的音频时长
+    private double lastTransit = 0;
+    private double jitter = 0;
+    private double peakLate = 0;
+    private long boostMs = 0;
+
+    private long underruns = 0;
+    private long overflowBytes = 0;
+    private long maxDepth = 0;
+    private long playedBytes = 0;
+
+    //bytesPerMs：16k/16bit 单声道为 32；capacityMs 是最多缓冲的音频时长，超出的直接丢弃
+    public JitterBuffer(int bytesPerMs, long capacityMs, long minTargetMs, long maxTargetMs) {
+        this.bytesPerMs = bytesPerMs;
+        this.minTargetMs = minTargetMs;
+        this.maxTargetMs = maxTargetMs;
+        this.data = new byte[(int) (capacityMs * bytesPerMs)];
+    }
+
+    //新回复开始，上一条还没播完时接在后面
+    public synchronized void start(long now) {
+        //上一条结尾多出的半个采样丢掉，这一条从采样边界开始
+        writePos -= (writePos - readPos) % SAMPLE_BYTES;
+        firstChunk = true;
+        mediaMs = 0;
+        ended = false;
+        if (state == State.IDLE) {
+            state = State.BUFFERING;
+        }
+    }
+
+    public synchronized void write(byte[] buf, int off, int len, long now) {
+        //传输时间 = 到达时间 - 这段音频在回复里的位置，前后两段之差就是抖动；
+        //只算晚到的部分，服务器比实时快、成批发来时不会把目标撑大
+        double transit = now - mediaMs;
+        if (!firstChunk) {
+            double d = Math.max(0, transit - lastTransit);
+            jitter += (d - jitter) / 16;
+            peakLate = Math.max(d, peakLate * (1 - PEAK_DECAY));
+        }
+        firstChunk = false;
+        lastTransit = transit;
+        mediaMs += (double) len / bytesPerMs;
+
+        int n = (int) Math.min(len, data.length - (writePos - readPos));
+        overflowBytes += len - n;
+        int index = (int) (writePos % data.length);
+        int first = Math.min(n, data.length - index);
+        System.arraycopy(buf, off, data, index, first);
+        System.arraycopy(buf, off + first, data, 0, n - first);
+        writePos += n;
+        maxDepth = Math.max(maxDepth, writePos - readPos);
+        if (state == State.BUFFERING && writePos - readPos >= getTargetMs() * bytesPerMs) {
+            state = State.PLAYING;
+            notifyAll();
+        }
+    }
+
+    //回复结束，不再等目标深度，剩下的直接播完
+    public synchronized void end(long now) {
+        ended = true;
+        if (state == State.BUFFERING) {
+            state = writePos - readPos >= SAMPLE_BYTES ? State.PLAYING : State.IDLE;
+            notifyAll();
+        }
+    }
+
+    /**
+     * 播放线程调用，最多读 len 字节，按整个采样向下取整，非 PLAYING 状态返回 0。
+     * 回复没结束却差至少一个采样时算一次欠载：读出剩下的整采样，回到缓冲状态。
+     */
+    public synchronized int read(byte[] out, int off, int len, long now) {
+        if (state != State.PLAYING) {
+            return 0;
+        }
+        long depth = writePos - readPos;
+        int n = (int) Math.min(len, depth);
+        n -= n % SAMPLE_BYTES;
+        int index = (int) (readPos % data.length);
+        int first = Math.min(n, data.length - index);
+        System.arraycopy(data, index, out, off, first);
+        System.arraycopy(data, 0, out, off + first, n - first);
+        readPos += n;
+        playedBytes += n;
+        if (len - n >= SAMPLE_BYTES && !ended) {
+            underruns++;
+            boostMs = Math.min(maxTargetMs, boostMs + UNDERRUN_STEP_MS);
+            state = State.BUFFERING;
+        } else if (ended && writePos - readPos < SAMPLE_BYTES) {
+            //结尾不足一个采样的丢掉
+            readPos = writePos;
+            state = State.IDLE;
+            boostMs /= 2;
+        }
+        return n;
+    }
+
+    //等到可以播放，超时或关闭返回 false
+    public synchronized boolean awaitPlaying(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (state != State.PLAYING && !closed) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                return false;
+            }
+            wait(wait);
+        }
+        return !closed;
+    }
+
+    //丢弃缓冲的音频(断线)
+    public synchronized void clear() {
+        readPos = writePos;
+        ended = true;
+        state = State.IDLE;
+        notifyAll();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getTargetMs() {
+        long target = Math.max(minTargetMs, (long) Math.max(jitter * JITTER_MULTIPLIER, peakLate)) + boostMs;
+        return Math.min(maxTargetMs, target);
+    }
+
+    public synchronized long getDepthMs() {
+        return (writePos - readPos) / bytesPerMs;
+    }
+
+    public synchronized long getMaxDepthMs() {
+        return maxDepth / bytesPerMs;
+    }
+
+    public synchronized double getJitterMs() {
+        return jitter;
+    }
+
+    public synchronized long getUnderruns() {
+        return underruns;
+    }
+
+    public synchronized long getOverflowBytes() {
+        return overflowBytes;
+    }
+
+    public synchronized long getPlayedBytes() {
+        return playedBytes;
+    }
+}
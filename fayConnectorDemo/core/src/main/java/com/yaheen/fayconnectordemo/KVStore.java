@@ -0,0 +1,149 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 内存里的键值存储：启动时读一次文件，读操作不碰磁盘；
+ * 写操作立即生效，由后台线程合并后写回(先写临时文件再改名)。文件格式和原来的 kv_data.txt 一样。
+ */
+public class KVStore {
+
+    public interface Listener {
+        //在调用 put 的线程里回调
+        void onChanged(String key, String value);
+    }
+
+    private final File file;
+    private final Map<String, String> data = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean flushPending = new AtomicBoolean(false);
+    private volatile long flushes = 0;
+
+    public KVStore(File file) {
+        this.file = file;
+        load();
+    }
+
+    public String get(String key) {
+        return data.get(key);
+    }
+
+    public void put(String key, String value) {
+        String old = value == null ? data.remove(key) : data.put(key, value);
+        if (value == null ? old == null : value.equals(old)) {
+            return;
+        }
+        scheduleFlush();
+        for (Listener l : listeners) {
+            l.onChanged(key, value);
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    //等待已提交的写入完成
+    public void flush() {
+        try {
+            writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    //实际写文件的次数，连续多次 put 会合并成一次
+    public long getFlushes() {
+        return flushes;
+    }
+
+    private void scheduleFlush() {
+        if (!flushPending.compareAndSet(false, true)) {
+            return;
+        }
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                flushPending.set(false);
+                write(new HashMap<>(data));
+            }
+        });
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("=", 2);
+                if (parts.length >= 2) {
+                    data.put(parts[0], parts[1]);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void write(Map<String, String> snapshot) {
+        File tmp = new File(file.getPath() + ".tmp");
+        BufferedWriter out = null;
+        try {
+            out = new BufferedWriter(new FileWriter(tmp, false));
+            for (Map.Entry<String, String> entry : snapshot.entrySet()) {
+                out.write(entry.getKey() + "=" + entry.getValue());
+                out.newLine();
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("改名失败:" + file);
+            }
+            flushes++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.yaheen.fayconnectordemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 毫秒延迟直方图：每个2的幂区间再分8格，误差不超过12.5%，最大记录约17分钟。
+ * record 不加锁、不分配内存，可以在任意线程调用。
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 8;
+    private static final int MAX_EXPONENT = 20;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKETS = (MAX_EXPONENT - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long millis) {
+        long v = Math.max(0, Math.min(MAX_VALUE, millis));
+        counts.incrementAndGet(indexOf(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+        }
+    }
+
+    static int indexOf(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int e = 63 - Long.numberOfLeadingZeros(v);
+        return (e - 2) * SUB_BUCKETS + (int) ((v >> (e - 3)) & (SUB_BUCKETS - 1));
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int e = index / SUB_BUCKETS + 2;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (e - 3);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    //p 取 0~100，返回所在区间的上界(不超过最大值)
+    public long percentile(double p) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * p / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(max.get(), i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : MAX_VALUE);
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        long n = count.get();
+        if (n == 0) {
+            return "n=0";
+        }
+        return "n=" + n + ",p50=" + percentile(50) + ",p90=" + percentile(90) + ",p99=" + percentile(99) + ",max=" + max.get();
+    }
+}
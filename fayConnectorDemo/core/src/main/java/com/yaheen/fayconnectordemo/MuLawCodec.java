@@ -0,0 +1,67 @@
+package com.yaheen.fayconnectordemo;
+
+//G.711 μ-law，2:1，无状态
+public class MuLawCodec extends AudioCodec {
+
+    private static final int BIAS = 0x84;
+    private static final int CLIP = 32635;
+    private static final short[] DECODE_TABLE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int u = ~i & 0xff;
+            int t = ((u & 0x0f) << 3) + BIAS;
+            t <<= (u & 0x70) >> 4;
+            DECODE_TABLE[i] = (short) ((u & 0x80) != 0 ? BIAS - t : t - BIAS);
+        }
+    }
+
+    @Override
+    public int id() {
+        return MULAW;
+    }
+
+    @Override
+    public int maxEncodedSize(int pcmBytes) {
+        return pcmBytes / 2;
+    }
+
+    @Override
+    public int encode(byte[] pcm, int off, int len, byte[] out, int outOff) {
+        int samples = len / 2;
+        for (int i = 0; i < samples; i++) {
+            out[outOff + i] = encodeSample(readSample(pcm, off + 2 * i));
+        }
+        return samples;
+    }
+
+    @Override
+    public int maxDecodedSize(int encodedBytes) {
+        return encodedBytes * 2;
+    }
+
+    @Override
+    public int decode(byte[] in, int off, int len, byte[] pcm, int pcmOff) {
+        for (int i = 0; i < len; i++) {
+            writeSample(pcm, pcmOff + 2 * i, DECODE_TABLE[in[off + i] & 0xff]);
+        }
+        return len * 2;
+    }
+
+    static byte encodeSample(int sample) {
+        int sign = (sample >> 8) & 0x80;
+        if (sign != 0) {
+            sample = -sample;
+        }
+        if (sample > CLIP) {
+            sample = CLIP;
+        }
+        sample += BIAS;
+        int exponent = 7;
+        for (int mask = 0x4000; (sample & mask) == 0 && exponent > 0; mask >>= 1) {
+            exponent--;
+        }
+        int mantissa = (sample >> (exponent + 3)) & 0x0f;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+}
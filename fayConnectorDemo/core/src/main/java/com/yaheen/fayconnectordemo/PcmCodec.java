@@ -0,0 +1,32 @@
+package com.yaheen.fayconnectordemo;
+
+//不压缩，和旧版协议一致
+public class PcmCodec extends AudioCodec {
+
+    @Override
+    public int id() {
+        return PCM;
+    }
+
+    @Override
+    public int maxEncodedSize(int pcmBytes) {
+        return pcmBytes;
+    }
+
+    @Override
+    public int encode(byte[] pcm, int off, int len, byte[] out, int outOff) {
+        System.arraycopy(pcm, off, out, outOff, len);
+        return len;
+    }
+
+    @Override
+    public int maxDecodedSize(int encodedBytes) {
+        return encodedBytes;
+    }
+
+    @Override
+    public int decode(byte[] in, int off, int len, byte[] pcm, int pcmOff) {
+        System.arraycopy(in, off, pcm, pcmOff, len);
+        return len;
+    }
+}
@@ -0,0 +1,253 @@
+package com.yaheen.fayconnectordemo;
+
+import java.util.ArrayDeque;
+
+/**
+ * 回复播放队列：按收到的顺序播放，当前一段播放时准备好下一段并串接(MediaPlayer.setNextMediaPlayer)，
+ * 多句回复之间没有空白；播放器播完后重置复用。
+ * 所有方法和 Player 回调都必须在同一个线程(主线程)调用。
+ */
+public class PlaybackQueue {
+
+    //播放器抽象，服务里用 MediaPlayer 实现，测试里用假的实现
+    public interface Player {
+        void setCallback(Callback callback);
+
+        //异步准备，完成后回调 onPrepared
+        void prepare(Object source);
+
+        void start();
+
+        //当前播完后自动开始 next，null 取消
+        void setNext(Player next);
+
+        //回到初始状态以便复用
+        void reset();
+
+        void release();
+    }
+
+    public interface Callback {
+        void onPrepared(Player player);
+
+        //包括调用 start 和作为 next 自动开始
+        void onStarted(Player player);
+
+        void onCompletion(Player player);
+
+        void onError(Player player);
+    }
+
+    public interface Factory {
+        Player create();
+    }
+
+    public interface Listener {
+        //从空闲变为播放，在第一段 start 之前回调
+        void onActive();
+
+        //gap 是和上一段之间的空白毫秒数，上一段结束时这一段还没收到则为 -1
+        void onItemStarted(Item item, long gap);
+
+        //队列播完
+        void onIdle();
+    }
+
+    public static class Item {
+        public final Object source;
+        public final long receiveStart;
+        public final long receiveEnd;
+
+        //source 为 File 或 ReplyBuffer；receiveEnd 为 0 表示开始播放时还没收完
+        public Item(Object source, long receiveStart, long receiveEnd) {
+            this.source = source;
+            this.receiveStart = receiveStart;
+            this.receiveEnd = receiveEnd;
+        }
+    }
+
+    private static final int MAX_IDLE_PLAYERS = 2;
+
+    private final Factory factory;
+    private final Listener listener;
+    private final ArrayDeque<Item> pending = new ArrayDeque<>();
+    private final ArrayDeque<Player> idlePlayers = new ArrayDeque<>();
+    private final Callback callback = new PlayerCallback();
+    private Player current = null;
+    private Item currentItem = null;
+    private Player next = null;//已准备好并串接在 current 后面
+    private Item nextItem = null;
+    private Player preparing = null;
+    private Item preparingItem = null;
+    private long completedAt = 0;
+    private boolean gapPending = false;
+    private int created = 0;
+
+    public PlaybackQueue(Factory factory, Listener listener) {
+        this.factory = factory;
+        this.listener = listener;
+    }
+
+    public void enqueue(Item item) {
+        pending.add(item);
+        pump();
+    }
+
+    public boolean isActive() {
+        return current != null || preparing != null || !pending.isEmpty();
+    }
+
+    //创建过的播放器数量，复用正常时不会随回复数增长
+    public int getCreatedPlayers() {
+        return created;
+    }
+
+    public void release() {
+        pending.clear();
+        for (Player p : new Player[]{current, next, preparing}) {
+            if (p != null) {
+                p.release();
+            }
+        }
+        current = next = preparing = null;
+        currentItem = nextItem = preparingItem = null;
+        for (Player p : idlePlayers) {
+            p.release();
+        }
+        idlePlayers.clear();
+    }
+
+    private void pump() {
+        if (preparing != null || next != null) {
+            return;
+        }
+        Item item = pending.poll();
+        if (item == null) {
+            return;
+        }
+        preparing = obtain();
+        preparingItem = item;
+        preparing.prepare(item.source);
+    }
+
+    private Player obtain() {
+        Player p = idlePlayers.poll();
+        if (p == null) {
+            p = factory.create();
+            p.setCallback(callback);
+            created++;
+        }
+        return p;
+    }
+
+    private void recycle(Player p) {
+        if (idlePlayers.size() < MAX_IDLE_PLAYERS) {
+            p.reset();
+            idlePlayers.add(p);
+        } else {
+            p.release();
+        }
+    }
+
+    private void startNow(Player p, Item item) {
+        boolean wasIdle = current == null;
+        current = p;
+        currentItem = item;
+        if (wasIdle && !gapPending) {
+            listener.onActive();
+        }
+        p.start();
+    }
+
+    //current 结束(播完或出错)后切换到串接的下一段
+    private void advance(boolean failed) {
+        Player finished = current;
+        current = next;
+        currentItem = nextItem;
+        next = null;
+        nextItem = null;
+        completedAt = System.currentTimeMillis();
+        gapPending = current != null || preparing != null || !pending.isEmpty();
+        boolean idle = !gapPending;
+        if (failed) {
+            finished.release();
+            if (current != null) {//出错时不会自动开始下一段
+                current.start();
+            }
+        } else {
+            recycle(finished);
+        }
+        if (idle) {
+            listener.onIdle();
+        }
+        pump();
+    }
+
+    private class PlayerCallback implements Callback {
+        @Override
+        public void onPrepared(Player player) {
+            if (player != preparing) {
+                return;
+            }
+            Item item = preparingItem;
+            preparing = null;
+            preparingItem = null;
+            if (current == null) {
+                startNow(player, item);
+            } else {
+                next = player;
+                nextItem = item;
+                current.setNext(player);
+            }
+            pump();
+        }
+
+        @Override
+        public void onStarted(Player player) {
+            //串接的下一段已经开始，上一段的播完回调可能还在后面
+            if (player == next && current != null) {
+                advance(false);
+            }
+            if (player != current) {
+                return;
+            }
+            long gap = -1;
+            if (gapPending) {
+                gapPending = false;
+                gap = System.currentTimeMillis() - completedAt;
+            }
+            listener.onItemStarted(currentItem, gap);
+        }
+
+        @Override
+        public void onCompletion(Player player) {
+            if (player == current) {
+                advance(false);
+            }
+        }
+
+        @Override
+        public void onError(Player player) {
+            if (player == current) {
+                advance(true);
+            } else if (player == next) {
+                next = null;
+                nextItem = null;
+                current.setNext(null);
+                player.release();
+                pump();
+            } else if (player == preparing) {
+                preparing = null;
+                preparingItem = null;
+                player.release();
+                if (current == null && pending.isEmpty()) {
+                    if (gapPending) {
+                        gapPending = false;
+                        listener.onIdle();
+                    }
+                }
+                pump();
+            }
+        }
+    }
+}
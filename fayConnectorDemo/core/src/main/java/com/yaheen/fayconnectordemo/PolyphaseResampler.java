@@ -0,0 +1,144 @@
+package com.yaheen.fayconnectordemo;
+
+import java.util.Arrays;
+
+/**
+ * 16bit 单声道 pcm 的有理数倍重采样(L/M = 输出率/输入率 约分后)，多相 FIR 实现：
+ * 原型低通是 Kaiser 窗 sinc，截止在两个采样率中较低者的奈奎斯特频率附近，按 L 个相位拆开，
+ * 每个输出采样只算一个相位的 tapsPerPhase 次乘加。系数和历史缓冲在构造时分配，process 不分配内存。
+ * 可以按任意长度分块调用，结果和一次处理整段相同；输出相对输入有固定的 getDelay 延迟。
+ */
+public class PolyphaseResampler {
+
+    //通带到截止频率的比例，留出过渡带
+    private static final double CUTOFF = 0.9;
+    //Kaiser 窗参数，阻带约 80dB
+    private static final double BETA = 8.0;
+
+    private final int inRate;
+    private final int outRate;
+    private final int up;//L
+    private final int down;//M
+    private final int taps;
+    private final float[] coefficients;//相位 p 的第 k 个系数在 p * taps + k
+    //最近 taps 个输入采样写两遍，点积时不用取模
+    private final float[] history;
+    private int head = 0;
+    private int phase = 0;
+
+    public PolyphaseResampler(int inRate, int outRate, int tapsPerPhase) {
+        if (inRate <= 0 || outRate <= 0 || tapsPerPhase <= 0) {
+            throw new IllegalArgumentException("采样率和阶数必须大于0");
+        }
+        int g = gcd(inRate, outRate);
+        this.inRate = inRate;
+        this.outRate = outRate;
+        this.up = outRate / g;
+        this.down = inRate / g;
+        this.taps = tapsPerPhase;
+        this.coefficients = design(up, down, tapsPerPhase);
+        this.history = new float[2 * tapsPerPhase];
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    //在 L 倍上采样后的采样率上设计原型低通，增益 L 补偿插零
+    private static float[] design(int up, int down, int taps) {
+        int length = up * taps;
+        double fc = CUTOFF * 0.5 / Math.max(up, down);//相对上采样后的采样率
+        double center = (length - 1) / 2.0;
+        double i0Beta = bessel0(BETA);
+        float[] c = new float[length];
+        for (int j = 0; j < length; j++) {
+            double x = j - center;
+            double sinc = x == 0 ? 2 * fc : Math.sin(2 * Math.PI * fc * x) / (Math.PI * x);
+            double r = x / (length / 2.0);
+            double window = Math.abs(r) >= 1 ? 0 : bessel0(BETA * Math.sqrt(1 - r * r)) / i0Beta;
+            double h = up * sinc * window;
+            //原型第 j 个系数属于相位 j % up，作用在往前第 j / up 个输入采样上
+            c[(j % up) * taps + j / up] = (float) h;
+        }
+        return c;
+    }
+
+    //第一类零阶修正贝塞尔函数
+    private static double bessel0(double x) {
+        double sum = 1;
+        double term = 1;
+        for (int k = 1; k < 50; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    //len 字节输入最多产生的输出字节数
+    public int maxOutputBytes(int len) {
+        return ((int) (((long) len / 2 * up + down - 1) / down) + 1) * 2;
+    }
+
+    //len 按整采样(偶数字节)处理，返回写入 out 的字节数
+    public int process(byte[] in, int off, int len, byte[] out, int outOff) {
+        int samples = len / 2;
+        int o = outOff;
+        for (int i = 0; i < samples; i++) {
+            float x = AudioCodec.readSample(in, off + 2 * i);
+            head = head == 0 ? taps - 1 : head - 1;
+            history[head] = x;
+            history[head + taps] = x;
+            //history[head + k] 是往前第 k 个采样
+            while (phase < up) {
+                int base = phase * taps;
+                float acc = 0;
+                for (int k = 0; k < taps; k++) {
+                    acc += coefficients[base + k] * history[head + k];
+                }
+                int s = Math.round(acc);
+                if (s > Short.MAX_VALUE) {
+                    s = Short.MAX_VALUE;
+                } else if (s < Short.MIN_VALUE) {
+                    s = Short.MIN_VALUE;
+                }
+                AudioCodec.writeSample(out, o, s);
+                o += 2;
+                phase += down;
+            }
+            phase -= up;
+        }
+        return o - outOff;
+    }
+
+    //换新的录音时清空历史
+    public void reset() {
+        Arrays.fill(history, 0);
+        head = 0;
+        phase = 0;
+    }
+
+    //输出相对输入的延迟，按输出采样数
+    public double getDelay() {
+        return (up * taps - 1) / 2.0 / down;
+    }
+
+    public int getInRate() {
+        return inRate;
+    }
+
+    public int getOutRate() {
+        return outRate;
+    }
+
+    public int getTapsPerPhase() {
+        return taps;
+    }
+}
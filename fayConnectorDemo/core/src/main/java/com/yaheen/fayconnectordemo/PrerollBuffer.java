@@ -0,0 +1,47 @@
+package com.yaheen.fayconnectordemo;
+
+/**
+ * 预录缓冲：保留上行打开前最近录到的音频，上行恢复时排在实时音频前面发出去。
+ * 只收播放已经结束、状态机还没恢复上行的这段录音(播放完成到处理 PLAYBACK_IDLE 之间)；
+ * 播放期间录到的是设备自己的回复，存进来会在上行恢复时当成用户说话发给服务器，所以丢弃并清空已存的。
+ * 内存在创建时分配，满了丢最老的。只在录音线程使用。
+ */
+public class PrerollBuffer {
+
+    private final AudioRingBuffer ring;
+
+    //capacity 按整帧对齐
+    public PrerollBuffer(int capacity) {
+        this.ring = new AudioRingBuffer(capacity, AudioRingBuffer.OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * 上行关闭期间录到的一帧。captureStart 是开始读这一帧的时间，playbackEndedAt 是播放结束的时间，0 表示还在播放；
+     * 这一帧开始读时播放已经结束才保留，返回是否保留。
+     */
+    public boolean offer(byte[] buf, int off, int len, long captureStart, long playbackEndedAt) {
+        if (playbackEndedAt <= 0 || captureStart < playbackEndedAt) {
+            ring.clear();
+            return false;
+        }
+        ring.write(buf, off, len);
+        return true;
+    }
+
+    //上行恢复时取出，返回 0 表示取完了
+    public int drain(byte[] buf, int off, int len) {
+        return ring.read(buf, off, len, 0);
+    }
+
+    public void clear() {
+        ring.clear();
+    }
+
+    public int getDepth() {
+        return ring.getDepth();
+    }
+
+    public int getCapacity() {
+        return ring.getCapacity();
+    }
+}
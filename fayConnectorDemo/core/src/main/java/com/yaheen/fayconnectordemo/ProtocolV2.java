@@ -0,0 +1,178 @@
+package com.yaheen.fayconnectordemo;
+
+/**
+ * v2 协议：每帧 5 字节头(1 字节类型 + 4 字节大端长度)加数据，接收方按长度读取，不需要逐字节查找标记。
+ * 协商：客户端连接后用老协议发 PROTOCOL_MARKER + 版本号(在编码协商标记之后)，服务器支持时回复同样内容，
+ * 回复之后双方都改用 v2 帧；服务器不回复就继续用老协议。
+ * 下行回复音频分成若干 AUDIO_DOWN 帧发送，长度为 0 的 AUDIO_DOWN 帧表示这条回复结束。
+ * 下行默认是完整的 mp3；客户端可以用 DOWNLINK_FORMAT 控制帧请求流式的 16k 单声道 pcm(AudioCodec 编码)，
+ * 服务器回复同样的控制帧后，之后的 AUDIO_DOWN 就是这个编码的音频块，可以边收边播。
+ * 这里的编码、解码两边通用，本地测试服务器也直接使用。
+ */
+public class ProtocolV2 {
+
+    public static final int VERSION = 2;
+    public static final int HEADER_LEN = 5;
+    //单帧最大长度，超过认为数据流已经错乱
+    public static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+    //帧类型
+    public static final int AUDIO_UP = 1;
+    public static final int AUDIO_DOWN = 2;
+    public static final int HEARTBEAT = 3;
+    public static final int CONTROL = 4;
+
+    //控制帧第一个字节是子类型，ping/pong 后面跟 8 字节时间戳，收到 ping 原样回 pong
+    public static final int CONTROL_PING = 1;
+    public static final int CONTROL_PONG = 2;
+    //后面跟 1 字节 AudioCodec 编号
+    public static final int CONTROL_DOWNLINK_FORMAT = 3;
+    //上行丢帧后客户端发出，后面跟 1 字节 AudioCodec 编号：之后的 AUDIO_UP 从编码器初始状态开始，服务器重置上行解码器，不回复
+    public static final int CONTROL_UPLINK_RESET = 4;
+    //流式下行音频的格式
+    public static final int DOWNLINK_RATE = 16000;
+
+    public interface Listener {
+        void onFrameStart(int type, int length);
+
+        //一帧的数据可能分多次回调，buf 只在回调期间有效
+        void onFramePayload(int type, byte[] buf, int off, int len);
+
+        void onFrameEnd(int type);
+    }
+
+    public interface ControlListener {
+        void onControl(int subtype, byte[] data, int off, int len);
+    }
+
+    //老协议下发送的版本协商内容
+    public static byte[] protocolAnnounce(int version) {
+        byte[] announce = new byte[FrameDecoder.MARKER_LEN + 1];
+        System.arraycopy(FrameDecoder.PROTOCOL_MARKER, 0, announce, 0, FrameDecoder.MARKER_LEN);
+        announce[FrameDecoder.MARKER_LEN] = (byte) version;
+        return announce;
+    }
+
+    public static int writeHeader(int type, int length, byte[] out, int off) {
+        out[off] = (byte) type;
+        out[off + 1] = (byte) (length >>> 24);
+        out[off + 2] = (byte) (length >>> 16);
+        out[off + 3] = (byte) (length >>> 8);
+        out[off + 4] = (byte) length;
+        return HEADER_LEN;
+    }
+
+    public static byte[] frame(int type, byte[] payload, int off, int len) {
+        byte[] out = new byte[HEADER_LEN + len];
+        writeHeader(type, len, out, 0);
+        System.arraycopy(payload, off, out, HEADER_LEN, len);
+        return out;
+    }
+
+    public static byte[] heartbeat() {
+        return frame(HEARTBEAT, new byte[0], 0, 0);
+    }
+
+    public static byte[] ping(long time) {
+        return timeControl(CONTROL_PING, time);
+    }
+
+    public static byte[] pong(long time) {
+        return timeControl(CONTROL_PONG, time);
+    }
+
+    public static byte[] downlinkFormat(int codecId) {
+        byte[] out = new byte[HEADER_LEN + 2];
+        writeHeader(CONTROL, 2, out, 0);
+        out[HEADER_LEN] = (byte) CONTROL_DOWNLINK_FORMAT;
+        out[HEADER_LEN + 1] = (byte) codecId;
+        return out;
+    }
+
+    public static byte[] uplinkReset(int codecId) {
+        byte[] out = new byte[HEADER_LEN + 2];
+        writeHeader(CONTROL, 2, out, 0);
+        out[HEADER_LEN] = (byte) CONTROL_UPLINK_RESET;
+        out[HEADER_LEN + 1] = (byte) codecId;
+        return out;
+    }
+
+    private static byte[] timeControl(int subtype, long time) {
+        byte[] out = new byte[HEADER_LEN + 9];
+        writeHeader(CONTROL, 9, out, 0);
+        out[HEADER_LEN] = (byte) subtype;
+        for (int i = 0; i < 8; i++) {
+            out[HEADER_LEN + 1 + i] = (byte) (time >>> (56 - 8 * i));
+        }
+        return out;
+    }
+
+    public static long readLong(byte[] buf, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (buf[off + i] & 0xff);
+        }
+        return v;
+    }
+
+    /**
+     * 流式解码：帧头可以被拆分在两次 read 之间，数据部分直接按剩余长度切片交给 Listener，不拷贝。
+     * 长度非法时抛 IllegalStateException，调用方应断开连接。
+     */
+    public static class Decoder {
+        private final Listener listener;
+        private final byte[] header = new byte[HEADER_LEN];
+        private int headerLen = 0;
+        private int type = 0;
+        private int remaining = -1;//当前帧剩余数据长度，-1 表示正在读帧头
+
+        public Decoder(Listener listener) {
+            this.listener = listener;
+        }
+
+        public void reset() {
+            headerLen = 0;
+            remaining = -1;
+        }
+
+        public boolean isInFrame() {
+            return headerLen > 0 || remaining >= 0;
+        }
+
+        public void feed(byte[] buf, int off, int len) {
+            int end = off + len;
+            while (off < end) {
+                if (remaining < 0) {
+                    int n = Math.min(HEADER_LEN - headerLen, end - off);
+                    System.arraycopy(buf, off, header, headerLen, n);
+                    headerLen += n;
+                    off += n;
+                    if (headerLen < HEADER_LEN) {
+                        return;
+                    }
+                    headerLen = 0;
+                    type = header[0] & 0xff;
+                    int length = (int) readUInt(header, 1);
+                    if (length < 0 || length > MAX_PAYLOAD) {
+                        throw new IllegalStateException("v2 帧长度错误:" + (readUInt(header, 1)));
+                    }
+                    remaining = length;
+                    listener.onFrameStart(type, length);
+                } else {
+                    int n = Math.min(remaining, end - off);
+                    listener.onFramePayload(type, buf, off, n);
+                    remaining -= n;
+                    off += n;
+                }
+                if (remaining == 0) {
+                    remaining = -1;
+                    listener.onFrameEnd(type);
+                }
+            }
+        }
+
+        private static long readUInt(byte[] buf, int off) {
+            return ((buf[off] & 0xffL) << 24) | ((buf[off + 1] & 0xff) << 16) | ((buf[off + 2] & 0xff) << 8) | (buf[off + 3] & 0xff);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 边收边播用的音频缓冲：接收线程不断追加，播放器按位置随机读取，
+ * 数据还没到时 readAt 会阻塞等待。按页存储，增长时不需要整体拷贝。
+ */
+public class ReplyBuffer {
+
+    //收到这么多字节后开始准备播放器(约1秒的mp3)
+    public static final int PREROLL_BYTES = 16 * 1024;
+    private static final int PAGE_SIZE = 32 * 1024;
+
+    private final List<byte[]> pages = new ArrayList<>();
+    private long length = 0;
+    private boolean complete = false;
+    private boolean aborted = false;
+
+    public synchronized void append(byte[] buf, int off, int len) {
+        while (len > 0) {
+            int pageOff = (int) (length % PAGE_SIZE);
+            if (pageOff == 0) {
+                pages.add(new byte[PAGE_SIZE]);
+            }
+            int n = Math.min(len, PAGE_SIZE - pageOff);
+            System.arraycopy(buf, off, pages.get(pages.size() - 1), pageOff, n);
+            off += n;
+            len -= n;
+            length += n;
+        }
+        notifyAll();
+    }
+
+    //收到结束标记
+    public synchronized void complete() {
+        complete = true;
+        notifyAll();
+    }
+
+    //连接断开等情况，唤醒并结束正在等待的读取
+    public synchronized void abort() {
+        aborted = true;
+        notifyAll();
+    }
+
+    public synchronized long length() {
+        return length;
+    }
+
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    //总长度，未收完时返回 -1
+    public synchronized long getSize() {
+        return complete ? length : -1;
+    }
+
+    //阻塞直到 position 处有数据；已收完或已中断且没有更多数据时返回 -1
+    public synchronized int readAt(long position, byte[] buffer, int offset, int size) throws InterruptedException {
+        while (position >= length && !complete && !aborted) {
+            wait();
+        }
+        if (position >= length) {
+            return -1;
+        }
+        int total = (int) Math.min(size, length - position);
+        int done = 0;
+        while (done < total) {
+            long pos = position + done;
+            byte[] page = pages.get((int) (pos / PAGE_SIZE));
+            int pageOff = (int) (pos % PAGE_SIZE);
+            int n = Math.min(total - done, PAGE_SIZE - pageOff);
+            System.arraycopy(page, pageOff, buffer, offset + done, n);
+            done += n;
+        }
+        return total;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        long len;
+        synchronized (this) {
+            len = length;
+        }
+        long pos = 0;
+        int index = 0;
+        while (pos < len) {
+            int n = (int) Math.min(PAGE_SIZE, len - pos);
+            byte[] page;
+            synchronized (this) {
+                page = pages.get(index);
+            }
+            out.write(page, 0, n);
+            pos += n;
+            index++;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 服务器列表：ServerAddress 可以写多个 host:port，用逗号、分号或换行分隔。
+ * 每个服务器记录探测延迟和连接成败，按"连续失败次数少、延迟低"选择；收到心跳才算恢复健康。
+ */
+public class ServerList {
+
+    //探测/连接的健康统计，只在持有 ServerList 锁时修改
+    public static class Server {
+        public final String host;
+        public final int port;
+        private long latency = -1;//探测延迟的平滑值，-1 表示还没有成功探测过
+        private int consecutiveFailures = 0;
+        private long connects = 0;
+        private long failures = 0;
+
+        Server(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    private final List<Server> servers;
+
+    public ServerList(List<Server> servers) {
+        this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+    }
+
+    //格式不对的项直接跳过
+    public static ServerList parse(String value) {
+        List<Server> list = new ArrayList<>();
+        if (value != null) {
+            for (String item : value.split("[,;\\s]+")) {
+                int colon = item.lastIndexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                try {
+                    int port = Integer.parseInt(item.substring(colon + 1));
+                    if (port > 0 && port < 65536) {
+                        list.add(new Server(item.substring(0, colon), port));
+                    }
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+        return new ServerList(list);
+    }
+
+    public List<Server> getServers() {
+        return servers;
+    }
+
+    public int size() {
+        return servers.size();
+    }
+
+    //最好的服务器，exclude 不参与选择(给热备连接用)；列表为空或只剩 exclude 时返回 null
+    public synchronized Server best(Server exclude) {
+        Server best = null;
+        for (Server s : servers) {
+            if (s != exclude && (best == null || compare(s, best) < 0)) {
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    //连续失败少的优先，其次延迟低的，没探测过的排在有延迟的后面
+    private static int compare(Server a, Server b) {
+        if (a.consecutiveFailures != b.consecutiveFailures) {
+            return a.consecutiveFailures < b.consecutiveFailures ? -1 : 1;
+        }
+        if (a.latency < 0 || b.latency < 0) {
+            return a.latency < 0 ? (b.latency < 0 ? 0 : 1) : -1;
+        }
+        return Long.compare(a.latency, b.latency);
+    }
+
+    //millis < 0 表示探测失败
+    public synchronized void onProbe(Server server, long millis) {
+        if (millis < 0) {
+            server.failures++;
+            server.consecutiveFailures++;
+            return;
+        }
+        server.latency = server.latency < 0 ? millis : (server.latency * 3 + millis) / 4;
+    }
+
+    public synchronized void onConnected(Server server) {
+        server.connects++;
+    }
+
+    //连接失败或断开
+    public synchronized void onFailure(Server server) {
+        server.failures++;
+        server.consecutiveFailures++;
+    }
+
+    //收到心跳，说明这个服务器确实在工作
+    public synchronized void onHealthy(Server server) {
+        server.consecutiveFailures = 0;
+    }
+
+    public synchronized long getLatency(Server server) {
+        return server.latency;
+    }
+
+    public synchronized int getConsecutiveFailures(Server server) {
+        return server.consecutiveFailures;
+    }
+
+    //建立一次 TCP 连接测量耗时，失败返回 -1
+    public static long probe(Server server, int timeoutMs) {
+        long start = System.nanoTime();
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(server.host, server.port), timeoutMs);
+            return (System.nanoTime() - start) / 1000000;
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    //每个服务器一段：地址 延迟/连接次数/失败次数(连续失败)
+    public synchronized String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (Server s : servers) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(s).append(' ').append(s.latency).append("ms/").append(s.connects).append('/')
+                    .append(s.failures).append('(').append(s.consecutiveFailures).append(')');
+        }
+        return sb.toString();
+    }
+}
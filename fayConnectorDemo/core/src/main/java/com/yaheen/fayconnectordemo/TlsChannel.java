@@ -0,0 +1,198 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * 非阻塞 SocketChannel 上的一个 SSLEngine，只在连接引擎线程使用。
+ * 三个缓冲：netIn 是收到还没解密的密文，appIn 是解密后还没交出去的明文，netOut 是加密后还没写出的密文，都保持写模式。
+ */
+class TlsChannel {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine engine;
+    private final SocketChannel channel;
+    private final ByteBuffer netIn;
+    private final ByteBuffer appIn;
+    private final ByteBuffer netOut;
+    private final long handshakeStart;
+    private boolean handshakeDone = false;
+    private long handshakeMillis = 0;
+    private boolean resumed = false;
+
+    TlsChannel(SSLEngine engine, SocketChannel channel) throws SSLException {
+        this.engine = engine;
+        this.channel = channel;
+        SSLSession session = engine.getSession();
+        netIn = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+        appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+        netOut = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+        handshakeStart = System.currentTimeMillis();
+        engine.beginHandshake();
+    }
+
+    /**
+     * 推进握手，收到数据或可写时调用。返回 true 表示握手完成；
+     * 恢复的会话是以前创建的，创建时间早于这次握手开始。
+     */
+    boolean handshake() throws IOException {
+        while (!handshakeDone) {
+            //上次没写完的密文先写出去，否则下一步等服务器回应时没人再写，可写事件一直触发
+            if (!flush()) {
+                return false;
+            }
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runTasks();
+                    break;
+                case NEED_WRAP:
+                    wrap(EMPTY);
+                    break;
+                case NOT_HANDSHAKING:
+                case FINISHED:
+                    handshakeDone = true;
+                    handshakeMillis = System.currentTimeMillis() - handshakeStart;
+                    resumed = engine.getSession().getCreationTime() < handshakeStart;
+                    break;
+                default:
+                    if (!unwrap()) {
+                        return false;
+                    }
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读出解密后的明文，最多 len 字节；返回 0 表示暂时没有，-1 表示对方关闭。
+     * 握手后的消息(比如 TLS 1.3 的会话票据)在这里顺带处理。
+     */
+    int read(byte[] out, int off, int len) throws IOException {
+        while (appIn.position() == 0) {
+            if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runTasks();
+            } else if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                wrap(EMPTY);
+                flush();
+            } else if (engine.isInboundDone()) {
+                return -1;
+            } else if (!unwrap()) {
+                return engine.isInboundDone() ? -1 : 0;
+            }
+        }
+        appIn.flip();
+        int n = Math.min(len, appIn.remaining());
+        appIn.get(out, off, n);
+        appIn.compact();
+        return n;
+    }
+
+    //加密 src 里的明文写出去，返回用掉的明文字节数；密文写不出去时停下，等可写后 flush
+    int write(ByteBuffer src) throws IOException {
+        int consumed = 0;
+        while (flush() && src.hasRemaining()) {
+            consumed += wrap(src);
+        }
+        return consumed;
+    }
+
+    //把积压的密文写出去，全部写完返回 true
+    boolean flush() throws IOException {
+        if (netOut.position() == 0) {
+            return true;
+        }
+        netOut.flip();
+        channel.write(netOut);
+        netOut.compact();
+        return netOut.position() == 0;
+    }
+
+    boolean hasPendingOutput() {
+        return netOut.position() > 0;
+    }
+
+    //发送 close_notify，尽量写出去，不等对方回应
+    void close() {
+        engine.closeOutbound();
+        try {
+            while (!engine.isOutboundDone() && netOut.hasRemaining()) {
+                wrap(EMPTY);
+            }
+            flush();
+        } catch (IOException e) {
+        }
+    }
+
+    long getHandshakeMillis() {
+        return handshakeMillis;
+    }
+
+    boolean isResumed() {
+        return resumed;
+    }
+
+    String getProtocol() {
+        return engine.getSession().getProtocol();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private int wrap(ByteBuffer src) throws IOException {
+        SSLEngineResult result = engine.wrap(src, netOut);
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED && !src.hasRemaining()) {
+            return result.bytesConsumed();
+        }
+        if (result.getStatus() != SSLEngineResult.Status.OK) {
+            throw new SSLException("TLS 加密失败:" + result.getStatus());
+        }
+        return result.bytesConsumed();
+    }
+
+    //解密一条记录；缓冲里不够一条时从 socket 读。返回 false 表示 socket 暂时没有数据
+    private boolean unwrap() throws IOException {
+        while (true) {
+            if (netIn.position() > 0) {
+                netIn.flip();
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+                netIn.compact();
+                switch (result.getStatus()) {
+                    case OK:
+                        return true;
+                    case CLOSED:
+                        return false;
+                    case BUFFER_OVERFLOW:
+                        //明文还没交出去，先交
+                        if (appIn.position() > 0) {
+                            return true;
+                        }
+                        throw new SSLException("TLS 明文缓冲太小");
+                    default:
+                        break;//BUFFER_UNDERFLOW，继续读
+                }
+            }
+            if (!netIn.hasRemaining()) {
+                throw new SSLException("TLS 记录超过缓冲长度");
+            }
+            int n = channel.read(netIn);
+            if (n == -1) {
+                throw new IOException("服务器关闭了连接");
+            }
+            if (n == 0) {
+                return false;
+            }
+        }
+    }
+}
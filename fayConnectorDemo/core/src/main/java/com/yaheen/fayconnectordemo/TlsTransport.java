@@ -0,0 +1,109 @@
+package com.yaheen.fayconnectordemo;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * 连接引擎的 TLS 配置。所有连接共用一个 SSLContext，它的客户端会话缓存按服务器地址保存会话，
+ * 重连同一个服务器时用缓存的会话(TLS 1.3 的票据 / TLS 1.2 的会话 id)恢复，省掉证书交换和验证。
+ * 设置了证书指纹时只认这张证书(自签名也可以)，不再检查 CA 和主机名；否则按系统信任的 CA 和主机名验证。
+ */
+public class TlsTransport {
+
+    //缓存的会话最长保留时间，秒
+    private static final int SESSION_TIMEOUT = 12 * 3600;
+
+    private final SSLContext context;
+    private final boolean pinned;
+
+    public TlsTransport(SSLContext context, boolean pinned) {
+        this.context = context;
+        this.pinned = pinned;
+        context.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT);
+    }
+
+    //pin 是证书 DER 编码的 SHA-256(十六进制，可以带冒号)，为空时用系统信任的 CA
+    public static TlsTransport create(String pin) throws GeneralSecurityException {
+        SSLContext context = SSLContext.getInstance("TLS");
+        boolean pinned = pin != null && !pin.trim().isEmpty();
+        if (pinned) {
+            context.init(null, new TrustManager[]{new PinnedTrustManager(normalize(pin))}, null);
+        } else {
+            TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            factory.init((KeyStore) null);
+            context.init(null, factory.getTrustManagers(), null);
+        }
+        return new TlsTransport(context, pinned);
+    }
+
+    //证书指纹，小写十六进制不带分隔符
+    public static String fingerprint(X509Certificate cert) throws CertificateException {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(cert.getEncoded());
+            return HexUtils.toHex(hash, 0, hash.length).toLowerCase();
+        } catch (GeneralSecurityException e) {
+            throw new CertificateException(e);
+        }
+    }
+
+    private static String normalize(String pin) {
+        return pin.replace(":", "").replace(" ", "").trim().toLowerCase();
+    }
+
+    //按 host、port 创建，会话缓存用它们查找可恢复的会话
+    SSLEngine newEngine(String host, int port) {
+        SSLEngine engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        if (!pinned) {
+            SSLParameters params = engine.getSSLParameters();
+            params.setEndpointIdentificationAlgorithm("HTTPS");
+            engine.setSSLParameters(params);
+        }
+        return engine;
+    }
+
+    public SSLContext getContext() {
+        return context;
+    }
+
+    //只比较服务器证书本身的指纹
+    private static class PinnedTrustManager implements X509TrustManager {
+        private final String pin;
+
+        PinnedTrustManager(String pin) {
+            this.pin = pin;
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            throw new CertificateException("不验证客户端证书");
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            if (chain == null || chain.length == 0) {
+                throw new CertificateException("服务器没有提供证书");
+            }
+            chain[0].checkValidity();
+            String actual = fingerprint(chain[0]);
+            if (!actual.equals(pin)) {
+                throw new CertificateException("服务器证书指纹不匹配:" + actual);
+            }
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
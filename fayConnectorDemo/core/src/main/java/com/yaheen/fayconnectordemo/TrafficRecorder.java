@@ -0,0 +1,146 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 会话流量录制：连接引擎实际收到、写出的每一段字节和连接、断开事件按顺序追加到文件，
+ * 用 TrafficReplayer 可以原样或加速重放，现场卡顿时拿回来复现。
+ * 文件按段内存映射，写一条只是一次加锁和内存拷贝；没映射到的部分是 0，进程中途退出时读到类型 0 就是结尾。
+ * 文件格式(大端)：16 字节头 = "FAYT" + 2 字节版本 + 2 字节保留 + 8 字节开始时间(毫秒)；
+ * 每条记录 = 1 字节类型 + 1 字节连接编号 + 8 字节相对开始的纳秒 + 4 字节长度 + 数据。
+ */
+public class TrafficRecorder {
+
+    public static final int MAGIC = 0x46415954;//FAYT
+    public static final int VERSION = 1;
+    public static final int FILE_HEADER = 16;
+    public static final int RECORD_HEADER = 14;
+
+    //记录类型，0 表示文件结尾
+    public static final int UPLINK = 1;
+    public static final int DOWNLINK = 2;
+    public static final int CONNECTED = 3;
+    public static final int DISCONNECTED = 4;
+
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long maxBytes;
+    private final long startNanos;
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private long position;
+    private boolean closed = false;
+
+    private volatile long records = 0;
+    private volatile long droppedRecords = 0;
+
+    //maxBytes 是文件的最大长度，写满后新的记录丢弃
+    public TrafficRecorder(File file, long maxBytes) throws IOException {
+        this.maxBytes = maxBytes;
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        channel = raf.getChannel();
+        startNanos = System.nanoTime();
+        map(0, FILE_HEADER);
+        segment.putInt(MAGIC);
+        segment.putShort((short) VERSION);
+        segment.putShort((short) 0);
+        segment.putLong(System.currentTimeMillis());
+        position = FILE_HEADER;
+    }
+
+    public void record(int type, int stream, byte[] buf, int off, int len) {
+        synchronized (this) {
+            if (!reserve(len)) {
+                return;
+            }
+            putHeader(type, stream, len);
+            segment.put(buf, off, len);
+            position += len;
+        }
+    }
+
+    //从 buf 的 position 到 limit，不改变 buf 本身的位置
+    public void record(int type, int stream, ByteBuffer buf) {
+        synchronized (this) {
+            int len = buf.remaining();
+            if (!reserve(len)) {
+                return;
+            }
+            putHeader(type, stream, len);
+            segment.put(buf.duplicate());
+            position += len;
+        }
+    }
+
+    public void event(int type, int stream) {
+        record(type, stream, EMPTY, 0, 0);
+    }
+
+    //当前段放不下时从写位置开始映射新的一段，记录不会跨段
+    private boolean reserve(int len) {
+        long need = RECORD_HEADER + len;
+        if (closed || position + need > maxBytes) {
+            droppedRecords++;
+            return false;
+        }
+        if (position + need > segmentStart + segment.capacity()) {
+            try {
+                map(position, Math.max(SEGMENT_SIZE, need));
+            } catch (IOException e) {
+                droppedRecords++;
+                return false;
+            }
+        }
+        records++;
+        return true;
+    }
+
+    private void putHeader(int type, int stream, int len) {
+        segment.put((byte) type);
+        segment.put((byte) stream);
+        segment.putLong(System.nanoTime() - startNanos);
+        segment.putInt(len);
+        position += RECORD_HEADER;
+    }
+
+    private void map(long start, long size) throws IOException {
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(size, Math.max(maxBytes - start, FILE_HEADER)));
+        segmentStart = start;
+    }
+
+    //截掉末尾没用到的映射部分
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            segment.force();
+            raf.setLength(position);
+            raf.close();
+        } catch (IOException e) {
+        }
+    }
+
+    public synchronized long getBytes() {
+        return position;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    //文件写满或映射失败丢掉的记录
+    public long getDroppedRecords() {
+        return droppedRecords;
+    }
+}
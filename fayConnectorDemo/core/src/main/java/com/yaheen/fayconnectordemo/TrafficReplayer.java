@@ -0,0 +1,118 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 重放 TrafficRecorder 录下的文件：按记录的时间间隔(可以加速，或者不等待)依次交给 Sink。
+ * 下行可以直接喂给连接回调(接收路径)，上行、下行也可以写进 socket 扮演客户端或替身服务器。
+ * 同一个文件、同样的速度重放，交给 Sink 的数据和顺序完全相同，可以用来做回归对比。
+ */
+public class TrafficReplayer {
+
+    public interface Sink {
+        //data 只在回调期间有效
+        void onRecord(int type, int stream, long nanos, byte[] data, int off, int len) throws IOException;
+    }
+
+    private final MappedByteBuffer map;
+    private final long startTime;
+    private byte[] data = new byte[16 * 1024];
+
+    public TrafficReplayer(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < TrafficRecorder.FILE_HEADER || raf.length() > Integer.MAX_VALUE) {
+                throw new IOException("流量录制文件长度错误:" + raf.length());
+            }
+            map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        if (map.getInt() != TrafficRecorder.MAGIC) {
+            throw new IOException("不是流量录制文件:" + file);
+        }
+        int version = map.getShort();
+        if (version != TrafficRecorder.VERSION) {
+            throw new IOException("不支持的流量录制版本:" + version);
+        }
+        map.getShort();
+        startTime = map.getLong();
+    }
+
+    //录制开始的时间，毫秒
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * 从头重放一遍，speed 为 1 按原来的间隔，2 为两倍速，0 不等待。
+     * 返回重放的记录数；文件结尾不完整(录制时进程退出)时在最后一条完整的记录处停止。
+     */
+    public int replay(Sink sink, double speed) throws IOException, InterruptedException {
+        map.position(TrafficRecorder.FILE_HEADER);
+        long begin = System.nanoTime();
+        int count = 0;
+        while (map.remaining() >= TrafficRecorder.RECORD_HEADER) {
+            int type = map.get() & 0xff;
+            if (type == 0) {
+                break;
+            }
+            int stream = map.get() & 0xff;
+            long nanos = map.getLong();
+            int len = map.getInt();
+            if (len < 0 || len > map.remaining()) {
+                break;
+            }
+            if (data.length < len) {
+                data = new byte[len];
+            }
+            map.get(data, 0, len);
+            if (speed > 0) {
+                long wait = (long) (nanos / speed) - (System.nanoTime() - begin);
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                }
+            }
+            sink.onRecord(type, stream, nanos, data, 0, len);
+            count++;
+        }
+        return count;
+    }
+
+    //把一条连接的下行和连接事件交给连接回调，和连接引擎收到时一样
+    public static Sink toListener(final FayConnection.Listener listener, final int stream) {
+        return new Sink() {
+            @Override
+            public void onRecord(int type, int s, long nanos, byte[] data, int off, int len) {
+                if (s != stream) {
+                    return;
+                }
+                if (type == TrafficRecorder.DOWNLINK) {
+                    listener.onReceive(data, off, len);
+                } else if (type == TrafficRecorder.CONNECTED) {
+                    listener.onConnected();
+                } else if (type == TrafficRecorder.DISCONNECTED) {
+                    listener.onDisconnected(null);
+                }
+            }
+        };
+    }
+
+    //把一条连接某个方向的字节写进流：上行对着服务器重放客户端，下行对着客户端扮演服务器
+    public static Sink toStream(final OutputStream out, final int type, final int stream) {
+        return new Sink() {
+            @Override
+            public void onRecord(int t, int s, long nanos, byte[] data, int off, int len) throws IOException {
+                if (t == type && s == stream && len > 0) {
+                    out.write(data, off, len);
+                    out.flush();
+                }
+            }
+        };
+    }
+}
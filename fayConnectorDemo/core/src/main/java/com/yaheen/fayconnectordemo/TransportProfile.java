@@ -0,0 +1,42 @@
+package com.yaheen.fayconnectordemo;
+
+/**
+ * 传输参数组合：录音帧长、上行批量大小和最长等待、socket 选项。
+ * 通过 KVUtils 的 TransportProfile 选择，socket 选项在下次连接时生效，帧长和批量立即生效。
+ */
+public enum TransportProfile {
+    //原来的固定参数
+    BALANCED("balanced", 1024, 4096, 0, false, 0),
+    //20ms 一帧立即发送，关闭 Nagle，发送缓冲小一些避免排队
+    LOW_LATENCY("low_latency", 640, 640, 0, true, 8 * 1024),
+    //64ms 一帧，最多攒 200ms 再发，减少包数
+    LOW_BANDWIDTH("low_bandwidth", 2048, 8192, 200, false, 0);
+
+    public static final int MAX_FRAME_BYTES = 2048;
+    public static final int MAX_BATCH_BYTES = 8192;
+
+    public final String key;
+    public final int frameBytes;
+    public final int batchBytes;
+    public final long batchDelayMs;
+    public final boolean tcpNoDelay;
+    public final int sendBufferSize;//0 表示系统默认
+
+    TransportProfile(String key, int frameBytes, int batchBytes, long batchDelayMs, boolean tcpNoDelay, int sendBufferSize) {
+        this.key = key;
+        this.frameBytes = frameBytes;
+        this.batchBytes = batchBytes;
+        this.batchDelayMs = batchDelayMs;
+        this.tcpNoDelay = tcpNoDelay;
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public static TransportProfile parse(String value) {
+        for (TransportProfile p : values()) {
+            if (p.key.equalsIgnoreCase(value)) {
+                return p;
+            }
+        }
+        return BALANCED;
+    }
+}
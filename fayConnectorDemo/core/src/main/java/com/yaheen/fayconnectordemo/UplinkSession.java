@@ -0,0 +1,203 @@
+package com.yaheen.fayconnectordemo;
+
+/**
+ * 一条连接上的上行会话：连上后先发编码和协议版本的协商标记，服务器确认前不发音频，超时退回 pcm/老协议；
+ * 协商完成后把 pcm 编码、按协议加帧头交给连接引擎。服务和压测工具共用。
+ * 设置了流式下行格式时，v2 确认后再请求下行格式，服务器不确认就继续收 mp3。
+ * 有状态的编码(ADPCM)一批被丢弃或截断后，服务器的解码状态就和编码器对不上了：
+ * 先通知服务器重置解码器(老协议重发编码协商标记，v2 发 UPLINK_RESET 控制帧)，同时重置编码器，通知发出去之前的音频都丢弃。
+ * start 和各个 ack 在连接引擎线程调用，send 只在一个发送线程调用。
+ */
+public class UplinkSession {
+
+    public interface Listener {
+        //acked 为 false 表示等待确认超时，退回了 pcm
+        void onCodecNegotiated(AudioCodec codec, boolean acked);
+
+        //acked 为 false 表示等待确认超时，继续用老协议
+        void onProtocolNegotiated(boolean v2, boolean acked);
+    }
+
+    public static final long ACK_TIMEOUT = 1000;
+
+    private final FayMetrics metrics;
+    private final Listener listener;
+    private final byte[] encoded;
+    private volatile FayConnection connection = null;
+    private volatile AudioCodec codec = new PcmCodec();
+    private volatile int pendingCodec = -1;
+    private volatile long codecDeadline = 0;
+    private volatile boolean useV2 = false;
+    private volatile boolean protocolPending = false;
+    private volatile long protocolDeadline = 0;
+    private volatile int downlinkFormat = -1;
+    private volatile int downlinkCodec = -1;
+    private volatile boolean resetPending = false;
+    private volatile int codecResets = 0;
+
+    //maxBatch 是一次 send 的最大 pcm 字节数
+    public UplinkSession(int maxBatch, FayMetrics metrics, Listener listener) {
+        this.encoded = new byte[ProtocolV2.HEADER_LEN + maxBatch];
+        this.metrics = metrics;
+        this.listener = listener;
+    }
+
+    //连上(或切换到新连接)时调用，版本协商放在编码协商之后，服务器也按这个顺序确认
+    public void start(FayConnection connection, int codecId, boolean v2) {
+        this.connection = connection;
+        long now = System.currentTimeMillis();
+        if (codecId != AudioCodec.PCM) {
+            pendingCodec = codecId;
+            codecDeadline = now + ACK_TIMEOUT;
+            byte[] announce = FrameDecoder.codecAnnounce(codecId);
+            connection.send(announce, 0, announce.length);
+        } else {
+            pendingCodec = -1;
+            codec = new PcmCodec();
+        }
+        useV2 = false;
+        downlinkCodec = -1;
+        resetPending = false;
+        protocolPending = v2;
+        if (v2) {
+            protocolDeadline = now + ACK_TIMEOUT;
+            byte[] announce = ProtocolV2.protocolAnnounce(ProtocolV2.VERSION);
+            connection.send(announce, 0, announce.length);
+        }
+    }
+
+    public void onCodecAck(int codecId) {
+        if (pendingCodec < 0) {
+            return;
+        }
+        codec = codecId == AudioCodec.MULAW || codecId == AudioCodec.IMA_ADPCM ? AudioCodec.create(codecId) : new PcmCodec();
+        pendingCodec = -1;
+        if (listener != null) {
+            listener.onCodecNegotiated(codec, true);
+        }
+    }
+
+    //请求的流式下行编码，-1 表示 mp3(默认)；下次 start 生效
+    public void setDownlinkFormat(int codecId) {
+        downlinkFormat = codecId;
+    }
+
+    //下行解码器已经按这个版本切换，上行跟着切换
+    public void onProtocolAck(int version) {
+        useV2 = version == ProtocolV2.VERSION;
+        protocolPending = false;
+        FayConnection c = connection;
+        if (useV2 && downlinkFormat >= 0 && c != null) {
+            byte[] request = ProtocolV2.downlinkFormat(downlinkFormat);
+            c.offer(request, 0, request.length);
+        }
+        if (listener != null) {
+            listener.onProtocolNegotiated(useV2, true);
+        }
+    }
+
+    //服务器确认的编码和请求的不同时不启用，继续按 mp3 处理
+    public void onDownlinkFormatAck(int codecId) {
+        if (codecId == downlinkFormat) {
+            downlinkCodec = codecId;
+        }
+    }
+
+    //已经协商好的流式下行编码，-1 表示 mp3
+    public int getDownlinkCodec() {
+        return downlinkCodec;
+    }
+
+    //协商是否完成，等待超时的在这里退回；返回 false 时这批音频应暂存或丢弃
+    public boolean isReady(long now) {
+        if (protocolPending) {
+            if (now < protocolDeadline) {
+                return false;
+            }
+            protocolPending = false;
+            if (listener != null) {
+                listener.onProtocolNegotiated(false, false);
+            }
+        }
+        if (pendingCodec >= 0) {
+            if (now < codecDeadline) {
+                return false;
+            }
+            pendingCodec = -1;
+            codec = new PcmCodec();
+            if (listener != null) {
+                listener.onCodecNegotiated(codec, false);
+            }
+        }
+        return true;
+    }
+
+    public boolean isV2() {
+        return useV2;
+    }
+
+    public AudioCodec getCodec() {
+        return codec;
+    }
+
+    //编码后交给连接引擎，返回被接受的字节数(含 v2 帧头)
+    public int send(byte[] pcm, int off, int len) {
+        FayConnection c = connection;
+        if (c == null) {
+            return 0;
+        }
+        AudioCodec current = codec;
+        boolean synced = !resetPending || announceReset(c, current);
+        int n = current.encode(pcm, off, len, encoded, ProtocolV2.HEADER_LEN);
+        int total;
+        int accepted;
+        if (useV2) {
+            total = ProtocolV2.writeHeader(ProtocolV2.AUDIO_UP, n, encoded, 0) + n;
+            accepted = synced && c.offer(encoded, 0, total) ? total : 0;
+        } else {
+            total = n;
+            accepted = synced ? c.send(encoded, ProtocolV2.HEADER_LEN, n) : 0;
+        }
+        if (accepted < total && current.isStateful()) {
+            resetPending = true;
+        }
+        if (metrics != null) {
+            metrics.onUplink(total, accepted);
+        }
+        return accepted;
+    }
+
+    //通知服务器重置上行解码器，发出去了才重置编码器
+    private boolean announceReset(FayConnection c, AudioCodec current) {
+        byte[] announce = useV2 ? ProtocolV2.uplinkReset(current.id()) : FrameDecoder.codecAnnounce(current.id());
+        if (!c.offer(announce, 0, announce.length)) {
+            return false;
+        }
+        current.reset();
+        resetPending = false;
+        codecResets++;
+        return true;
+    }
+
+    //丢帧后重置编码的次数
+    public int getCodecResets() {
+        return codecResets;
+    }
+
+    //v2 协议下每个心跳后发 ping，老协议不发
+    public void ping(long now) {
+        FayConnection c = connection;
+        if (useV2 && c != null) {
+            byte[] ping = ProtocolV2.ping(now);
+            c.offer(ping, 0, ping.length);
+        }
+    }
+
+    public void pong(long time) {
+        FayConnection c = connection;
+        if (c != null) {
+            byte[] pong = ProtocolV2.pong(time);
+            c.offer(pong, 0, pong.length);
+        }
+    }
+}
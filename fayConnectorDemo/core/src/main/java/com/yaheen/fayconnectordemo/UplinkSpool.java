@@ -0,0 +1,210 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 断线期间的上行暂存：录到的音频按批写进内存映射文件组成的环形缓冲，每批带录音时间；
+ * 重新连上后按实时速度的若干倍补发，超过最长保留时间的直接丢掉。满了丢最旧的一批。
+ * 文件只作为存储，不跨进程重启保留。
+ */
+public class UplinkSpool {
+
+    //每批前面的头：8 字节录音时间 + 4 字节长度
+    static final int RECORD_HEADER = 12;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer map;
+    private final int capacity;
+    private final long maxAge;
+    private final long replayBytesPerMs;
+    private final byte[] header = new byte[RECORD_HEADER];
+    private int readPos = 0;
+    private int writePos = 0;
+    private int used = 0;
+    private long lastReplay = 0;
+    private long budget = 0;
+
+    private volatile long spooledBytes = 0;
+    private volatile long replayedBytes = 0;
+    private volatile long expiredBytes = 0;
+    private volatile long droppedBytes = 0;
+
+    //bytesPerMs 是音频的实时码率，补发速度为它的 replaySpeed 倍
+    public UplinkSpool(File file, int capacity, long maxAgeMs, int bytesPerMs, int replaySpeed) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        this.maxAge = maxAgeMs;
+        this.replayBytesPerMs = (long) bytesPerMs * replaySpeed;
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(capacity);
+        map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    //满了先丢最旧的批次，一批比整个缓冲还大时直接丢弃
+    public synchronized void write(byte[] buf, int off, int len, long now) {
+        int need = RECORD_HEADER + len;
+        if (need > capacity) {
+            droppedBytes += len;
+            return;
+        }
+        while (capacity - used < need) {
+            droppedBytes += skipRecord();
+        }
+        writeLong(header, 0, now);
+        writeInt(header, 8, len);
+        put(header, 0, RECORD_HEADER);
+        put(buf, off, len);
+        spooledBytes += len;
+    }
+
+    //取出整批数据，最多 maxLen 字节，受补发速度限制；返回 0 表示暂时没有可发的
+    public synchronized int read(byte[] buf, int off, int maxLen, long now) {
+        expire(now);
+        if (used == 0) {
+            lastReplay = 0;
+            return 0;
+        }
+        budget = lastReplay == 0 ? maxLen : Math.min(maxLen, budget + (now - lastReplay) * replayBytesPerMs);
+        lastReplay = now;
+        int n = 0;
+        while (used > 0 && n < budget) {
+            int len = peekLength();
+            if (n + len > maxLen) {
+                break;
+            }
+            skip(RECORD_HEADER);
+            get(buf, off + n, len);
+            n += len;
+        }
+        budget -= n;
+        replayedBytes += n;
+        return n;
+    }
+
+    private void expire(long now) {
+        while (used > 0) {
+            get(header, 0, RECORD_HEADER, readPos);
+            if (now - readLong(header, 0) <= maxAge) {
+                return;
+            }
+            expiredBytes += skipRecord();
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return used == 0;
+    }
+
+    //包括批次头的占用字节
+    public synchronized int getDepth() {
+        return used;
+    }
+
+    public synchronized void clear() {
+        readPos = 0;
+        writePos = 0;
+        used = 0;
+        lastReplay = 0;
+    }
+
+    public void close() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+        }
+        file.delete();
+    }
+
+    public long getSpooledBytes() {
+        return spooledBytes;
+    }
+
+    public long getReplayedBytes() {
+        return replayedBytes;
+    }
+
+    //超过最长保留时间被丢掉的
+    public long getExpiredBytes() {
+        return expiredBytes;
+    }
+
+    //缓冲满被挤掉的
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    private int peekLength() {
+        get(header, 0, RECORD_HEADER, readPos);
+        return readInt(header, 8);
+    }
+
+    private int skipRecord() {
+        int len = peekLength();
+        skip(RECORD_HEADER + len);
+        return len;
+    }
+
+    private void skip(int len) {
+        readPos = (readPos + len) % capacity;
+        used -= len;
+    }
+
+    private void get(byte[] buf, int off, int len) {
+        get(buf, off, len, readPos);
+        skip(len);
+    }
+
+    //从 pos 开始读，跨过文件末尾时分两段
+    private void get(byte[] buf, int off, int len, int pos) {
+        int first = Math.min(len, capacity - pos);
+        map.position(pos);
+        map.get(buf, off, first);
+        if (first < len) {
+            map.position(0);
+            map.get(buf, off + first, len - first);
+        }
+    }
+
+    private void put(byte[] buf, int off, int len) {
+        int first = Math.min(len, capacity - writePos);
+        map.position(writePos);
+        map.put(buf, off, first);
+        if (first < len) {
+            map.position(0);
+            map.put(buf, off + first, len - first);
+        }
+        writePos = (writePos + len) % capacity;
+        used += len;
+    }
+
+    private static void writeLong(byte[] b, int off, long v) {
+        for (int i = 7; i >= 0; i--) {
+            b[off + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    private static long readLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[off + i] & 0xff);
+        }
+        return v;
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16 | (b[off + 2] & 0xff) << 8 | (b[off + 3] & 0xff);
+    }
+}
@@ -0,0 +1,9 @@
+package com.yaheen.fayconnectordemo;
+
+//语音检测，输入 16bit 小端单声道 PCM 的一帧，判断是否有人声。可替换成更好的模型
+public interface VoiceDetector {
+
+    boolean isSpeech(byte[] pcm, int off, int len);
+
+    void reset();
+}
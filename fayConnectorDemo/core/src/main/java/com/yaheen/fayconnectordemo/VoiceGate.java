@@ -0,0 +1,126 @@
+package com.yaheen.fayconnectordemo;
+
+/**
+ * 上行语音门：只放行人声帧。语音开始时先补发最近 lookbackFrames 帧(避免吞掉开头)，
+ * 语音结束后再多放行 hangoverFrames 帧(避免切掉尾音)，并回调一句话的开始/结束。
+ * 每次 process 处理一帧，帧长不能超过 maxFrameBytes；缓冲预先分配。
+ */
+public class VoiceGate {
+
+    public interface Listener {
+        void onFrame(byte[] buf, int off, int len);
+
+        void onUtteranceStart();
+
+        void onUtteranceEnd();
+    }
+
+    private final VoiceDetector detector;
+    private final int hangoverFrames;
+    private final Listener listener;
+    private final byte[][] lookback;
+    private final int[] lookbackLen;
+    private int lookbackHead = 0;
+    private int lookbackCount = 0;
+    private boolean inSpeech = false;
+    private int hangover = 0;
+
+    private long inputBytes = 0;
+    private long passedBytes = 0;
+    private long utterances = 0;
+
+    public VoiceGate(VoiceDetector detector, int maxFrameBytes, int lookbackFrames, int hangoverFrames, Listener listener) {
+        this.detector = detector;
+        this.hangoverFrames = hangoverFrames;
+        this.listener = listener;
+        this.lookback = new byte[lookbackFrames][maxFrameBytes];
+        this.lookbackLen = new int[lookbackFrames];
+    }
+
+    public void process(byte[] buf, int off, int len) {
+        inputBytes += len;
+        boolean speech = detector.isSpeech(buf, off, len);
+        if (speech) {
+            if (!inSpeech) {
+                inSpeech = true;
+                utterances++;
+                listener.onUtteranceStart();
+                flushLookback();
+            }
+            hangover = hangoverFrames;
+            emit(buf, off, len);
+            return;
+        }
+        if (inSpeech) {
+            if (hangover > 0) {
+                hangover--;
+                emit(buf, off, len);
+                return;
+            }
+            inSpeech = false;
+            listener.onUtteranceEnd();
+        }
+        remember(buf, off, len);
+    }
+
+    //麦克风关闭或断线时调用，丢掉缓存的静音
+    public void reset() {
+        if (inSpeech) {
+            inSpeech = false;
+            listener.onUtteranceEnd();
+        }
+        lookbackCount = 0;
+        hangover = 0;
+        detector.reset();
+    }
+
+    private void emit(byte[] buf, int off, int len) {
+        passedBytes += len;
+        listener.onFrame(buf, off, len);
+    }
+
+    private void remember(byte[] buf, int off, int len) {
+        if (lookback.length == 0) {
+            return;
+        }
+        int index = (lookbackHead + lookbackCount) % lookback.length;
+        if (lookbackCount == lookback.length) {
+            index = lookbackHead;
+            lookbackHead = (lookbackHead + 1) % lookback.length;
+        } else {
+            lookbackCount++;
+        }
+        System.arraycopy(buf, off, lookback[index], 0, len);
+        lookbackLen[index] = len;
+    }
+
+    private void flushLookback() {
+        for (int i = 0; i < lookbackCount; i++) {
+            int index = (lookbackHead + i) % lookback.length;
+            emit(lookback[index], 0, lookbackLen[index]);
+        }
+        lookbackHead = 0;
+        lookbackCount = 0;
+    }
+
+    public boolean isInSpeech() {
+        return inSpeech;
+    }
+
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    public long getPassedBytes() {
+        return passedBytes;
+    }
+
+    public long getUtterances() {
+        return utterances;
+    }
+
+    //节省的上行流量比例
+    public double getReduction() {
+        return inputBytes == 0 ? 0 : 1 - (double) passedBytes / inputBytes;
+    }
+}
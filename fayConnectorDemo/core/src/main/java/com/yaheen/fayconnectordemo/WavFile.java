@@ -0,0 +1,107 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+//读写 16bit PCM 的 wav 文件，只支持最常见的 RIFF/fmt/data 格式
+public class WavFile {
+
+    public final int sampleRate;
+    public final int channels;
+    public final byte[] pcm;//16bit 小端
+
+    public WavFile(int sampleRate, int channels, byte[] pcm) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.pcm = pcm;
+    }
+
+    public static WavFile read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        byte[] id = new byte[4];
+        in.readFully(id);
+        if (!"RIFF".equals(new String(id, "US-ASCII"))) {
+            throw new IOException("不是wav文件");
+        }
+        readIntLE(in);
+        in.readFully(id);
+        if (!"WAVE".equals(new String(id, "US-ASCII"))) {
+            throw new IOException("不是wav文件");
+        }
+        int sampleRate = 0;
+        int channels = 0;
+        while (true) {
+            try {
+                in.readFully(id);
+            } catch (EOFException e) {
+                throw new IOException("wav文件缺少data块");
+            }
+            String chunk = new String(id, "US-ASCII");
+            int size = readIntLE(in);
+            if ("fmt ".equals(chunk)) {
+                int format = readShortLE(in);
+                channels = readShortLE(in);
+                sampleRate = readIntLE(in);
+                readIntLE(in);
+                readShortLE(in);
+                int bits = readShortLE(in);
+                if (format != 1 || bits != 16) {
+                    throw new IOException("只支持16bit PCM wav");
+                }
+                in.skipBytes(size - 16);
+            } else if ("data".equals(chunk)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(size, 0));
+                byte[] buf = new byte[4096];
+                int remaining = size;
+                int n;
+                while (remaining > 0 && (n = in.read(buf, 0, Math.min(buf.length, remaining))) != -1) {
+                    out.write(buf, 0, n);
+                    remaining -= n;
+                }
+                return new WavFile(sampleRate, channels, out.toByteArray());
+            } else {
+                in.skipBytes(size + (size & 1));
+            }
+        }
+    }
+
+    public void write(OutputStream out) throws IOException {
+        out.write("RIFF".getBytes("US-ASCII"));
+        writeIntLE(out, 36 + pcm.length);
+        out.write("WAVEfmt ".getBytes("US-ASCII"));
+        writeIntLE(out, 16);
+        writeShortLE(out, 1);
+        writeShortLE(out, channels);
+        writeIntLE(out, sampleRate);
+        writeIntLE(out, sampleRate * channels * 2);
+        writeShortLE(out, channels * 2);
+        writeShortLE(out, 16);
+        out.write("data".getBytes("US-ASCII"));
+        writeIntLE(out, pcm.length);
+        out.write(pcm);
+    }
+
+    private static int readIntLE(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static int readShortLE(DataInputStream in) throws IOException {
+        return Short.reverseBytes(in.readShort()) & 0xffff;
+    }
+
+    private static void writeIntLE(OutputStream out, int v) throws IOException {
+        out.write(v);
+        out.write(v >> 8);
+        out.write(v >> 16);
+        out.write(v >> 24);
+    }
+
+    private static void writeShortLE(OutputStream out, int v) throws IOException {
+        out.write(v);
+        out.write(v >> 8);
+    }
+}
@@ -0,0 +1,86 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.*;
+
+public class AudioCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static File receive(AudioCache cache, byte[] content) throws Exception {
+        File temp = cache.newTempFile();
+        FileOutputStream out = new FileOutputStream(temp);
+        out.write(content);
+        out.close();
+        MessageDigest digest = AudioCache.newDigest();
+        digest.update(content);
+        return cache.commit(temp, digest.digest());
+    }
+
+    private static byte[] content(int seed, int size) {
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++) {
+            b[i] = (byte) (seed * 31 + i);
+        }
+        return b;
+    }
+
+    @Test
+    public void identicalRepliesShareOneFile() throws Exception {
+        AudioCache cache = new AudioCache(folder.getRoot(), 1024 * 1024);
+        File first = receive(cache, content(1, 1000));
+        File second = receive(cache, content(1, 1000));
+        assertEquals(first, second);
+        assertTrue(first.exists());
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        //临时文件已删除
+        assertEquals(2, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        AudioCache cache = new AudioCache(folder.getRoot(), 2500);
+        File a = receive(cache, content(1, 1000));
+        File b = receive(cache, content(2, 1000));
+        receive(cache, content(1, 1000));//a 变成最近使用
+        File c = receive(cache, content(3, 1000));
+
+        assertTrue(a.exists());
+        assertFalse(b.exists());
+        assertTrue(c.exists());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2000, cache.getTotalBytes());
+    }
+
+    @Test
+    public void indexSurvivesRestart() throws Exception {
+        AudioCache cache = new AudioCache(folder.getRoot(), 2500);
+        File a = receive(cache, content(1, 1000));
+        File b = receive(cache, content(2, 1000));
+        receive(cache, content(1, 1000));
+        //模拟上次没收完的临时文件
+        new FileOutputStream(new File(folder.getRoot(), "tmp-1-1.part")).close();
+
+        AudioCache reopened = new AudioCache(folder.getRoot(), 2500);
+        assertEquals(2, reopened.size());
+        assertEquals(2000, reopened.getTotalBytes());
+        assertFalse(new File(folder.getRoot(), "tmp-1-1.part").exists());
+        //重启后 LRU 顺序不变：b 最旧，先被淘汰
+        receive(reopened, content(3, 1000));
+        assertTrue(a.exists());
+        assertFalse(b.exists());
+        //重启后仍能命中
+        assertEquals(a, receive(reopened, content(1, 1000)));
+        assertEquals(1, reopened.getHits());
+    }
+}
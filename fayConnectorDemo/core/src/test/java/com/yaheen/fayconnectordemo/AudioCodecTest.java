@@ -0,0 +1,107 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AudioCodecTest {
+
+    private static final int FRAME = 1024;
+
+    //1 秒 16k 的语音样信号：几个谐波加一点噪声
+    private static byte[] signal() {
+        Random random = new Random(3);
+        byte[] pcm = new byte[16000 * 2];
+        for (int i = 0; i < 16000; i++) {
+            double t = i / 16000.0;
+            double v = 8000 * Math.sin(2 * Math.PI * 220 * t) + 3000 * Math.sin(2 * Math.PI * 660 * t)
+                    + 1500 * Math.sin(2 * Math.PI * 1800 * t) + random.nextGaussian() * 200;
+            AudioCodec.writeSample(pcm, 2 * i, (int) v);
+        }
+        return pcm;
+    }
+
+    //按帧编码再解码，帧长故意取奇数个采样以覆盖 ADPCM 半字节拼接
+    private static byte[] roundTrip(AudioCodec encoder, AudioCodec decoder, byte[] pcm, int frame) {
+        byte[] encoded = new byte[encoder.maxEncodedSize(frame)];
+        byte[] decoded = new byte[pcm.length + 8];
+        int decodedLen = 0;
+        for (int off = 0; off < pcm.length; off += frame) {
+            int len = Math.min(frame, pcm.length - off);
+            int n = encoder.encode(pcm, off, len, encoded, 0);
+            assertTrue(n <= encoded.length);
+            decodedLen += decoder.decode(encoded, 0, n, decoded, decodedLen);
+        }
+        byte[] result = new byte[decodedLen];
+        System.arraycopy(decoded, 0, result, 0, decodedLen);
+        return result;
+    }
+
+    private static double snrDb(byte[] ref, byte[] test) {
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i + 1 < Math.min(ref.length, test.length); i += 2) {
+            int a = AudioCodec.readSample(ref, i);
+            int b = AudioCodec.readSample(test, i);
+            signal += (double) a * a;
+            noise += (double) (a - b) * (a - b);
+        }
+        return 10 * Math.log10(signal / Math.max(noise, 1));
+    }
+
+    private static double nsPerFrame(AudioCodec codec, byte[] pcm) {
+        byte[] out = new byte[codec.maxEncodedSize(FRAME)];
+        for (int warm = 0; warm < 200; warm++) {
+            for (int off = 0; off + FRAME <= pcm.length; off += FRAME) {
+                codec.encode(pcm, off, FRAME, out, 0);
+            }
+        }
+        int frames = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < 200; round++) {
+            for (int off = 0; off + FRAME <= pcm.length; off += FRAME) {
+                codec.encode(pcm, off, FRAME, out, 0);
+                frames++;
+            }
+        }
+        return (double) (System.nanoTime() - start) / frames;
+    }
+
+    @Test
+    public void muLawRoundTrip() {
+        byte[] pcm = signal();
+        byte[] decoded = roundTrip(new MuLawCodec(), new MuLawCodec(), pcm, FRAME);
+        assertEquals(pcm.length, decoded.length);
+        double snr = snrDb(pcm, decoded);
+        assertTrue("snr=" + snr, snr > 30);
+        assertEquals(FRAME / 2, new MuLawCodec().encode(pcm, 0, FRAME, new byte[FRAME], 0));
+        System.out.println(String.format("μ-law SNR %.1fdB, 编码 %.0fns/帧", snr, nsPerFrame(new MuLawCodec(), pcm)));
+    }
+
+    @Test
+    public void adpcmRoundTripWithOddFrames() {
+        byte[] pcm = signal();
+        byte[] decoded = roundTrip(new ImaAdpcmCodec(), new ImaAdpcmCodec(), pcm, 1022);
+        assertEquals(pcm.length, decoded.length);
+        double snr = snrDb(pcm, decoded);
+        assertTrue("snr=" + snr, snr > 20);
+        System.out.println(String.format("IMA-ADPCM SNR %.1fdB, 编码 %.0fns/帧", snr, nsPerFrame(new ImaAdpcmCodec(), pcm)));
+    }
+
+    @Test
+    public void muLawKnownValues() {
+        assertEquals((byte) 0xff, MuLawCodec.encodeSample(0));
+        assertEquals((byte) 0x80, MuLawCodec.encodeSample(32767));
+        assertEquals((byte) 0x00, MuLawCodec.encodeSample(-32768));
+    }
+
+    @Test
+    public void parsesConfiguredNames() {
+        assertEquals(AudioCodec.MULAW, AudioCodec.parse("mulaw"));
+        assertEquals(AudioCodec.IMA_ADPCM, AudioCodec.parse("ADPCM"));
+        assertEquals(AudioCodec.PCM, AudioCodec.parse(null));
+        assertTrue(AudioCodec.create(AudioCodec.IMA_ADPCM) instanceof ImaAdpcmCodec);
+    }
+}
@@ -0,0 +1,107 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AudioRingBufferTest {
+
+    //生产者写入递增的 int 序列，每 4 字节一个
+    private static Thread producer(final AudioRingBuffer buffer, final int count) {
+        return new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] frame = new byte[256];
+                int value = 0;
+                while (value < count) {
+                    for (int i = 0; i < frame.length; i += 4) {
+                        frame[i] = (byte) (value >> 24);
+                        frame[i + 1] = (byte) (value >> 16);
+                        frame[i + 2] = (byte) (value >> 8);
+                        frame[i + 3] = (byte) value;
+                        value++;
+                    }
+                    buffer.write(frame, 0, frame.length);
+                }
+                buffer.close();
+            }
+        });
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return ((b[i] & 0xff) << 24) | ((b[i + 1] & 0xff) << 16) | ((b[i + 2] & 0xff) << 8) | (b[i + 3] & 0xff);
+    }
+
+    @Test
+    public void blockPolicyDeliversEverythingInOrder() throws Exception {
+        AudioRingBuffer buffer = new AudioRingBuffer(1024, AudioRingBuffer.OverflowPolicy.BLOCK);
+        int count = 200000;
+        Thread t = producer(buffer, count);
+        t.start();
+        byte[] batch = new byte[700 * 4];
+        int expected = 0;
+        int n;
+        while ((n = buffer.read(batch, 0, batch.length, 1000)) != -1) {
+            assertEquals(0, n % 4);
+            for (int i = 0; i < n; i += 4) {
+                assertEquals(expected++, readInt(batch, i));
+            }
+        }
+        t.join();
+        assertEquals(count, expected);
+        assertEquals(0, buffer.getDroppedBytes());
+        assertTrue(buffer.getMaxDepth() <= 1024);
+    }
+
+    @Test
+    public void dropOldestKeepsNewestData() throws Exception {
+        AudioRingBuffer buffer = new AudioRingBuffer(1024, AudioRingBuffer.OverflowPolicy.DROP_OLDEST);
+        int count = 200000;
+        Thread t = producer(buffer, count);
+        t.start();
+        byte[] batch = new byte[64];
+        int last = -1;
+        int received = 0;
+        int n;
+        while ((n = buffer.read(batch, 0, batch.length, 1000)) != -1) {
+            for (int i = 0; i < n; i += 4) {
+                int value = readInt(batch, i);
+                assertTrue(value > last);
+                last = value;
+                received++;
+            }
+            //消费者慢一点，制造溢出
+            if (received % 256 == 0) {
+                Thread.sleep(1);
+            }
+        }
+        t.join();
+        assertEquals(count - 1, last);
+        assertEquals((long) (count - received) * 4, buffer.getDroppedBytes());
+        if (received < count) {
+            assertTrue(buffer.getOverruns() > 0);
+        }
+    }
+
+    @Test
+    public void readTimesOutWhenEmpty() {
+        AudioRingBuffer buffer = new AudioRingBuffer(64, AudioRingBuffer.OverflowPolicy.DROP_OLDEST);
+        long start = System.nanoTime();
+        assertEquals(0, buffer.read(new byte[8], 0, 8, 20));
+        assertTrue(System.nanoTime() - start >= 15000000L);
+        buffer.close();
+        assertEquals(-1, buffer.read(new byte[8], 0, 8, 20));
+    }
+
+    @Test
+    public void wrapsAround() {
+        AudioRingBuffer buffer = new AudioRingBuffer(10, AudioRingBuffer.OverflowPolicy.BLOCK);
+        byte[] out = new byte[10];
+        buffer.write(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6);
+        assertEquals(6, buffer.read(out, 0, 10, 0));
+        buffer.write(new byte[]{7, 8, 9, 10, 11, 12, 13}, 0, 7);
+        assertEquals(7, buffer.getDepth());
+        assertEquals(7, buffer.read(out, 0, 10, 0));
+        assertArrayEquals(new byte[]{7, 8, 9, 10, 11, 12, 13}, java.util.Arrays.copyOf(out, 7));
+    }
+}
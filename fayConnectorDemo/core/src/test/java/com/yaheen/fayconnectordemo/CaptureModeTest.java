@@ -0,0 +1,79 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CaptureModeTest {
+
+    //和服务一样把配置交给状态机，放一条回复，返回播放期间的状态；calls 记录播放期间为止的麦克风开关
+    private static ConnectorStateMachine.State playReply(CaptureMode mode, List<String> calls) throws Exception {
+        final List<String> log = new ArrayList<>();
+        ConnectorStateMachine machine = new ConnectorStateMachine(new ConnectorStateMachine.Listener() {
+            @Override
+            public void startMicrophone() {
+                log.add("start");
+            }
+
+            @Override
+            public void stopMicrophone() {
+                log.add("stop");
+            }
+
+            @Override
+            public void onTransition(ConnectorStateMachine.Event event, ConnectorStateMachine.State from, ConnectorStateMachine.State to) {
+            }
+        }, false, 10000);
+        try {
+            machine.handle(mode.keepRecording() ? ConnectorStateMachine.Event.KEEP_RECORDING_ON : ConnectorStateMachine.Event.KEEP_RECORDING_OFF);
+            machine.handle(ConnectorStateMachine.Event.MIC_ON);
+            machine.handle(ConnectorStateMachine.Event.CONNECTED);
+            machine.handle(ConnectorStateMachine.Event.PLAYBACK_START);
+            calls.addAll(log);//shutdown 还会关一次麦克风，不算进去
+            return machine.getState();
+        } finally {
+            machine.shutdown();
+        }
+    }
+
+    //只设置 PrerollMs：播放期间麦克风关闭、回到普通模式，回复按媒体用途播放
+    @Test
+    public void prerollAloneKeepsMediaRoute() throws Exception {
+        CaptureMode mode = CaptureMode.parse(null, "500");
+        assertEquals(500, mode.prerollMs);
+        assertFalse(mode.keepRecording());
+        assertFalse(mode.prerollActive());
+        assertFalse(mode.voiceRoute());
+        List<String> calls = new ArrayList<>();
+        assertEquals(ConnectorStateMachine.State.SUSPENDED, playReply(mode, calls));
+        assertEquals("[start, stop]", calls.toString());
+    }
+
+    //热麦克风：播放期间还在通话模式，回复也按通话用途播放
+    @Test
+    public void hotMicUsesVoiceRoute() throws Exception {
+        CaptureMode mode = CaptureMode.parse("true", "500");
+        assertTrue(mode.keepRecording());
+        assertTrue(mode.prerollActive());
+        assertTrue(mode.voiceRoute());
+        List<String> calls = new ArrayList<>();
+        assertEquals(ConnectorStateMachine.State.MUTED, playReply(mode, calls));
+        assertEquals("[start]", calls.toString());
+    }
+
+    @Test
+    public void routeAlwaysMatchesRecording() {
+        for (String hot : new String[]{null, "false", "true"}) {
+            for (String ms : new String[]{null, "0", "300", "abc"}) {
+                CaptureMode mode = CaptureMode.parse(hot, ms);
+                assertEquals(mode.keepRecording(), mode.voiceRoute());
+                assertTrue(!mode.prerollActive() || mode.keepRecording());
+            }
+        }
+        assertEquals(CaptureMode.MAX_PREROLL_MS, CaptureMode.parse("true", "5000").prerollMs);
+        assertEquals(0, CaptureMode.parse("true", "-5").prerollMs);
+    }
+}
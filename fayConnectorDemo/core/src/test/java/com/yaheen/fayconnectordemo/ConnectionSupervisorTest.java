@@ -0,0 +1,270 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConnectionSupervisorTest {
+
+    private FayConnection connection;
+    private FayConnection standby;
+    private ConnectionSupervisor supervisor;
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    private final List<ServerSocket> servers = new ArrayList<>();
+
+    //本地替身服务器，接受的连接放进队列
+    private BlockingQueue<Socket> standIn() throws IOException {
+        final ServerSocket server = listen(0);
+        servers.add(server);
+        final BlockingQueue<Socket> accepted = new LinkedBlockingQueue<>();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        accepted.add(server.accept());
+                    }
+                } catch (IOException e) {
+                }
+            }
+        }).start();
+        return accepted;
+    }
+
+    private FayConnection supervised(final String name) {
+        final FayConnection[] self = new FayConnection[1];
+        self[0] = new FayConnection(new FayConnection.Listener() {
+            @Override
+            public void onConnected() {
+                supervisor.onConnected(self[0]);
+                events.add(name + " connected");
+            }
+
+            @Override
+            public void onReceive(byte[] buf, int off, int len) {
+            }
+
+            @Override
+            public void onUplinkDrained() {
+            }
+
+            @Override
+            public void onDisconnected(IOException cause) {
+                supervisor.onDisconnected(self[0], cause);
+                events.add(name + " disconnected");
+            }
+        }, 4096);
+        return self[0];
+    }
+
+    private void startSupervised(int port) throws IOException {
+        connection = new FayConnection(new FayConnection.Listener() {
+            @Override
+            public void onConnected() {
+                supervisor.onConnected();
+                events.add("connected");
+            }
+
+            @Override
+            public void onReceive(byte[] buf, int off, int len) {
+            }
+
+            @Override
+            public void onUplinkDrained() {
+            }
+
+            @Override
+            public void onDisconnected(IOException cause) {
+                supervisor.onDisconnected(cause);
+                events.add("disconnected:" + (cause == null ? "" : cause.getMessage()));
+            }
+        }, 4096);
+        supervisor = new ConnectionSupervisor(connection, new Random(5));
+        connection.start();
+        supervisor.start("127.0.0.1", port);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (supervisor != null) {
+            supervisor.stop();
+        }
+        if (connection != null) {
+            connection.shutdown();
+            connection.join(1000);
+        }
+        if (standby != null) {
+            standby.shutdown();
+            standby.join(1000);
+        }
+        for (ServerSocket server : servers) {
+            server.close();
+        }
+    }
+
+    private static ServerSocket listen(int port) throws IOException {
+        ServerSocket server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress("127.0.0.1", port));
+        return server;
+    }
+
+    @Test
+    public void backoffGrowsWithJitterAndCaps() {
+        ConnectionSupervisor s = new ConnectionSupervisor(null, new Random(1));
+        long expected = 500;
+        for (int i = 0; i < 12; i++) {
+            long delay = s.nextDelay();
+            assertTrue(delay >= expected / 2 && delay <= expected);
+            expected = Math.min(30000, expected * 2);
+        }
+    }
+
+    @Test
+    public void reconnectsAfterDropAndOutage() throws Exception {
+        ServerSocket server = listen(0);
+        int port = server.getLocalPort();
+        startSupervised(port);
+
+        Socket first = server.accept();
+        assertEquals("connected", events.poll(2, TimeUnit.SECONDS));
+
+        //服务器主动断开，应立即检测到并在退避后重连
+        long dropAt = System.currentTimeMillis();
+        first.close();
+        assertTrue(events.poll(2, TimeUnit.SECONDS).startsWith("disconnected"));
+        Socket second = server.accept();
+        assertEquals("connected", events.poll(2, TimeUnit.SECONDS));
+        long recovery = System.currentTimeMillis() - dropAt;
+        assertTrue("recovery=" + recovery, recovery < 1500);
+
+        //服务器整体下线 2 秒再恢复
+        server.close();
+        second.close();
+        long outageAt = System.currentTimeMillis();
+        Thread.sleep(2000);
+        server = listen(port);
+        server.accept();
+        String event;
+        while ((event = events.poll(10, TimeUnit.SECONDS)) != null && !"connected".equals(event)) {
+        }
+        assertEquals("connected", event);
+        long outageRecovery = System.currentTimeMillis() - outageAt;
+        server.close();
+
+        assertTrue(supervisor.getReconnects() >= 2);
+        assertTrue(supervisor.getLastDowntime() >= 1900);
+        System.out.println(String.format("断开恢复 %dms, 下线2秒后恢复 %dms, 重连 %d 次, 累计断线 %dms",
+                recovery, outageRecovery, supervisor.getReconnects(), supervisor.getTotalDowntime()));
+    }
+
+    @Test
+    public void silentPeerTriggersReadTimeout() throws Exception {
+        ServerSocket server = listen(0);
+        startSupervised(server.getLocalPort());
+        Socket s = server.accept();
+        assertEquals("connected", events.poll(2, TimeUnit.SECONDS));
+        connection.setReadTimeout(200);
+
+        long start = System.currentTimeMillis();
+        String event = events.poll(2, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertTrue(event, event.contains("读取超时"));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        //超时后守护会重连
+        server.accept();
+        assertEquals("connected", events.poll(2, TimeUnit.SECONDS));
+        s.close();
+        server.close();
+    }
+
+    @Test
+    public void skipsDeadServer() throws Exception {
+        ServerSocket dead = listen(0);
+        int deadPort = dead.getLocalPort();
+        dead.close();
+        BlockingQueue<Socket> live = standIn();
+        int livePort = servers.get(0).getLocalPort();
+
+        connection = supervised("primary");
+        supervisor = new ConnectionSupervisor(connection, new Random(5));
+        connection.start();
+        supervisor.start(ServerList.parse("127.0.0.1:" + deadPort + ",127.0.0.1:" + livePort));
+
+        assertEquals("primary connected", events.poll(3, TimeUnit.SECONDS));
+        assertEquals(livePort, supervisor.getCurrentServer().port);
+        //探测用的连接也会被接受，至少有一条
+        assertNotNull(live.poll(1, TimeUnit.SECONDS));
+        assertTrue(supervisor.dumpServers(), supervisor.dumpServers().contains(":" + deadPort + " -1ms/0/1(1)"));
+    }
+
+    @Test
+    public void failsOverToStandby() throws Exception {
+        standIn();
+        standIn();
+        String list = "127.0.0.1:" + servers.get(0).getLocalPort() + ",127.0.0.1:" + servers.get(1).getLocalPort();
+
+        connection = supervised("a");
+        standby = supervised("b");
+        final BlockingQueue<FayConnection> activated = new LinkedBlockingQueue<>();
+        supervisor = new ConnectionSupervisor(connection, standby, new ConnectionSupervisor.Listener() {
+            @Override
+            public void onActive(FayConnection c) {
+                activated.add(c);
+            }
+        }, new Random(5));
+        connection.start();
+        standby.start();
+        supervisor.start(ServerList.parse(list));
+
+        assertEquals("a connected", events.poll(3, TimeUnit.SECONDS));
+        ServerList.Server primaryServer = supervisor.getCurrentServer();
+        assertEquals("b connected", events.poll(3, TimeUnit.SECONDS));
+
+        //主连接断开，热备马上接替，连到另一个服务器
+        long dropAt = System.currentTimeMillis();
+        connection.disconnect();
+        assertSame(standby, activated.poll(2, TimeUnit.SECONDS));
+        long failover = System.currentTimeMillis() - dropAt;
+        assertTrue("failover=" + failover, failover < 200);
+        assertNotSame(primaryServer, supervisor.getCurrentServer());
+        assertEquals(1, supervisor.getFailovers());
+
+        //原来的主连接之后作为热备重新连上
+        String event;
+        while ((event = events.poll(3, TimeUnit.SECONDS)) != null && !"a connected".equals(event)) {
+        }
+        assertEquals("a connected", event);
+        System.out.println("热备切换 " + failover + "ms, 服务器 " + supervisor.dumpServers());
+    }
+
+    //只有一个服务器时不开热备，服务器上只有主连接
+    @Test
+    public void noStandbyWithSingleServer() throws Exception {
+        BlockingQueue<Socket> accepted = standIn();
+        connection = supervised("a");
+        standby = supervised("b");
+        supervisor = new ConnectionSupervisor(connection, standby, null, new Random(5));
+        connection.start();
+        standby.start();
+        supervisor.start(ServerList.parse("127.0.0.1:" + servers.get(0).getLocalPort()));
+
+        assertEquals("a connected", events.poll(3, TimeUnit.SECONDS));
+        assertNotNull(accepted.poll(1, TimeUnit.SECONDS));
+        assertNull(events.poll(500, TimeUnit.MILLISECONDS));
+        assertNull(accepted.poll(0, TimeUnit.MILLISECONDS));
+        assertFalse(standby.isConnected());
+    }
+}
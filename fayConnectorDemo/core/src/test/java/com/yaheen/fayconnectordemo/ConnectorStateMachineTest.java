@@ -0,0 +1,157 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.yaheen.fayconnectordemo.ConnectorStateMachine.Event.*;
+import static com.yaheen.fayconnectordemo.ConnectorStateMachine.State;
+import static org.junit.Assert.*;
+
+public class ConnectorStateMachineTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private ConnectorStateMachine machine;
+
+    private ConnectorStateMachine create(boolean captureWhileDisconnected, long retryDelay) {
+        machine = new ConnectorStateMachine(new ConnectorStateMachine.Listener() {
+            @Override
+            public void startMicrophone() {
+                calls.add("start");
+            }
+
+            @Override
+            public void stopMicrophone() {
+                calls.add("stop");
+            }
+
+            @Override
+            public void onTransition(ConnectorStateMachine.Event event, State from, State to) {
+            }
+        }, captureWhileDisconnected, retryDelay);
+        return machine;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        machine.shutdown();
+    }
+
+    @Test
+    public void micAndConnection() {
+        create(false, 10000);
+        machine.handle(MIC_ON);
+        assertEquals(State.WAITING_CONNECTION, machine.getState());
+        assertEquals("[]", calls.toString());
+        machine.handle(CONNECTED);
+        assertEquals(State.CAPTURING, machine.getState());
+        assertEquals("[start]", calls.toString());
+        machine.handle(DISCONNECTED);
+        assertEquals(State.WAITING_CONNECTION, machine.getState());
+        assertEquals("[start, stop]", calls.toString());
+        machine.handle(CONNECTED);
+        machine.handle(MIC_OFF);
+        assertEquals(State.IDLE, machine.getState());
+        assertEquals("[start, stop, start, stop]", calls.toString());
+    }
+
+    @Test
+    public void captureWhileDisconnectedWithSpool() {
+        create(true, 10000);
+        machine.handle(MIC_ON);
+        assertEquals(State.CAPTURING, machine.getState());
+    }
+
+    @Test
+    public void playbackSuspendsOrMutes() {
+        create(false, 10000);
+        machine.handle(CONNECTED);
+        machine.handle(MIC_ON);
+        machine.handle(PLAYBACK_START);
+        assertEquals(State.SUSPENDED, machine.getState());
+        machine.handle(PLAYBACK_IDLE);
+        assertEquals(State.CAPTURING, machine.getState());
+        assertEquals("[start, stop, start]", calls.toString());
+
+        machine.handle(KEEP_RECORDING_ON);
+        machine.handle(PLAYBACK_START);
+        assertEquals(State.MUTED, machine.getState());
+        machine.handle(PLAYBACK_IDLE);
+        assertEquals("[start, stop, start]", calls.toString());
+    }
+
+    @Test
+    public void idleEventsCounted() {
+        create(false, 10000);
+        machine.handle(MIC_OFF);
+        machine.handle(DISCONNECTED);
+        assertEquals(2, machine.getIdleWakeups());
+        assertEquals(0, machine.getTransitions());
+        assertEquals(State.IDLE, machine.getState());
+    }
+
+    @Test
+    public void transitionLog() {
+        create(false, 10000);
+        machine.handle(MIC_ON);
+        machine.handle(CONNECTED);
+        String log = machine.dumpTransitions();
+        assertTrue(log.contains("MIC_ON IDLE->WAITING_CONNECTION\n"));
+        assertTrue(log.contains("CONNECTED WAITING_CONNECTION->CAPTURING\n"));
+        for (int i = 0; i < 40; i++) {
+            machine.handle(PLAYBACK_START);
+            machine.handle(PLAYBACK_IDLE);
+        }
+        assertEquals(32, machine.dumpTransitions().split("\n").length);
+    }
+
+    @Test
+    public void captureErrorBacksOffAndRetries() throws Exception {
+        create(false, 300);
+        machine.post(CONNECTED);
+        machine.post(MIC_ON);
+        assertEquals(State.CAPTURING, machine.awaitCapture());
+        machine.post(CAPTURE_ERROR);
+        long start = System.currentTimeMillis();
+        Thread.sleep(20);
+        assertEquals(State.BACKOFF, machine.getState());
+        assertEquals(State.CAPTURING, machine.awaitCapture());
+        assertTrue(System.currentTimeMillis() - start >= 250);
+        assertEquals("[start, stop, start]", calls.toString());
+    }
+
+    @Test
+    public void awaitCaptureWakesOnMicOn() throws Exception {
+        create(false, 10000);
+        machine.post(CONNECTED);
+        final State[] result = new State[1];
+        Thread capture = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = machine.awaitCapture();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        capture.start();
+        Thread.sleep(50);
+        assertTrue(capture.isAlive());
+        machine.post(MIC_ON);
+        capture.join(1000);
+        assertEquals(State.CAPTURING, result[0]);
+    }
+
+    @Test
+    public void shutdownStopsMicrophoneAndReleasesCapture() throws Exception {
+        create(false, 10000);
+        machine.post(CONNECTED);
+        machine.post(MIC_ON);
+        machine.post(PLAYBACK_START);
+        machine.shutdown();
+        assertEquals(State.STOPPED, machine.awaitCapture());
+        assertEquals("[start, stop]", calls.toString());
+    }
+}
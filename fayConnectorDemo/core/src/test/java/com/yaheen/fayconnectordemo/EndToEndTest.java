@@ -0,0 +1,146 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class EndToEndTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeFayServer server;
+    private ConnectorHarness connector;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeFayServer();
+        server.setHeartbeatInterval(100);
+        server.start(0);
+        connector = new ConnectorHarness(2048, 42);
+        connector.start("127.0.0.1", server.getPort());
+        assertNotNull(connector.await("connected", 2000));
+        assertTrue(server.awaitClients(1, 2000));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void receivesHeartbeats() throws Exception {
+        assertNotNull(connector.await("heartbeat", 1000));
+        assertNotNull(connector.await("heartbeat", 1000));
+        assertTrue(connector.getSupervisor().getHeartbeatInterval() > 0);
+    }
+
+    @Test
+    public void uplinkReachesServer() throws Exception {
+        byte[] pcm = new byte[32 * 1024];
+        int sent = 0;
+        while (sent < pcm.length) {
+            int n = connector.send(pcm, sent, Math.min(2048, pcm.length - sent));
+            if (n == 0) {
+                Thread.sleep(1);
+            }
+            sent += n;
+        }
+        assertTrue(server.awaitReceived(pcm.length, 2000));
+    }
+
+    @Test
+    public void replyAfterConfiguredDelay() throws Exception {
+        byte[] mp3 = FakeFayServer.mp3Like(10000, 7);
+        server.setReply(mp3);
+        server.setReplyAfterBytes(4096);
+        server.setReplyDelay(150);
+        server.setReplyChunking(1000, 5);
+        connector.clearEvents();
+        long start = System.currentTimeMillis();
+        assertEquals(2048, connector.send(new byte[2048], 0, 2048));
+        assertEquals(2048, connector.send(new byte[2048], 0, 2048));
+        ConnectorHarness.Event first = connector.await("reply-start", 2000);
+        assertNotNull(first);
+        assertTrue(first.time - start >= 150);
+        ConnectorHarness.Event end = connector.await("reply-end", 2000);
+        assertNotNull(end);
+        assertEquals(mp3.length, end.bytes);
+    }
+
+    @Test
+    public void recoversAfterDrop() throws Exception {
+        connector.await("heartbeat", 1000);
+        server.dropAll();
+        assertNotNull(connector.await("disconnected", 2000));
+        assertNotNull(connector.await("connected", 3000));
+        assertEquals(2, server.getAccepted());
+        assertEquals(1, connector.getSupervisor().getReconnects());
+        //seed 固定，第一次退避在 [250, 500] 之间
+        long downtime = connector.getSupervisor().getLastDowntime();
+        assertTrue(downtime >= 250 && downtime < 2000);
+    }
+
+    @Test
+    public void recoversAfterServerRestart() throws Exception {
+        server.stop();
+        assertNotNull(connector.await("disconnected", 2000));
+        Thread.sleep(300);
+        server.start();
+        assertNotNull(connector.await("connected", 5000));
+        assertTrue(connector.getSupervisor().getLastDowntime() >= 300);
+    }
+
+    //说完一句到播放器拿到开头数据的时间，取几次的中位数
+    private long timeToFirstAudio(boolean progressive) throws Exception {
+        ConnectorHarness client = new ConnectorHarness(2048, 42);
+        client.setPlayback(folder.newFolder(), progressive);
+        long[] times = new long[5];
+        try {
+            client.start("127.0.0.1", server.getPort());
+            assertNotNull(client.await("connected", 2000));
+            for (int i = 0; i < times.length; i++) {
+                long start = System.currentTimeMillis();
+                assertEquals(2048, client.send(new byte[2048], 0, 2048));
+                ConnectorHarness.Event first = client.await("first-audio", 5000);
+                assertNotNull(first);
+                times[i] = first.time - start;
+                //先写文件时收完才播，边收边播要等这条收完再发下一句
+                if (progressive) {
+                    assertNotNull(client.await("reply-end", 5000));
+                }
+            }
+        } finally {
+            client.stop();
+        }
+        Arrays.sort(times);
+        return times[times.length / 2];
+    }
+
+    //回复按 4KB/10ms 到达：先写文件再播的首音时间随回复长度增长，边收边播收到 16KB 就开始
+    @Test
+    public void progressivePlaybackCutsTimeToFirstAudio() throws Exception {
+        server.setReplyAfterBytes(2048);
+        server.setReplyChunking(4096, 10);
+        StringBuilder report = new StringBuilder("首音时间(中位数):");
+        for (int kb : new int[]{32, 128, 512}) {
+            server.setReply(FakeFayServer.mp3Like(kb * 1024, kb));
+            long file = timeToFirstAudio(false);
+            long progressive = timeToFirstAudio(true);
+            report.append(' ').append(kb).append("KB 先写文件").append(file).append("ms/边收边播").append(progressive).append("ms");
+            //收完 kb/4 块至少要 (kb/4 - 1) * 10ms
+            assertTrue(report.toString(), file >= (kb / 4 - 1) * 10);
+            if (kb > 32) {
+                assertTrue(report.toString(), progressive * 2 < file);
+            }
+        }
+        System.out.println(report);
+    }
+}
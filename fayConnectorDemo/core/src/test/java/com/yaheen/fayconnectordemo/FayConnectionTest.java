@@ -0,0 +1,170 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class FayConnectionTest {
+
+    private ServerSocket server;
+    private Thread serverThread;
+
+    //回环服务器：收到什么就回什么
+    @Before
+    public void startEchoServer() throws IOException {
+        server = new ServerSocket(0);
+        serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!server.isClosed()) {
+                        Socket s = server.accept();
+                        InputStream in = s.getInputStream();
+                        OutputStream out = s.getOutputStream();
+                        byte[] buf = new byte[8192];
+                        int n;
+                        while ((n = in.read(buf)) != -1) {
+                            out.write(buf, 0, n);
+                        }
+                        s.close();
+                    }
+                } catch (IOException e) {
+                }
+            }
+        });
+        serverThread.start();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.close();
+        serverThread.join(1000);
+    }
+
+    private static class Recorder implements FayConnection.Listener {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final AtomicLong received = new AtomicLong();
+        volatile long expected = Long.MAX_VALUE;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile long drains = 0;
+
+        @Override
+        public void onConnected() {
+            connected.countDown();
+        }
+
+        @Override
+        public void onReceive(byte[] buf, int off, int len) {
+            if (received.addAndGet(len) >= expected) {
+                done.countDown();
+            }
+        }
+
+        @Override
+        public void onUplinkDrained() {
+            drains++;
+        }
+
+        @Override
+        public void onDisconnected(IOException cause) {
+            disconnected.countDown();
+        }
+    }
+
+    @Test
+    public void echoThroughputAndWakeups() throws Exception {
+        Recorder recorder = new Recorder();
+        FayConnection connection = new FayConnection(recorder, 64 * 1024);
+        connection.start();
+        connection.connect("127.0.0.1", server.getLocalPort());
+        assertTrue(recorder.connected.await(2, TimeUnit.SECONDS));
+
+        //约 16 秒的 16k/16bit 音频，按 1024 字节一帧发送
+        long total = 512 * 1024;
+        recorder.expected = total;
+        byte[] frame = new byte[1024];
+        long start = System.nanoTime();
+        long sent = 0;
+        while (sent < total) {
+            int n = connection.send(frame, 0, frame.length);
+            if (n < frame.length) {
+                Thread.sleep(1);
+            }
+            sent += n;
+        }
+        assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(total, connection.getBytesWritten());
+        assertEquals(total, connection.getBytesRead());
+        assertTrue(recorder.drains > 0);
+        System.out.println(String.format("回环吞吐 %.1fMB/s, 唤醒 %d 次, 丢弃 %d 字节",
+                total / 1048576.0 / (elapsed / 1e9), connection.getWakeups(), connection.getUplinkDropped()));
+
+        //空闲时不应该有唤醒
+        long idle = connection.getWakeups();
+        Thread.sleep(300);
+        assertEquals(idle, connection.getWakeups());
+
+        connection.shutdown();
+        connection.join(1000);
+        assertTrue(recorder.disconnected.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void roundTripLatency() throws Exception {
+        Recorder recorder = new Recorder();
+        FayConnection connection = new FayConnection(recorder, 4096);
+        connection.start();
+        connection.connect("127.0.0.1", server.getLocalPort());
+        assertTrue(recorder.connected.await(2, TimeUnit.SECONDS));
+
+        byte[] ping = new byte[32];
+        long worst = 0;
+        long sum = 0;
+        int rounds = 200;
+        for (int i = 0; i < rounds; i++) {
+            long before = recorder.received.get();
+            long start = System.nanoTime();
+            connection.send(ping, 0, ping.length);
+            while (recorder.received.get() < before + ping.length) {
+                Thread.yield();
+            }
+            long rtt = System.nanoTime() - start;
+            sum += rtt;
+            worst = Math.max(worst, rtt);
+        }
+        System.out.println(String.format("回环往返 平均 %dus, 最大 %dus", sum / rounds / 1000, worst / 1000));
+        connection.shutdown();
+        connection.join(1000);
+    }
+
+    @Test
+    public void reportsConnectFailure() throws Exception {
+        Recorder recorder = new Recorder();
+        FayConnection connection = new FayConnection(recorder, 4096);
+        connection.start();
+        int port = server.getLocalPort();
+        server.close();
+        //等回环服务器线程退出，否则正在进行的 accept 可能接受这次连接
+        serverThread.join(1000);
+        connection.connect("127.0.0.1", port);
+        assertTrue(recorder.disconnected.await(6, TimeUnit.SECONDS));
+        assertFalse(connection.isConnected());
+        assertEquals(0, connection.send(new byte[4], 0, 4));
+        connection.shutdown();
+        connection.join(1000);
+    }
+}
@@ -0,0 +1,103 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FayMetricsTest {
+
+    @Test
+    public void countsExactBytes() {
+        FayMetrics metrics = new FayMetrics();
+        AudioRingBuffer ring = new AudioRingBuffer(1024, AudioRingBuffer.OverflowPolicy.DROP_OLDEST);
+        metrics.setCaptureBuffer(ring);
+        byte[] frame = new byte[700];
+        for (int i = 0; i < 3; i++) {
+            metrics.onCapture(frame.length);
+            ring.write(frame, 0, frame.length);
+        }
+        metrics.onCaptureError();
+        metrics.onCaptureMuted();
+        metrics.onUplink(1000, 600);
+        metrics.onDownlink(1500);
+        metrics.onReplyComplete(1482);
+
+        FayMetrics.Snapshot s = metrics.snapshot();
+        assertEquals(2100, s.captureBytes);
+        assertEquals(3, s.captureFrames);
+        assertEquals(1 + ring.getOverruns(), s.captureOverruns);
+        assertEquals(ring.getDroppedBytes(), s.captureDropped);
+        assertEquals(1, s.captureMuted);
+        assertEquals(600, s.uplinkBytes);
+        assertEquals(400, s.uplinkDropped);
+        assertEquals(1500, s.downlinkBytes);
+        assertEquals(1, s.replies);
+        assertEquals(1482, s.replyBytes);
+    }
+
+    @Test
+    public void recordsLatencies() {
+        FayMetrics metrics = new FayMetrics();
+        metrics.onReplyStart(1000);//没有说话结束时间，不记录
+        assertEquals(0, metrics.speechToReply.getCount());
+
+        metrics.onSpeechEnd(10000);
+        metrics.onReplyStart(10750);
+        metrics.onReplyStart(20000);//同一句话只记录一次
+        assertEquals(1, metrics.speechToReply.getCount());
+        assertEquals(750, metrics.speechToReply.getMax());
+
+        metrics.onPlaybackStart(10750, 11500, 11620);
+        metrics.onPlaybackStart(30000, 0, 30900);
+        assertEquals(2, metrics.firstAudio.getCount());
+        assertEquals(900, metrics.firstAudio.getMax());
+        assertEquals(1, metrics.receiveToPlay.getCount());
+        assertEquals(120, metrics.receiveToPlay.getMax());
+    }
+
+    @Test
+    public void heartbeatDelayRelativeToAverageInterval() {
+        FayMetrics metrics = new FayMetrics();
+        metrics.onConnected();
+        long t = 0;
+        for (int i = 0; i < 10; i++) {
+            t += 5000;
+            metrics.onHeartbeat(t);
+        }
+        t += 5300;
+        metrics.onHeartbeat(t);
+        assertEquals(300, metrics.heartbeatDelay.getMax());
+        assertEquals(9, metrics.heartbeatDelay.getCount());
+
+        //重连后第一个心跳不算间隔
+        metrics.onConnected();
+        metrics.onHeartbeat(t + 60000);
+        assertEquals(9, metrics.heartbeatDelay.getCount());
+        assertTrue(metrics.dump().contains("hb=12"));
+    }
+
+    @Test
+    public void reportsJitterBuffer() {
+        FayMetrics metrics = new FayMetrics();
+        assertFalse(metrics.dump().contains("jitter="));
+        JitterBuffer buffer = new JitterBuffer(32, 1000, 60, 500);
+        metrics.setJitterBuffer(buffer);
+        buffer.start(0);
+        buffer.write(new byte[640], 0, 640, 0);
+        FayMetrics.Snapshot s = metrics.snapshot();
+        assertEquals(20, s.jitterDepthMs);
+        assertEquals(60, s.jitterTargetMs);
+        assertTrue(metrics.dump().contains("jitter=20/60ms/0ur/"));
+    }
+
+    @Test
+    public void countsUplinkBatches() {
+        FayMetrics metrics = new FayMetrics();
+        metrics.setTransportProfile(TransportProfile.LOW_LATENCY.key);
+        metrics.onUplinkBatch(20);
+        metrics.onUplinkBatch(40);
+        assertEquals(2, metrics.snapshot().uplinkBatches);
+        assertEquals(40, metrics.uplinkLatency.getMax());
+        assertTrue(metrics.dump().startsWith("profile=low_latency,"));
+    }
+}
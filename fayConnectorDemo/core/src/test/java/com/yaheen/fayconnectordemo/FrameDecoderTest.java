@@ -0,0 +1,195 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+
+    private static class RecordingSink implements FrameDecoder.Sink {
+        final List<byte[]> frames = new ArrayList<>();
+        ByteArrayOutputStream current = null;
+        int heartbeats = 0;
+        int codecAck = -1;
+        int protocolAck = -1;
+
+        @Override
+        public void onHeartbeat() {
+            heartbeats++;
+        }
+
+        @Override
+        public void onCodecAck(int codec) {
+            codecAck = codec;
+        }
+
+        @Override
+        public void onProtocolAck(int version) {
+            protocolAck = version;
+        }
+
+        @Override
+        public void onFrameStart() {
+            assertNull(current);
+            current = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void onPayload(byte[] buf, int off, int len) {
+            assertNotNull(current);
+            assertTrue(len > 0);
+            current.write(buf, off, len);
+        }
+
+        @Override
+        public void onFrameEnd() {
+            frames.add(current.toByteArray());
+            current = null;
+        }
+    }
+
+    private static void feedChunked(FrameDecoder decoder, byte[] stream, Random random, int maxChunk) {
+        int off = 0;
+        while (off < stream.length) {
+            int len = Math.min(stream.length - off, 1 + random.nextInt(maxChunk));
+            //每次放在不同的偏移，确认解码器没有假设 off == 0
+            byte[] chunk = new byte[len + 3];
+            System.arraycopy(stream, off, chunk, 3, len);
+            decoder.feed(chunk, 3, len);
+            off += len;
+        }
+    }
+
+    //随机内容里包含大量标记前缀，但不包含完整的结束/心跳标记
+    private static byte[] randomPayload(Random random, int size) {
+        byte[] payload = new byte[size];
+        for (int i = 0; i < size; i++) {
+            int r = random.nextInt(10);
+            if (r == 0 && i > 0 && payload[i - 1] >= 0x01 && payload[i - 1] <= 0x08) {
+                payload[i] = (byte) (payload[i - 1] - 1);
+            } else if (r == 1) {
+                payload[i] = 0x08;
+            } else if (r == 2) {
+                payload[i] = (byte) 0xf0;
+            } else if (r == 3 && i > 0 && (payload[i - 1] & 0xff) >= 0xf0 && (payload[i - 1] & 0xff) < 0xf8) {
+                payload[i] = (byte) (payload[i - 1] + 1);
+            } else {
+                payload[i] = (byte) random.nextInt(256);
+            }
+            if (endsWith(payload, i + 1, FrameDecoder.END_MARKER) || endsWith(payload, i + 1, FrameDecoder.HEARTBEAT_MARKER)) {
+                payload[i] = 0x55;
+            }
+        }
+        return payload;
+    }
+
+    private static boolean endsWith(byte[] data, int len, byte[] marker) {
+        if (len < marker.length) {
+            return false;
+        }
+        for (int i = 0; i < marker.length; i++) {
+            if (data[len - marker.length + i] != marker[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void decodesFramesAcrossRandomChunkings() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<byte[]> expected = new ArrayList<>();
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            int heartbeats = 0;
+            for (int f = 0; f < 3; f++) {
+                stream.write(FrameDecoder.HEARTBEAT_MARKER, 0, 9);
+                heartbeats++;
+                byte[] payload = randomPayload(random, random.nextInt(4096));
+                expected.add(payload);
+                stream.write(FrameDecoder.START_MARKER, 0, 9);
+                //音频中间插入心跳，应被剔除
+                int split = payload.length / 2;
+                stream.write(payload, 0, split);
+                stream.write(FrameDecoder.HEARTBEAT_MARKER, 0, 9);
+                heartbeats++;
+                stream.write(payload, split, payload.length - split);
+                stream.write(FrameDecoder.END_MARKER, 0, 9);
+            }
+
+            RecordingSink sink = new RecordingSink();
+            FrameDecoder decoder = new FrameDecoder(sink);
+            feedChunked(decoder, stream.toByteArray(), random, round % 2 == 0 ? 16 : 2048);
+
+            assertEquals(heartbeats, sink.heartbeats);
+            assertEquals(expected.size(), sink.frames.size());
+            for (int f = 0; f < expected.size(); f++) {
+                assertArrayEquals(expected.get(f), sink.frames.get(f));
+            }
+            assertFalse(decoder.isInFrame());
+        }
+    }
+
+    @Test
+    public void markerPrefixBeforeEndMarkerIsPayload() {
+        byte[] stream = new byte[9 + 3 + 9];
+        System.arraycopy(FrameDecoder.START_MARKER, 0, stream, 0, 9);
+        stream[9] = 0x08;
+        stream[10] = 0x07;
+        stream[11] = 0x06;
+        System.arraycopy(FrameDecoder.END_MARKER, 0, stream, 12, 9);
+
+        RecordingSink sink = new RecordingSink();
+        FrameDecoder decoder = new FrameDecoder(sink);
+        for (int i = 0; i < stream.length; i++) {
+            decoder.feed(stream, i, 1);
+        }
+        assertEquals(1, sink.frames.size());
+        assertArrayEquals(new byte[]{0x08, 0x07, 0x06}, sink.frames.get(0));
+    }
+
+    @Test
+    public void ignoresNoiseOutsideFrames() {
+        byte[] stream = new byte[]{0x00, 0x01, 0x02, 0x33, (byte) 0xf0, (byte) 0xf1, 0x44};
+        RecordingSink sink = new RecordingSink();
+        FrameDecoder decoder = new FrameDecoder(sink);
+        decoder.feed(stream, 0, stream.length);
+        assertEquals(0, sink.heartbeats);
+        assertTrue(sink.frames.isEmpty());
+        assertFalse(decoder.isInFrame());
+    }
+
+    @Test
+    public void decodesCodecAckSplitAcrossReads() {
+        byte[] ack = FrameDecoder.codecAnnounce(AudioCodec.IMA_ADPCM);
+        byte[] stream = new byte[ack.length + 9];
+        System.arraycopy(ack, 0, stream, 0, ack.length);
+        System.arraycopy(FrameDecoder.HEARTBEAT_MARKER, 0, stream, ack.length, 9);
+
+        RecordingSink sink = new RecordingSink();
+        FrameDecoder decoder = new FrameDecoder(sink);
+        decoder.feed(stream, 0, 9);
+        assertEquals(-1, sink.codecAck);
+        decoder.feed(stream, 9, stream.length - 9);
+        assertEquals(AudioCodec.IMA_ADPCM, sink.codecAck);
+        assertEquals(1, sink.heartbeats);
+    }
+
+    @Test
+    public void stopsAfterProtocolAck() {
+        byte[] ack = ProtocolV2.protocolAnnounce(ProtocolV2.VERSION);
+        byte[] stream = new byte[ack.length + 4];
+        System.arraycopy(ack, 0, stream, 0, ack.length);
+
+        RecordingSink sink = new RecordingSink();
+        FrameDecoder decoder = new FrameDecoder(sink);
+        assertEquals(5, decoder.feed(stream, 0, 5));
+        assertEquals(ack.length - 5, decoder.feed(stream, 5, stream.length - 5));
+        assertEquals(ProtocolV2.VERSION, sink.protocolAck);
+    }
+}
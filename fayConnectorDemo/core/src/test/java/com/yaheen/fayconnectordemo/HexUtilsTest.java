@@ -0,0 +1,34 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HexUtilsTest {
+
+    @Test
+    public void matchesLegacyFormat() {
+        assertEquals("00010AFF7F80", HexUtils.toHex(new byte[]{0, 1, 10, -1, 127, -128}, 0, 6));
+        assertEquals("0AFF", HexUtils.toHex(new byte[]{9, 10, -1, 3}, 1, 2));
+    }
+
+    @Test
+    public void roundTrip() {
+        byte[] data = new byte[4096];
+        new Random(1).nextBytes(data);
+        assertArrayEquals(data, HexUtils.fromHex(HexUtils.toHex(data, 0, data.length).toCharArray()));
+        assertArrayEquals(new byte[]{(byte) 0xab}, HexUtils.fromHex("aB".toCharArray()));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsOddLength() {
+        HexUtils.fromHex("ABC".toCharArray());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsNonHex() {
+        HexUtils.fromHex("ZZ".toCharArray());
+    }
+}
@@ -0,0 +1,258 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class JitterBufferTest {
+
+    private static final int BYTES_PER_MS = 32;
+    private static final int CHUNK_MS = 20;
+    private static final int CHUNK = CHUNK_MS * BYTES_PER_MS;
+
+    //一条回复的合成到达时间：第 i 块本该在 i * CHUNK_MS 到达，大约每 10 块卡顿一次(最多 maxStall)，
+    //卡住的块和后面积压的块一起到达，到达顺序不变
+    private static long[] arrivals(int chunks, long maxStall, long seed) {
+        Random random = new Random(seed);
+        long[] t = new long[chunks];
+        for (int i = 0; i < chunks; i++) {
+            long stall = maxStall > 0 && random.nextInt(10) == 0 ? maxStall / 3 + random.nextInt((int) maxStall * 2 / 3) : 0;
+            t[i] = Math.max(i == 0 ? 0 : t[i - 1], i * CHUNK_MS + stall);
+        }
+        return t;
+    }
+
+    private static class Result {
+        long firstPlay = -1;
+        long underruns;
+        long played;
+    }
+
+    //按毫秒推进：到时间的块写入，播放端和 AudioTrack 一样每 CHUNK_MS 取一块
+    private static Result simulate(JitterBuffer buffer, long[] arrivals, long start) {
+        Result r = new Result();
+        byte[] chunk = new byte[CHUNK];
+        byte[] out = new byte[CHUNK];
+        buffer.start(start + arrivals[0]);
+        int next = 0;
+        long nextRead = -1;
+        long end = start + arrivals[arrivals.length - 1] + 10000;
+        for (long t = start; t < end; t++) {
+            while (next < arrivals.length && start + arrivals[next] <= t) {
+                buffer.write(chunk, 0, CHUNK, t);
+                next++;
+                if (next == arrivals.length) {
+                    buffer.end(t);
+                }
+            }
+            if (buffer.getState() == JitterBuffer.State.PLAYING && nextRead < 0) {
+                nextRead = t;
+                if (r.firstPlay < 0) {
+                    r.firstPlay = t - start;
+                }
+            }
+            if (nextRead >= 0 && t >= nextRead) {
+                r.played += buffer.read(out, 0, CHUNK, t);
+                nextRead = buffer.getState() == JitterBuffer.State.PLAYING ? t + CHUNK_MS : -1;
+            }
+            if (next == arrivals.length && buffer.getState() == JitterBuffer.State.IDLE) {
+                break;
+            }
+        }
+        r.underruns = buffer.getUnderruns();
+        return r;
+    }
+
+    @Test
+    public void steadyArrivalsPlayAtMinimumTarget() {
+        JitterBuffer buffer = new JitterBuffer(BYTES_PER_MS, 10000, 40, 500);
+        Result r = simulate(buffer, arrivals(250, 0, 1), 0);
+        assertEquals(0, r.underruns);
+        assertEquals(250 * CHUNK, r.played);
+        assertEquals(40, buffer.getTargetMs());
+        //缓冲到 40ms 就开始播放
+        assertEquals(CHUNK_MS, r.firstPlay);
+        assertEquals(JitterBuffer.State.IDLE, buffer.getState());
+    }
+
+    //同样的卡顿序列连着放几条回复：固定 40ms 每条都欠载，自适应的学到抖动后欠载减少
+    @Test
+    public void adaptsToJitter() {
+        JitterBuffer fixed = new JitterBuffer(BYTES_PER_MS, 10000, 40, 40);
+        JitterBuffer adaptive = new JitterBuffer(BYTES_PER_MS, 10000, 40, 500);
+        long fixedLater = 0;
+        long adaptiveLater = 0;
+        for (int reply = 0; reply < 6; reply++) {
+            long[] trace = arrivals(250, 150, 7 + reply);
+            long fixedBefore = fixed.getUnderruns();
+            long adaptiveBefore = adaptive.getUnderruns();
+            simulate(fixed, trace, reply * 100000L);
+            simulate(adaptive, trace, reply * 100000L);
+            if (reply > 0) {
+                fixedLater += fixed.getUnderruns() - fixedBefore;
+                adaptiveLater += adaptive.getUnderruns() - adaptiveBefore;
+            }
+        }
+        assertEquals(40, fixed.getTargetMs());
+        assertTrue("target " + adaptive.getTargetMs(), adaptive.getTargetMs() > 40);
+        assertTrue(adaptive.getJitterMs() > 2);
+        assertTrue("underruns " + adaptiveLater + " vs " + fixedLater, adaptiveLater * 2 < fixedLater);
+        System.out.println("抖动缓冲: 抖动" + String.format("%.1f", adaptive.getJitterMs()) + "ms,目标"
+                + adaptive.getTargetMs() + "ms,后5条欠载" + adaptiveLater + "次(固定40ms:" + fixedLater + "次)");
+    }
+
+    @Test
+    public void underrunRebuffersAndRaisesTarget() {
+        JitterBuffer buffer = new JitterBuffer(BYTES_PER_MS, 10000, 40, 500);
+        byte[] chunk = new byte[CHUNK];
+        byte[] out = new byte[CHUNK];
+        buffer.start(0);
+        buffer.write(chunk, 0, CHUNK, 0);
+        buffer.write(chunk, 0, CHUNK, 0);
+        assertEquals(JitterBuffer.State.PLAYING, buffer.getState());
+        assertEquals(CHUNK, buffer.read(out, 0, CHUNK, 0));
+        assertEquals(CHUNK, buffer.read(out, 0, CHUNK, 20));
+        assertEquals(0, buffer.read(out, 0, CHUNK, 40));
+        assertEquals(1, buffer.getUnderruns());
+        assertEquals(JitterBuffer.State.BUFFERING, buffer.getState());
+        assertEquals(60, buffer.getTargetMs());
+        assertEquals(0, buffer.read(out, 0, CHUNK, 60));
+        assertEquals(1, buffer.getUnderruns());
+        //播完后补偿减半
+        buffer.end(100);
+        assertEquals(JitterBuffer.State.IDLE, buffer.getState());
+    }
+
+    @Test
+    public void shortReplyPlaysOnEnd() {
+        JitterBuffer buffer = new JitterBuffer(BYTES_PER_MS, 10000, 100, 500);
+        byte[] out = new byte[CHUNK];
+        buffer.start(0);
+        buffer.write(new byte[CHUNK], 0, CHUNK, 0);
+        assertEquals(JitterBuffer.State.BUFFERING, buffer.getState());
+        buffer.end(5);
+        assertEquals(JitterBuffer.State.PLAYING, buffer.getState());
+        assertEquals(CHUNK, buffer.read(out, 0, CHUNK, 5));
+        assertEquals(JitterBuffer.State.IDLE, buffer.getState());
+        assertEquals(0, buffer.getUnderruns());
+    }
+
+    //服务器比实时快、成批发来：不算抖动，超出容量的丢弃
+    @Test
+    public void burstAndOverflow() {
+        JitterBuffer buffer = new JitterBuffer(BYTES_PER_MS, 200, 40, 500);
+        buffer.start(0);
+        for (int i = 0; i < 15; i++) {
+            buffer.write(new byte[CHUNK], 0, CHUNK, 0);
+        }
+        assertEquals(0, buffer.getJitterMs(), 0.001);
+        assertEquals(200, buffer.getDepthMs());
+        assertEquals(5 * CHUNK, buffer.getOverflowBytes());
+        assertEquals(200, buffer.getMaxDepthMs());
+    }
+
+    @Test
+    public void backToBackRepliesAppend() {
+        JitterBuffer buffer = new JitterBuffer(BYTES_PER_MS, 10000, 40, 500);
+        byte[] a = new byte[CHUNK];
+        byte[] b = new byte[CHUNK];
+        b[0] = 1;
+        byte[] out = new byte[CHUNK];
+        buffer.start(0);
+        buffer.write(a, 0, CHUNK, 0);
+        buffer.write(a, 0, CHUNK, 0);
+        buffer.end(0);
+        buffer.start(1);
+        buffer.write(b, 0, CHUNK, 1);
+        buffer.read(out, 0, CHUNK, 1);
+        buffer.read(out, 0, CHUNK, 21);
+        assertEquals(JitterBuffer.State.PLAYING, buffer.getState());
+        buffer.end(30);
+        assertEquals(CHUNK, buffer.read(out, 0, CHUNK, 41));
+        assertEquals(1, out[0]);
+        assertEquals(JitterBuffer.State.IDLE, buffer.getState());
+    }
+
+    //TCP 按任意长度切分，写入是奇数字节；卡顿造成欠载时读出的仍是整采样，拼起来和原始数据一致
+    @Test
+    public void oddChunksReadWholeSamples() {
+        JitterBuffer buffer = new JitterBuffer(BYTES_PER_MS, 10000, 40, 500);
+        Random random = new Random(5);
+        byte[] reply = new byte[250 * CHUNK + 1];//结尾多出半个采样
+        random.nextBytes(reply);
+        byte[] played = new byte[reply.length];
+        int playedLen = 0;
+        byte[] out = new byte[CHUNK];
+        buffer.start(0);
+        int written = 0;
+        long nextRead = -1;
+        for (long t = 0; t < 60000 && buffer.getState() != JitterBuffer.State.IDLE; t++) {
+            //平均每 20ms 到一段，每 50 段卡 200ms
+            if (written < reply.length && (t / 20) % 50 != 49 && t % 20 == 0) {
+                int n = Math.min(reply.length - written, 2 * (20 + random.nextInt(600)) + 1);
+                buffer.write(reply, written, n, t);
+                written += n;
+                if (written == reply.length) {
+                    buffer.end(t);
+                }
+            }
+            if (buffer.getState() == JitterBuffer.State.PLAYING && nextRead < 0) {
+                nextRead = t;
+            }
+            if (nextRead >= 0 && t >= nextRead) {
+                int n = buffer.read(out, 0, CHUNK, t);
+                assertEquals("读出 " + n + " 字节", 0, n % 2);
+                System.arraycopy(out, 0, played, playedLen, n);
+                playedLen += n;
+                nextRead = buffer.getState() == JitterBuffer.State.PLAYING ? t + CHUNK_MS : -1;
+            }
+        }
+        assertEquals(JitterBuffer.State.IDLE, buffer.getState());
+        assertTrue(buffer.getUnderruns() > 0);
+        assertEquals(reply.length - 1, playedLen);
+        for (int i = 0; i < playedLen; i++) {
+            assertEquals("第 " + i + " 字节", reply[i], played[i]);
+        }
+    }
+
+    //欠载时只剩半个采样：不交出去，等后面的字节补齐
+    @Test
+    public void halfSampleWaitsForRest() {
+        JitterBuffer buffer = new JitterBuffer(BYTES_PER_MS, 10000, 20, 500);
+        byte[] out = new byte[CHUNK];
+        buffer.start(0);
+        buffer.write(new byte[CHUNK + 1], 0, CHUNK + 1, 0);
+        assertEquals(CHUNK, buffer.read(out, 0, CHUNK, 0));
+        assertEquals(0, buffer.read(out, 0, CHUNK, 20));
+        assertEquals(JitterBuffer.State.BUFFERING, buffer.getState());
+        assertEquals(1, buffer.getUnderruns());
+        //len 本身是奇数时差 1 字节不算欠载
+        byte[] rest = new byte[2 * CHUNK - 1];
+        buffer.write(rest, 0, rest.length, 40);
+        assertEquals(CHUNK, buffer.read(out, 0, CHUNK + 1, 40));
+        assertEquals(JitterBuffer.State.PLAYING, buffer.getState());
+        assertEquals(1, buffer.getUnderruns());
+    }
+
+    @Test
+    public void awaitPlayingWakesOnWrite() throws Exception {
+        final JitterBuffer buffer = new JitterBuffer(BYTES_PER_MS, 10000, 20, 500);
+        buffer.start(0);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                }
+                buffer.write(new byte[CHUNK], 0, CHUNK, 50);
+            }
+        }).start();
+        assertTrue(buffer.awaitPlaying(2000));
+        buffer.close();
+        buffer.clear();
+        assertFalse(buffer.awaitPlaying(10));
+    }
+}
@@ -0,0 +1,63 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KVStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsLegacyFileAndPersistsChanges() throws Exception {
+        File file = new File(folder.getRoot(), "kv_data.txt");
+        FileWriter w = new FileWriter(file);
+        w.write("ServerAddress=192.168.1.101:10001\nIsMic=true\nbroken line\n");
+        w.close();
+
+        KVStore store = new KVStore(file);
+        assertEquals("192.168.1.101:10001", store.get("ServerAddress"));
+        assertEquals("true", store.get("IsMic"));
+        assertNull(store.get("missing"));
+
+        store.put("IsMic", "false");
+        store.put("Vad", "a=b");
+        assertEquals("false", store.get("IsMic"));
+        store.flush();
+
+        KVStore reopened = new KVStore(file);
+        assertEquals("false", reopened.get("IsMic"));
+        assertEquals("a=b", reopened.get("Vad"));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void coalescesWritesAndNotifiesListeners() throws Exception {
+        KVStore store = new KVStore(new File(folder.getRoot(), "kv_data.txt"));
+        final List<String> changes = new ArrayList<>();
+        store.addListener(new KVStore.Listener() {
+            @Override
+            public void onChanged(String key, String value) {
+                changes.add(key + "=" + value);
+            }
+        });
+        for (int i = 0; i < 1000; i++) {
+            store.put("IsMic", (i % 2 == 0) + "");
+        }
+        store.put("IsMic", "false");//没有变化，不通知
+        store.flush();
+
+        assertEquals(1000, changes.size());
+        assertEquals("IsMic=false", changes.get(999));
+        assertTrue("flushes=" + store.getFlushes(), store.getFlushes() < 1000);
+        assertEquals("false", new KVStore(new File(folder.getRoot(), "kv_data.txt")).get("IsMic"));
+    }
+}
@@ -0,0 +1,56 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueInOrder() {
+        int prev = -1;
+        for (long v = 0; v < 100000; v++) {
+            int index = LatencyHistogram.indexOf(v);
+            assertTrue(index >= prev);
+            assertTrue(LatencyHistogram.lowerBound(index) <= v);
+            assertTrue(LatencyHistogram.lowerBound(index + 1) > v);
+            prev = index;
+        }
+    }
+
+    @Test
+    public void percentilesWithinBucketError() {
+        Random random = new Random(3);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) (Math.exp(random.nextGaussian() + 5));//大约几十到几千毫秒
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double p : new double[]{50, 90, 99}) {
+            long exact = values[(int) Math.ceil(values.length * p / 100) - 1];
+            long estimate = histogram.percentile(p);
+            assertTrue(p + ":" + exact + "/" + estimate, estimate >= exact);
+            assertTrue(p + ":" + exact + "/" + estimate, estimate <= exact * 1.125 + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values.length, histogram.getCount());
+    }
+
+    @Test
+    public void emptyAndClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(50));
+        assertEquals("n=0", histogram.toString());
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(histogram.getMax(), histogram.percentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+}
@@ -0,0 +1,175 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PlaybackQueueTest {
+
+    //假播放器：准备、播完都由测试手动触发，串接的下一段在播完时自动开始
+    private class FakePlayer implements PlaybackQueue.Player {
+        final int id;
+        PlaybackQueue.Callback callback;
+        Object source = null;
+        FakePlayer next = null;
+        boolean released = false;
+
+        FakePlayer(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void setCallback(PlaybackQueue.Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void prepare(Object source) {
+            assertNull(this.source);
+            this.source = source;
+            preparing.add(this);
+        }
+
+        @Override
+        public void start() {
+            events.add("start:" + source);
+            callback.onStarted(this);
+        }
+
+        @Override
+        public void setNext(PlaybackQueue.Player next) {
+            this.next = (FakePlayer) next;
+        }
+
+        @Override
+        public void reset() {
+            source = null;
+            next = null;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+
+        void finish() {
+            FakePlayer n = next;
+            if (n != null) {
+                events.add("start:" + n.source);
+                n.callback.onStarted(n);
+            }
+            callback.onCompletion(this);
+        }
+    }
+
+    private final List<String> events = new ArrayList<>();
+    private final List<FakePlayer> preparing = new ArrayList<>();
+    private final List<Long> gaps = new ArrayList<>();
+    private PlaybackQueue queue;
+
+    @Before
+    public void setUp() {
+        queue = new PlaybackQueue(new PlaybackQueue.Factory() {
+            int ids = 0;
+
+            @Override
+            public PlaybackQueue.Player create() {
+                return new FakePlayer(ids++);
+            }
+        }, new PlaybackQueue.Listener() {
+            @Override
+            public void onActive() {
+                events.add("active");
+            }
+
+            @Override
+            public void onItemStarted(PlaybackQueue.Item item, long gap) {
+                gaps.add(gap);
+            }
+
+            @Override
+            public void onIdle() {
+                events.add("idle");
+            }
+        });
+    }
+
+    private FakePlayer prepareNext() {
+        FakePlayer p = preparing.remove(0);
+        p.callback.onPrepared(p);
+        return p;
+    }
+
+    @Test
+    public void chainsQueuedRepliesWithoutGaps() {
+        queue.enqueue(new PlaybackQueue.Item("a", 0, 0));
+        queue.enqueue(new PlaybackQueue.Item("b", 0, 0));
+        queue.enqueue(new PlaybackQueue.Item("c", 0, 0));
+        //同一时间只准备一个
+        assertEquals(1, preparing.size());
+        FakePlayer a = prepareNext();
+        FakePlayer b = prepareNext();
+        assertSame(b, a.next);
+        assertTrue(preparing.isEmpty());//串接了一个就不再准备
+
+        a.finish();
+        FakePlayer c = prepareNext();
+        assertSame(a, c);//复用播完的播放器
+        assertSame(c, b.next);
+        b.finish();
+        c.finish();
+
+        assertEquals("[active, start:a, start:b, start:c, idle]", events.toString());
+        assertEquals(-1, (long) gaps.get(0));
+        assertTrue(gaps.get(1) >= 0 && gaps.get(1) < 50);
+        assertTrue(gaps.get(2) >= 0 && gaps.get(2) < 50);
+        assertEquals(2, queue.getCreatedPlayers());
+        assertFalse(queue.isActive());
+    }
+
+    @Test
+    public void replyArrivingAfterIdleStartsNewSession() {
+        queue.enqueue(new PlaybackQueue.Item("a", 0, 0));
+        prepareNext().finish();
+        queue.enqueue(new PlaybackQueue.Item("b", 0, 0));
+        prepareNext().finish();
+        assertEquals("[active, start:a, idle, active, start:b, idle]", events.toString());
+        assertEquals("[-1, -1]", gaps.toString());
+        assertEquals(1, queue.getCreatedPlayers());
+    }
+
+    @Test
+    public void nextStillPreparingWhenCurrentEnds() {
+        queue.enqueue(new PlaybackQueue.Item("a", 0, 0));
+        FakePlayer a = prepareNext();
+        queue.enqueue(new PlaybackQueue.Item("b", 0, 0));
+        a.finish();
+        assertTrue(queue.isActive());
+        prepareNext().finish();
+        //准备中的一段没有结束会话，不重复回调 active
+        assertEquals("[active, start:a, start:b, idle]", events.toString());
+        assertTrue(gaps.get(1) >= 0);
+    }
+
+    @Test
+    public void errorsSkipTheSegment() {
+        queue.enqueue(new PlaybackQueue.Item("a", 0, 0));
+        queue.enqueue(new PlaybackQueue.Item("b", 0, 0));
+        queue.enqueue(new PlaybackQueue.Item("c", 0, 0));
+        FakePlayer a = prepareNext();
+        FakePlayer b = prepareNext();
+        //当前段出错，串接的下一段手动开始
+        a.callback.onError(a);
+        assertTrue(a.released);
+        FakePlayer c = preparing.get(0);
+        c.callback.onError(c);
+        assertTrue(c.released);
+        b.finish();
+        assertEquals("[active, start:a, start:b, idle]", events.toString());
+        assertFalse(queue.isActive());
+    }
+}
@@ -0,0 +1,173 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PolyphaseResamplerTest {
+
+    private static final int TAPS = 32;
+
+    private static byte[] tone(int rate, double freq, double amplitude, int millis) {
+        int samples = rate * millis / 1000;
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            AudioCodec.writeSample(pcm, 2 * i, (int) Math.round(amplitude * Math.sin(2 * Math.PI * freq * i / rate)));
+        }
+        return pcm;
+    }
+
+    //按 chunk 字节分块处理
+    private static byte[] resample(PolyphaseResampler r, byte[] in, int chunk) {
+        byte[] out = new byte[r.maxOutputBytes(in.length) + 4];
+        int n = 0;
+        for (int off = 0; off < in.length; off += chunk) {
+            int len = Math.min(chunk, in.length - off);
+            int m = r.process(in, off, len, out, n);
+            assertTrue(m <= r.maxOutputBytes(len));
+            n += m;
+        }
+        byte[] result = new byte[n];
+        System.arraycopy(out, 0, result, 0, n);
+        return result;
+    }
+
+    //跳过滤波器的起始段，用最小二乘拟合 freq 的正弦，返回拟合的幅度和残差的信噪比
+    private static double[] fit(byte[] pcm, int rate, double freq, int skip) {
+        int samples = pcm.length / 2;
+        double ss = 0, cc = 0, sc = 0, ys = 0, yc = 0, yy = 0;
+        for (int i = skip; i < samples; i++) {
+            double w = 2 * Math.PI * freq * i / rate;
+            double s = Math.sin(w);
+            double c = Math.cos(w);
+            double y = AudioCodec.readSample(pcm, 2 * i);
+            ss += s * s;
+            cc += c * c;
+            sc += s * c;
+            ys += y * s;
+            yc += y * c;
+            yy += y * y;
+        }
+        double det = ss * cc - sc * sc;
+        double a = (ys * cc - yc * sc) / det;
+        double b = (yc * ss - ys * sc) / det;
+        double fitted = a * ys + b * yc;//拟合部分的能量
+        double residual = Math.max(yy - fitted, 1e-9);
+        return new double[]{Math.sqrt(a * a + b * b), 10 * Math.log10(fitted / residual)};
+    }
+
+    private static double rms(byte[] pcm, int skip) {
+        double sum = 0;
+        int n = 0;
+        for (int i = skip; i < pcm.length / 2; i++) {
+            double y = AudioCodec.readSample(pcm, 2 * i);
+            sum += y * y;
+            n++;
+        }
+        return Math.sqrt(sum / n);
+    }
+
+    @Test
+    public void downsample48kPreservesTone() {
+        PolyphaseResampler r = new PolyphaseResampler(48000, 16000, TAPS);
+        byte[] out = resample(r, tone(48000, 1000, 10000, 1000), 1920);
+        assertEquals(16000 * 2, out.length);
+        double[] fit = fit(out, 16000, 1000, 200);
+        assertEquals(10000, fit[0], 100);
+        assertTrue("snr " + fit[1], fit[1] > 60);
+    }
+
+    @Test
+    public void upsample8kPreservesTone() {
+        PolyphaseResampler r = new PolyphaseResampler(8000, 16000, TAPS);
+        byte[] out = resample(r, tone(8000, 1000, 10000, 1000), 320);
+        assertEquals(16000 * 2, out.length);
+        double[] fit = fit(out, 16000, 1000, 200);
+        assertEquals(10000, fit[0], 100);
+        assertTrue("snr " + fit[1], fit[1] > 50);
+    }
+
+    @Test
+    public void fractionalRatio44k() {
+        PolyphaseResampler r = new PolyphaseResampler(44100, 16000, TAPS);
+        byte[] out = resample(r, tone(44100, 3000, 10000, 1000), 1764);
+        assertEquals(16000, out.length / 2, 1);
+        double[] fit = fit(out, 16000, 3000, 200);
+        assertEquals(10000, fit[0], 200);
+        assertTrue("snr " + fit[1], fit[1] > 50);
+        System.out.println("44.1k->16k 3kHz SNR " + String.format("%.1f", fit[1]) + "dB");
+    }
+
+    //高于 8kHz 的成分会混叠到 16k 的输出里，必须滤掉
+    @Test
+    public void rejectsAliasing() {
+        PolyphaseResampler r = new PolyphaseResampler(48000, 16000, TAPS);
+        byte[] out = resample(r, tone(48000, 12000, 10000, 500), 960);
+        double attenuation = 20 * Math.log10(10000 / Math.sqrt(2) / Math.max(rms(out, 200), 1e-3));
+        assertTrue("attenuation " + attenuation, attenuation > 60);
+    }
+
+    //分块大小不影响结果，包括奇数个采样的块
+    @Test
+    public void chunkingIndependent() {
+        byte[] in = new byte[44100 * 2 / 5];
+        Random random = new Random(5);
+        for (int i = 0; i < in.length / 2; i++) {
+            AudioCodec.writeSample(in, 2 * i, (int) (random.nextGaussian() * 3000));
+        }
+        byte[] whole = resample(new PolyphaseResampler(44100, 16000, TAPS), in, in.length);
+        byte[] chunked = resample(new PolyphaseResampler(44100, 16000, TAPS), in, 2 * 37);
+        assertArrayEquals(whole, chunked);
+    }
+
+    @Test
+    public void sameRateIsDelayedCopy() {
+        PolyphaseResampler r = new PolyphaseResampler(16000, 16000, TAPS);
+        byte[] in = tone(16000, 440, 8000, 100);
+        byte[] out = resample(r, in, 640);
+        assertEquals(in.length, out.length);
+        int delay = (int) Math.round(r.getDelay());
+        assertEquals(15.5, r.getDelay(), 0.01);
+        //偶数阶的延迟在半个采样上，只比较幅度
+        double[] fit = fit(out, 16000, 440, delay + TAPS);
+        assertEquals(8000, fit[0], 80);
+    }
+
+    @Test
+    public void clampsAndResets() {
+        PolyphaseResampler r = new PolyphaseResampler(8000, 16000, TAPS);
+        byte[] loud = tone(8000, 1000, 32767, 100);
+        byte[] out = resample(r, loud, loud.length);
+        for (int i = 0; i < out.length; i += 2) {
+            int s = AudioCodec.readSample(out, i);
+            assertTrue(s >= Short.MIN_VALUE && s <= Short.MAX_VALUE);
+        }
+        r.reset();
+        byte[] again = resample(r, loud, loud.length);
+        assertArrayEquals(out, again);
+    }
+
+    @Test
+    public void costPerSecond() {
+        int[] rates = {48000, 44100, 8000};
+        for (int rate : rates) {
+            PolyphaseResampler r = new PolyphaseResampler(rate, 16000, TAPS);
+            byte[] in = tone(rate, 500, 8000, 1000);
+            byte[] out = new byte[r.maxOutputBytes(in.length / 50) + 4];
+            int chunk = in.length / 50;//20ms
+            for (int warm = 0; warm < 20; warm++) {
+                for (int off = 0; off + chunk <= in.length; off += chunk) {
+                    r.process(in, off, chunk, out, 0);
+                }
+            }
+            long start = System.nanoTime();
+            for (int off = 0; off + chunk <= in.length; off += chunk) {
+                r.process(in, off, chunk, out, 0);
+            }
+            long us = (System.nanoTime() - start) / 1000;
+            System.out.println(rate + "->16000 每秒音频 " + us + "us");
+        }
+    }
+}
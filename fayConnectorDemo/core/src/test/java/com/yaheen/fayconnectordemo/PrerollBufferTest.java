@@ -0,0 +1,73 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PrerollBufferTest {
+
+    private static final int FRAME = 640;
+    private static final byte REPLY = 0x55;
+    private static final byte SPEECH = 0x11;
+
+    private static byte[] frame(byte value) {
+        byte[] b = new byte[FRAME];
+        Arrays.fill(b, value);
+        return b;
+    }
+
+    private static byte[] drain(PrerollBuffer preroll) {
+        byte[] out = new byte[preroll.getCapacity()];
+        int len = 0;
+        int n;
+        while ((n = preroll.drain(out, len, out.length - len)) > 0) {
+            len += n;
+        }
+        return Arrays.copyOf(out, len);
+    }
+
+    //播放中每 20ms 一帧回声；播放在 1000 结束，跨过结束时间的那一帧也丢掉，之后的两帧是用户说话
+    @Test
+    public void keepsOnlyAudioAfterPlaybackEnded() {
+        PrerollBuffer preroll = new PrerollBuffer(50 * FRAME);
+        for (long t = 0; t < 1000; t += 20) {
+            assertFalse(preroll.offer(frame(REPLY), 0, FRAME, t, 0));
+        }
+        assertEquals(0, preroll.getDepth());
+        long ended = 1000;
+        assertFalse(preroll.offer(frame(REPLY), 0, FRAME, 990, ended));
+        assertTrue(preroll.offer(frame(SPEECH), 0, FRAME, 1010, ended));
+        assertTrue(preroll.offer(frame(SPEECH), 0, FRAME, 1030, ended));
+
+        byte[] flushed = drain(preroll);
+        assertEquals(2 * FRAME, flushed.length);
+        for (byte b : flushed) {
+            assertEquals("播放的音频不应该发出去", SPEECH, b);
+        }
+        assertEquals(0, preroll.drain(new byte[FRAME], 0, FRAME));
+    }
+
+    //播放结束后又开始下一条回复(状态机没来得及恢复上行)，之前存的也清掉
+    @Test
+    public void nextReplyDiscardsStoredAudio() {
+        PrerollBuffer preroll = new PrerollBuffer(50 * FRAME);
+        assertTrue(preroll.offer(frame(SPEECH), 0, FRAME, 1010, 1000));
+        assertFalse(preroll.offer(frame(REPLY), 0, FRAME, 1030, 0));
+        assertEquals(0, drain(preroll).length);
+    }
+
+    //播放结束后上行迟迟不恢复，只保留最近的
+    @Test
+    public void keepsMostRecentWhenFull() {
+        PrerollBuffer preroll = new PrerollBuffer(3 * FRAME);
+        for (int i = 0; i < 5; i++) {
+            preroll.offer(frame((byte) i), 0, FRAME, 1000 + 20 * i, 1000);
+        }
+        byte[] flushed = drain(preroll);
+        assertEquals(3 * FRAME, flushed.length);
+        assertEquals(2, flushed[0]);
+        assertEquals(4, flushed[flushed.length - 1]);
+    }
+}
@@ -0,0 +1,292 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ProtocolV2Test {
+
+    private static class FrameRecorder implements ProtocolV2.Listener {
+        final List<Integer> types = new ArrayList<>();
+        final List<byte[]> payloads = new ArrayList<>();
+        ByteArrayOutputStream current = null;
+
+        @Override
+        public void onFrameStart(int type, int length) {
+            assertNull(current);
+            current = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void onFramePayload(int type, byte[] buf, int off, int len) {
+            current.write(buf, off, len);
+        }
+
+        @Override
+        public void onFrameEnd(int type) {
+            types.add(type);
+            payloads.add(current.toByteArray());
+            current = null;
+        }
+    }
+
+    //把回复音频和心跳转成字符串事件，方便比较
+    private static class EventSink implements FrameDecoder.Sink, ProtocolV2.ControlListener {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        final List<byte[]> replies = new ArrayList<>();
+        ByteArrayOutputStream current = null;
+
+        @Override
+        public void onHeartbeat() {
+            events.add("heartbeat");
+        }
+
+        @Override
+        public void onCodecAck(int codec) {
+            events.add("codec:" + codec);
+        }
+
+        @Override
+        public void onProtocolAck(int version) {
+            events.add("protocol:" + version);
+        }
+
+        @Override
+        public void onFrameStart() {
+            current = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void onPayload(byte[] buf, int off, int len) {
+            current.write(buf, off, len);
+        }
+
+        @Override
+        public void onFrameEnd() {
+            synchronized (replies) {
+                replies.add(current.toByteArray());
+            }
+            events.add("reply:" + current.size());
+            current = null;
+        }
+
+        @Override
+        public void onControl(int subtype, byte[] data, int off, int len) {
+            events.add("control:" + subtype + ":" + ProtocolV2.readLong(data, off));
+        }
+    }
+
+    //包含老协议各种标记的音频，老协议下会被截断或删掉一部分
+    private static byte[] markerHeavyPayload(int size) {
+        byte[] payload = new byte[size];
+        new Random(7).nextBytes(payload);
+        System.arraycopy(FrameDecoder.END_MARKER, 0, payload, size / 3, 9);
+        System.arraycopy(FrameDecoder.HEARTBEAT_MARKER, 0, payload, size / 2, 9);
+        return payload;
+    }
+
+    private static void writeReply(ByteArrayOutputStream out, byte[] payload, int chunk) {
+        for (int off = 0; off < payload.length; off += chunk) {
+            byte[] frame = ProtocolV2.frame(ProtocolV2.AUDIO_DOWN, payload, off, Math.min(chunk, payload.length - off));
+            out.write(frame, 0, frame.length);
+        }
+        byte[] end = ProtocolV2.frame(ProtocolV2.AUDIO_DOWN, payload, 0, 0);
+        out.write(end, 0, end.length);
+    }
+
+    @Test
+    public void decodesFramesAcrossRandomChunkings() {
+        Random random = new Random(11);
+        List<Integer> types = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < 300; i++) {
+            int type = 1 + random.nextInt(5);//包含一个未知类型
+            byte[] payload = new byte[random.nextInt(3) == 0 ? 0 : random.nextInt(5000)];
+            random.nextBytes(payload);
+            types.add(type);
+            payloads.add(payload);
+            byte[] frame = ProtocolV2.frame(type, payload, 0, payload.length);
+            stream.write(frame, 0, frame.length);
+        }
+        byte[] data = stream.toByteArray();
+
+        FrameRecorder recorder = new FrameRecorder();
+        ProtocolV2.Decoder decoder = new ProtocolV2.Decoder(recorder);
+        int off = 0;
+        while (off < data.length) {
+            int len = Math.min(data.length - off, 1 + random.nextInt(random.nextBoolean() ? 7 : 4096));
+            decoder.feed(data, off, len);
+            off += len;
+        }
+        assertEquals(types, recorder.types);
+        for (int i = 0; i < payloads.size(); i++) {
+            assertArrayEquals(payloads.get(i), recorder.payloads.get(i));
+        }
+        assertFalse(decoder.isInFrame());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsOversizedFrame() {
+        byte[] header = new byte[ProtocolV2.HEADER_LEN];
+        ProtocolV2.writeHeader(ProtocolV2.AUDIO_DOWN, ProtocolV2.MAX_PAYLOAD + 1, header, 0);
+        new ProtocolV2.Decoder(new FrameRecorder()).feed(header, 0, header.length);
+    }
+
+    @Test
+    public void switchesFromLegacyInsideOneRead() throws Exception {
+        byte[] payload = markerHeavyPayload(20000);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(FrameDecoder.HEARTBEAT_MARKER);
+        stream.write(FrameDecoder.codecAnnounce(AudioCodec.MULAW));
+        stream.write(ProtocolV2.protocolAnnounce(ProtocolV2.VERSION));
+        stream.write(ProtocolV2.heartbeat());
+        writeReply(stream, payload, 4096);
+        stream.write(ProtocolV2.ping(1234));
+        byte[] data = stream.toByteArray();
+
+        EventSink sink = new EventSink();
+        DownlinkDecoder decoder = new DownlinkDecoder(sink, sink);
+        decoder.feed(data, 0, data.length);
+
+        assertTrue(decoder.isV2());
+        assertFalse(decoder.isInFrame());
+        List<String> events = new ArrayList<>();
+        sink.events.drainTo(events);
+        assertEquals("[heartbeat, codec:1, protocol:2, heartbeat, reply:20000, control:1:1234]", events.toString());
+        assertArrayEquals(payload, sink.replies.get(0));
+
+        decoder.reset();
+        assertFalse(decoder.isV2());
+    }
+
+    //本地测试服务器：用老协议确认版本，然后用 v2 下发回复、ping，并解析客户端上行的 v2 音频帧
+    @Test
+    public void negotiatesWithLocalServer() throws Exception {
+        final byte[] reply = markerHeavyPayload(50000);
+        final ServerSocket server = new ServerSocket(0);
+        final BlockingQueue<String> serverEvents = new LinkedBlockingQueue<>();
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket s = server.accept();
+                    DataInputStream in = new DataInputStream(s.getInputStream());
+                    OutputStream out = s.getOutputStream();
+                    byte[] hello = new byte[FrameDecoder.MARKER_LEN + 1];
+                    in.readFully(hello);
+                    assertArrayEquals(ProtocolV2.protocolAnnounce(ProtocolV2.VERSION), hello);
+                    out.write(hello);
+                    ByteArrayOutputStream down = new ByteArrayOutputStream();
+                    down.write(ProtocolV2.heartbeat());
+                    writeReply(down, reply, 8192);
+                    down.write(ProtocolV2.ping(42));
+                    out.write(down.toByteArray());
+                    out.flush();
+                    readUplink(in, serverEvents);
+                    s.close();
+                } catch (IOException e) {
+                    serverEvents.add("error:" + e);
+                }
+            }
+        });
+        serverThread.start();
+
+        final EventSink sink = new EventSink();
+        final DownlinkDecoder decoder = new DownlinkDecoder(sink, sink);
+        final FayConnection[] holder = new FayConnection[1];
+        FayConnection connection = new FayConnection(new FayConnection.Listener() {
+            @Override
+            public void onConnected() {
+                byte[] hello = ProtocolV2.protocolAnnounce(ProtocolV2.VERSION);
+                holder[0].send(hello, 0, hello.length);
+            }
+
+            @Override
+            public void onReceive(byte[] buf, int off, int len) {
+                decoder.feed(buf, off, len);
+            }
+
+            @Override
+            public void onUplinkDrained() {
+            }
+
+            @Override
+            public void onDisconnected(IOException cause) {
+            }
+        }, 16 * 1024);
+        holder[0] = connection;
+        connection.start();
+        try {
+            connection.connect("127.0.0.1", server.getLocalPort());
+            assertEquals("protocol:2", sink.events.poll(5, TimeUnit.SECONDS));
+            assertEquals("heartbeat", sink.events.poll(5, TimeUnit.SECONDS));
+            assertEquals("reply:" + reply.length, sink.events.poll(5, TimeUnit.SECONDS));
+            assertEquals("control:1:42", sink.events.poll(5, TimeUnit.SECONDS));
+            assertArrayEquals(reply, sink.replies.get(0));
+
+            byte[] audio = new byte[1000];
+            byte[] frame = ProtocolV2.frame(ProtocolV2.AUDIO_UP, audio, 0, audio.length);
+            for (int i = 0; i < 3; i++) {
+                assertTrue(connection.offer(frame, 0, frame.length));
+            }
+            byte[] pong = ProtocolV2.pong(42);
+            assertTrue(connection.offer(pong, 0, pong.length));
+            assertEquals("up:3000", serverEvents.poll(5, TimeUnit.SECONDS));
+            assertEquals("control:2", serverEvents.poll(5, TimeUnit.SECONDS));
+
+            //放不下的整帧直接丢弃，不会截断
+            byte[] big = new byte[32 * 1024];
+            assertFalse(connection.offer(big, 0, big.length));
+        } finally {
+            connection.shutdown();
+            connection.join(1000);
+            server.close();
+            serverThread.join(1000);
+        }
+    }
+
+    private static void readUplink(InputStream in, final BlockingQueue<String> events) throws IOException {
+        final int[] upBytes = {0};
+        ProtocolV2.Decoder decoder = new ProtocolV2.Decoder(new ProtocolV2.Listener() {
+            @Override
+            public void onFrameStart(int type, int length) {
+            }
+
+            @Override
+            public void onFramePayload(int type, byte[] buf, int off, int len) {
+                if (type == ProtocolV2.AUDIO_UP) {
+                    upBytes[0] += len;
+                } else if (type == ProtocolV2.CONTROL) {
+                    events.add("control:" + buf[off]);
+                }
+            }
+
+            @Override
+            public void onFrameEnd(int type) {
+                if (type == ProtocolV2.AUDIO_UP && upBytes[0] == 3000) {
+                    events.add("up:" + upBytes[0]);
+                }
+            }
+        });
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            decoder.feed(buf, 0, n);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReplyBufferTest {
+
+    @Test
+    public void readerFollowsWriterAcrossPages() throws Exception {
+        final byte[] data = new byte[200 * 1024];
+        new Random(7).nextBytes(data);
+        final ReplyBuffer buffer = new ReplyBuffer();
+        assertEquals(-1, buffer.getSize());
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(8);
+                int off = 0;
+                while (off < data.length) {
+                    int len = Math.min(data.length - off, 1 + random.nextInt(5000));
+                    buffer.append(data, off, len);
+                    off += len;
+                    Thread.yield();
+                }
+                buffer.complete();
+            }
+        });
+        writer.start();
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        byte[] tmp = new byte[3000];
+        long position = 0;
+        int n;
+        while ((n = buffer.readAt(position, tmp, 0, tmp.length)) != -1) {
+            read.write(tmp, 0, n);
+            position += n;
+        }
+        writer.join();
+
+        assertArrayEquals(data, read.toByteArray());
+        assertEquals(data.length, buffer.getSize());
+
+        ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        buffer.writeTo(saved);
+        assertArrayEquals(data, saved.toByteArray());
+    }
+
+    @Test
+    public void abortWakesBlockedReader() throws Exception {
+        final ReplyBuffer buffer = new ReplyBuffer();
+        buffer.append(new byte[10], 0, 10);
+        final int[] result = new int[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = buffer.readAt(10, new byte[4], 0, 4);
+                } catch (InterruptedException e) {
+                    result[0] = -2;
+                }
+            }
+        });
+        reader.start();
+        Thread.sleep(50);
+        buffer.abort();
+        reader.join(1000);
+        assertFalse(reader.isAlive());
+        assertEquals(-1, result[0]);
+    }
+}
@@ -0,0 +1,53 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ServerListTest {
+
+    @Test
+    public void parsesListAndSkipsBadEntries() {
+        ServerList list = ServerList.parse(" 192.168.1.101:10001, 10.0.0.2:10002;bad\nhost:x\n[::1]:10003\n");
+        List<ServerList.Server> servers = list.getServers();
+        assertEquals(3, servers.size());
+        assertEquals("192.168.1.101", servers.get(0).host);
+        assertEquals(10002, servers.get(1).port);
+        assertEquals("[::1]", servers.get(2).host);
+        assertEquals(0, ServerList.parse(null).size());
+        assertEquals(0, ServerList.parse("192.168.1.101").size());
+    }
+
+    @Test
+    public void prefersHealthyThenFastest() {
+        ServerList list = ServerList.parse("a:1,b:2,c:3");
+        ServerList.Server a = list.getServers().get(0);
+        ServerList.Server b = list.getServers().get(1);
+        ServerList.Server c = list.getServers().get(2);
+        list.onProbe(a, 40);
+        list.onProbe(b, 10);
+        list.onProbe(c, -1);
+        assertSame(b, list.best(null));
+        assertSame(a, list.best(b));
+
+        //连接断开后排到健康的后面，收到心跳才恢复
+        list.onFailure(b);
+        assertSame(a, list.best(null));
+        list.onHealthy(b);
+        assertSame(b, list.best(null));
+        assertEquals(1, list.getConsecutiveFailures(c));
+        assertEquals(10, list.getLatency(b));
+    }
+
+    @Test
+    public void probeMeasuresConnectTime() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        ServerList list = ServerList.parse("127.0.0.1:" + server.getLocalPort());
+        assertTrue(ServerList.probe(list.getServers().get(0), 1000) >= 0);
+        server.close();
+        assertEquals(-1, ServerList.probe(list.getServers().get(0), 1000));
+    }
+}
@@ -0,0 +1,103 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TlsTransportTest {
+
+    private FakeFayServer server;
+    private ConnectorHarness connector;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeFayServer();
+        server.setHeartbeatInterval(100);
+        server.setTls(FakeFayServer.selfSignedTls());
+        server.start(0);
+        connector = new ConnectorHarness(2048, 3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void pinnedSelfSignedCarriesTraffic() throws Exception {
+        connector.getConnection().setTls(TlsTransport.create(FakeFayServer.selfSignedFingerprint()));
+        byte[] mp3 = FakeFayServer.mp3Like(50000, 9);
+        server.setReply(mp3);
+        server.setReplyAfterBytes(4096);
+        server.setReplyChunking(3000, 1);
+        connector.start("127.0.0.1", server.getPort());
+        assertNotNull(connector.await("connected", 5000));
+        assertTrue(connector.getConnection().getLastHandshakeMillis() >= 0);
+        assertFalse(connector.getConnection().isLastHandshakeResumed());
+        assertNotNull(connector.await("heartbeat", 2000));
+        assertEquals(2048, connector.send(new byte[2048], 0, 2048));
+        assertEquals(2048, connector.send(new byte[2048], 0, 2048));
+        assertTrue(server.awaitReceived(4096, 2000));
+        ConnectorHarness.Event end = connector.await("reply-end", 3000);
+        assertNotNull(end);
+        assertEquals(mp3.length, end.bytes);
+    }
+
+    //断线重连恢复缓存的会话，比完整握手快
+    @Test
+    public void reconnectResumesSession() throws Exception {
+        connector.getConnection().setTls(TlsTransport.create(FakeFayServer.selfSignedFingerprint()));
+        connector.start("127.0.0.1", server.getPort());
+        assertNotNull(connector.await("connected", 5000));
+        //TLS 1.3 的会话票据在握手之后发送，等一个心跳保证已经收到
+        assertNotNull(connector.await("heartbeat", 2000));
+        long full = connector.getConnection().getLastHandshakeMillis();
+        for (int i = 0; i < 3; i++) {
+            server.dropAll();
+            assertNotNull(connector.await("disconnected", 2000));
+            assertNotNull(connector.await("connected", 5000));
+            assertTrue(connector.getConnection().isLastHandshakeResumed());
+            assertNotNull(connector.await("heartbeat", 2000));
+        }
+        FayMetrics metrics = connector.getMetrics();
+        assertEquals(1, metrics.tlsFull.getCount());
+        assertEquals(3, metrics.tlsResumed.getCount());
+        assertTrue(metrics.dump().contains(",tls["));
+        System.out.println("TLS 握手: 完整 " + full + "ms, 恢复 " + metrics.tlsResumed);
+    }
+
+    @Test
+    public void rejectsWrongPin() throws Exception {
+        String pin = FakeFayServer.selfSignedFingerprint();
+        String wrong = (pin.charAt(0) == '0' ? "1" : "0") + pin.substring(1);
+        connector.getConnection().setTls(TlsTransport.create(wrong));
+        connector.start("127.0.0.1", server.getPort());
+        assertNotNull(connector.await("disconnected", 5000));
+        assertFalse(connector.getConnection().isConnected());
+        assertEquals(0, connector.getMetrics().tlsFull.getCount());
+    }
+
+    //没有固定指纹时按系统 CA 验证，自签名证书不被信任
+    @Test
+    public void rejectsUntrustedWithoutPin() throws Exception {
+        connector.getConnection().setTls(TlsTransport.create(null));
+        connector.start("127.0.0.1", server.getPort());
+        assertNotNull(connector.await("disconnected", 5000));
+        assertFalse(connector.getConnection().isConnected());
+    }
+
+    @Test
+    public void pinFormatIsFlexible() throws Exception {
+        String pin = FakeFayServer.selfSignedFingerprint();
+        StringBuilder colons = new StringBuilder();
+        for (int i = 0; i < pin.length(); i += 2) {
+            colons.append(i > 0 ? ":" : "").append(pin.substring(i, i + 2).toUpperCase());
+        }
+        connector.getConnection().setTls(TlsTransport.create(colons.toString()));
+        connector.start("127.0.0.1", server.getPort());
+        assertNotNull(connector.await("connected", 5000));
+    }
+}
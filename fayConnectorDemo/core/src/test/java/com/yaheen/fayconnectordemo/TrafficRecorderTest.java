@@ -0,0 +1,269 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrafficRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] chunk(int seed, int size) {
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++) {
+            b[i] = (byte) (seed * 31 + i);
+        }
+        return b;
+    }
+
+    //把重放的记录收集成 "类型/连接/长度/首字节"
+    private static class Collector implements TrafficReplayer.Sink {
+        final List<String> records = new ArrayList<>();
+        long lastNanos = -1;
+
+        @Override
+        public void onRecord(int type, int stream, long nanos, byte[] data, int off, int len) {
+            assertTrue(nanos >= lastNanos);
+            lastNanos = nanos;
+            records.add(type + "/" + stream + "/" + len + (len > 0 ? "/" + data[off] : ""));
+        }
+    }
+
+    //只有下行解码的接收路径，记下事件顺序
+    private static class ReceivePath implements FayConnection.Listener, FrameDecoder.Sink, ProtocolV2.ControlListener {
+        final List<String> events = new ArrayList<>();
+        final DownlinkDecoder decoder = new DownlinkDecoder(this, this);
+        long replyBytes = 0;
+
+        @Override
+        public void onConnected() {
+            decoder.reset();
+            events.add("connected");
+        }
+
+        @Override
+        public void onReceive(byte[] buf, int off, int len) {
+            decoder.feed(buf, off, len);
+        }
+
+        @Override
+        public void onUplinkDrained() {
+        }
+
+        @Override
+        public void onDisconnected(IOException cause) {
+            events.add("disconnected");
+        }
+
+        @Override
+        public void onHeartbeat() {
+            if (!events.get(events.size() - 1).equals("heartbeat")) {
+                events.add("heartbeat");
+            }
+        }
+
+        @Override
+        public void onCodecAck(int codec) {
+        }
+
+        @Override
+        public void onProtocolAck(int version) {
+        }
+
+        @Override
+        public void onControl(int subtype, byte[] data, int off, int len) {
+        }
+
+        @Override
+        public void onFrameStart() {
+            replyBytes = 0;
+        }
+
+        @Override
+        public void onPayload(byte[] buf, int off, int len) {
+            replyBytes += len;
+        }
+
+        @Override
+        public void onFrameEnd() {
+            events.add("reply:" + replyBytes);
+        }
+    }
+
+    @Test
+    public void roundTripAcrossSegments() throws Exception {
+        File file = folder.newFile("session.fayt");
+        TrafficRecorder recorder = new TrafficRecorder(file, 64 * 1024 * 1024);
+        List<String> expected = new ArrayList<>();
+        recorder.event(TrafficRecorder.CONNECTED, 0);
+        expected.add(TrafficRecorder.CONNECTED + "/0/0");
+        //总量超过一段映射，中间还有一条比一段还大的
+        for (int i = 0; i < 300; i++) {
+            int size = i == 150 ? 1500 * 1024 : 4000 + i;
+            byte[] b = chunk(i, size);
+            if (i % 2 == 0) {
+                recorder.record(TrafficRecorder.UPLINK, 0, b, 0, b.length);
+                expected.add(TrafficRecorder.UPLINK + "/0/" + size + "/" + b[0]);
+            } else {
+                ByteBuffer direct = ByteBuffer.allocateDirect(size + 10);
+                direct.position(10);
+                direct.put(b);
+                direct.position(10);
+                recorder.record(TrafficRecorder.DOWNLINK, 1, direct);
+                assertEquals(10, direct.position());
+                expected.add(TrafficRecorder.DOWNLINK + "/1/" + size + "/" + b[0]);
+            }
+        }
+        recorder.event(TrafficRecorder.DISCONNECTED, 0);
+        expected.add(TrafficRecorder.DISCONNECTED + "/0/0");
+        long bytes = recorder.getBytes();
+        recorder.close();
+        assertEquals(bytes, file.length());
+        assertEquals(expected.size(), recorder.getRecords());
+
+        TrafficReplayer replayer = new TrafficReplayer(file);
+        assertTrue(Math.abs(System.currentTimeMillis() - replayer.getStartTime()) < 60000);
+        Collector collector = new Collector();
+        assertEquals(expected.size(), replayer.replay(collector, 0));
+        assertEquals(expected, collector.records);
+        //再放一遍结果相同
+        Collector again = new Collector();
+        replayer.replay(again, 0);
+        assertEquals(collector.records, again.records);
+    }
+
+    //进程中途退出没有 close：未写的映射部分是 0，最后一条写了一半的也丢掉
+    @Test
+    public void readsUnclosedAndTruncatedFiles() throws Exception {
+        File file = folder.newFile("crash.fayt");
+        TrafficRecorder recorder = new TrafficRecorder(file, 8 * 1024 * 1024);
+        for (int i = 0; i < 5; i++) {
+            recorder.record(TrafficRecorder.DOWNLINK, 0, chunk(i, 1000), 0, 1000);
+        }
+        long bytes = recorder.getBytes();
+        assertTrue(file.length() > bytes);
+        assertEquals(5, new TrafficReplayer(file).replay(new Collector(), 0));
+        recorder.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(bytes - 500);
+        raf.close();
+        assertEquals(4, new TrafficReplayer(file).replay(new Collector(), 0));
+    }
+
+    @Test
+    public void dropsWhenFull() throws Exception {
+        File file = folder.newFile("full.fayt");
+        TrafficRecorder recorder = new TrafficRecorder(file, TrafficRecorder.FILE_HEADER + 3 * (TrafficRecorder.RECORD_HEADER + 1000));
+        for (int i = 0; i < 5; i++) {
+            recorder.record(TrafficRecorder.UPLINK, 0, chunk(i, 1000), 0, 1000);
+        }
+        assertEquals(3, recorder.getRecords());
+        assertEquals(2, recorder.getDroppedRecords());
+        recorder.close();
+        recorder.record(TrafficRecorder.UPLINK, 0, chunk(9, 10), 0, 10);
+        assertEquals(3, recorder.getDroppedRecords());
+        assertEquals(3, new TrafficReplayer(file).replay(new Collector(), 0));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws Exception {
+        File file = folder.newFile("other.bin");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(chunk(1, 100));
+        raf.close();
+        new TrafficReplayer(file);
+    }
+
+    @Test
+    public void acceleratedReplayKeepsSpacing() throws Exception {
+        File file = folder.newFile("timed.fayt");
+        TrafficRecorder recorder = new TrafficRecorder(file, 1024 * 1024);
+        for (int i = 0; i < 5; i++) {
+            recorder.record(TrafficRecorder.DOWNLINK, 0, chunk(i, 10), 0, 10);
+            Thread.sleep(50);
+        }
+        recorder.close();
+        TrafficReplayer replayer = new TrafficReplayer(file);
+        long start = System.nanoTime();
+        replayer.replay(new Collector(), 1);
+        long original = (System.nanoTime() - start) / 1000000;
+        start = System.nanoTime();
+        replayer.replay(new Collector(), 4);
+        long fast = (System.nanoTime() - start) / 1000000;
+        assertTrue("原速 " + original, original >= 195);
+        assertTrue("4倍速 " + fast, fast >= 45 && fast < original);
+    }
+
+    //录下和本地服务器的一次会话，重放给新的接收路径、再扮演服务器发给真实连接，收到的回复都一样
+    @Test
+    public void recordsSessionAndReplays() throws Exception {
+        File file = folder.newFile("e2e.fayt");
+        TrafficRecorder recorder = new TrafficRecorder(file, 16 * 1024 * 1024);
+        FakeFayServer server = new FakeFayServer();
+        server.setHeartbeatInterval(50);
+        byte[] mp3 = FakeFayServer.mp3Like(20000, 3);
+        server.setReply(mp3);
+        server.setReplyAfterBytes(4096);
+        server.setReplyChunking(1500, 2);
+        server.start(0);
+        ConnectorHarness connector = new ConnectorHarness(2048, 1);
+        connector.getConnection().setRecorder(recorder, 0);
+        try {
+            connector.start("127.0.0.1", server.getPort());
+            assertNotNull(connector.await("connected", 2000));
+            assertEquals(2048, connector.send(new byte[2048], 0, 2048));
+            assertEquals(2048, connector.send(new byte[2048], 0, 2048));
+            assertEquals(mp3.length, connector.await("reply-end", 2000).bytes);
+            assertNotNull(connector.await("heartbeat", 1000));
+        } finally {
+            connector.stop();
+            server.stop();
+        }
+        recorder.close();
+        TrafficReplayer replayer = new TrafficReplayer(file);
+
+        //接收路径：连接回调 -> 下行解码
+        ReceivePath replayed = new ReceivePath();
+        replayer.replay(TrafficReplayer.toListener(replayed, 0), 0);
+        assertEquals("connected", replayed.events.get(0));
+        assertTrue(replayed.events.contains("heartbeat"));
+        assertTrue(replayed.events.contains("reply:" + mp3.length));
+        assertEquals("disconnected", replayed.events.get(replayed.events.size() - 1));
+        ReceivePath again = new ReceivePath();
+        replayer.replay(TrafficReplayer.toListener(again, 0), 0);
+        assertEquals(replayed.events, again.events);
+
+        //替身服务器：把录下的下行写给真实的连接
+        ServerSocket standIn = new ServerSocket(0);
+        ConnectorHarness client = new ConnectorHarness(2048, 1);
+        try {
+            client.start("127.0.0.1", standIn.getLocalPort());
+            Socket s = standIn.accept();
+            assertNotNull(client.await("connected", 2000));
+            long start = System.nanoTime();
+            replayer.replay(TrafficReplayer.toStream(s.getOutputStream(), TrafficRecorder.DOWNLINK, 0), 8);
+            ConnectorHarness.Event end = client.await("reply-end", 2000);
+            assertNotNull(end);
+            assertEquals(mp3.length, end.bytes);
+            System.out.println("流量重放: " + recorder.getRecords() + " 条记录," + file.length() + " 字节,8倍速 "
+                    + (System.nanoTime() - start) / 1000000 + "ms");
+            s.close();
+        } finally {
+            client.stop();
+            standIn.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TransportProfileTest {
+
+    @Test
+    public void parsesKeysAndDefaultsToBalanced() {
+        assertEquals(TransportProfile.LOW_LATENCY, TransportProfile.parse("low_latency"));
+        assertEquals(TransportProfile.LOW_BANDWIDTH, TransportProfile.parse("LOW_BANDWIDTH"));
+        assertEquals(TransportProfile.BALANCED, TransportProfile.parse(null));
+        assertEquals(TransportProfile.BALANCED, TransportProfile.parse("fast"));
+    }
+
+    @Test
+    public void profilesFitPreallocatedBuffers() {
+        for (TransportProfile p : TransportProfile.values()) {
+            assertTrue(p.frameBytes <= TransportProfile.MAX_FRAME_BYTES);
+            assertTrue(p.batchBytes <= TransportProfile.MAX_BATCH_BYTES);
+            assertTrue(p.batchBytes >= p.frameBytes);
+            assertEquals(0, p.frameBytes % 2);//16bit 采样不能拆开
+        }
+    }
+
+    @Test
+    public void connectionAppliesSocketOptions() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        final CountDownLatch connected = new CountDownLatch(1);
+        FayConnection connection = new FayConnection(new FayConnection.Listener() {
+            @Override
+            public void onConnected() {
+                connected.countDown();
+            }
+
+            @Override
+            public void onReceive(byte[] buf, int off, int len) {
+            }
+
+            @Override
+            public void onUplinkDrained() {
+            }
+
+            @Override
+            public void onDisconnected(IOException cause) {
+            }
+        }, 4096);
+        connection.start();
+        try {
+            TransportProfile p = TransportProfile.LOW_LATENCY;
+            connection.setSocketOptions(p.tcpNoDelay, p.sendBufferSize);
+            connection.connect("127.0.0.1", server.getLocalPort());
+            server.accept();
+            assertTrue(connected.await(2, TimeUnit.SECONDS));
+            assertTrue(connection.isTcpNoDelay());
+        } finally {
+            connection.shutdown();
+            connection.join(1000);
+            server.close();
+        }
+    }
+}
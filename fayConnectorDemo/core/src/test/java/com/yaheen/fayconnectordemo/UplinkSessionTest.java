@@ -0,0 +1,263 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UplinkSessionTest {
+
+    @Test
+    public void negotiatesThenFramesAudio() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        FayConnection connection = new FayConnection(new FayConnection.Listener() {
+            @Override
+            public void onConnected() {
+                events.add("connected");
+            }
+
+            @Override
+            public void onReceive(byte[] buf, int off, int len) {
+            }
+
+            @Override
+            public void onUplinkDrained() {
+            }
+
+            @Override
+            public void onDisconnected(IOException cause) {
+            }
+        }, 16 * 1024);
+        UplinkSession session = new UplinkSession(1024, new FayMetrics(), new UplinkSession.Listener() {
+            @Override
+            public void onCodecNegotiated(AudioCodec codec, boolean acked) {
+                events.add("codec:" + codec.id() + ":" + acked);
+            }
+
+            @Override
+            public void onProtocolNegotiated(boolean v2, boolean acked) {
+                events.add("v2:" + v2 + ":" + acked);
+            }
+        });
+        connection.start();
+        try {
+            connection.connect("127.0.0.1", server.getLocalPort());
+            Socket s = server.accept();
+            assertEquals("connected", events.poll(2, TimeUnit.SECONDS));
+            session.setDownlinkFormat(AudioCodec.IMA_ADPCM);
+            session.start(connection, AudioCodec.MULAW, true);
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            byte[] announce = new byte[FrameDecoder.MARKER_LEN + 1];
+            in.readFully(announce);
+            assertArrayEquals(FrameDecoder.codecAnnounce(AudioCodec.MULAW), announce);
+            in.readFully(announce);
+            assertArrayEquals(ProtocolV2.protocolAnnounce(ProtocolV2.VERSION), announce);
+
+            //确认前不发音频
+            long now = System.currentTimeMillis();
+            assertFalse(session.isReady(now));
+            session.onCodecAck(AudioCodec.MULAW);
+            assertEquals("codec:" + AudioCodec.MULAW + ":true", events.poll());
+            session.onProtocolAck(ProtocolV2.VERSION);
+            assertEquals("v2:true:true", events.poll());
+            assertTrue(session.isReady(now));
+            //v2 确认后请求流式下行
+            byte[] format = new byte[ProtocolV2.HEADER_LEN + 2];
+            in.readFully(format);
+            assertArrayEquals(ProtocolV2.downlinkFormat(AudioCodec.IMA_ADPCM), format);
+            assertEquals(-1, session.getDownlinkCodec());
+            session.onDownlinkFormatAck(AudioCodec.PCM);
+            assertEquals(-1, session.getDownlinkCodec());
+            session.onDownlinkFormatAck(AudioCodec.IMA_ADPCM);
+            assertEquals(AudioCodec.IMA_ADPCM, session.getDownlinkCodec());
+
+            byte[] pcm = new byte[640];
+            assertEquals(ProtocolV2.HEADER_LEN + 320, session.send(pcm, 0, pcm.length));
+            assertEquals(ProtocolV2.AUDIO_UP, in.readByte());
+            assertEquals(320, in.readInt());
+
+            //重连后服务器不回应，超时退回 pcm 和老协议
+            session.start(connection, AudioCodec.IMA_ADPCM, true);
+            assertFalse(session.isReady(now));
+            assertTrue(session.isReady(now + UplinkSession.ACK_TIMEOUT + 1000));
+            assertEquals("v2:false:false", events.poll());
+            assertEquals("codec:" + AudioCodec.PCM + ":false", events.poll());
+            assertFalse(session.isV2());
+            assertEquals(-1, session.getDownlinkCodec());
+            s.close();
+        } finally {
+            connection.shutdown();
+            connection.join(1000);
+            server.close();
+        }
+    }
+
+    //第 batch 批 20ms 的 220Hz 正弦，相位连续
+    private static byte[] batch(int batch) {
+        byte[] pcm = new byte[640];
+        for (int i = 0; i < 320; i++) {
+            double t = (batch * 320 + i) / 16000.0;
+            AudioCodec.writeSample(pcm, 2 * i, (int) (8000 * Math.sin(2 * Math.PI * 220 * t)));
+        }
+        return pcm;
+    }
+
+    //本地服务器：按 v2 帧解码 ADPCM 上行，收到 UPLINK_RESET 时重置解码器
+    private static class AdpcmServer implements ProtocolV2.Listener {
+        final List<byte[]> decoded = new ArrayList<>();
+        final ImaAdpcmCodec decoder = new ImaAdpcmCodec();
+        final byte[] payload = new byte[64 * 1024];
+        int payloadLen = 0;
+        int resets = 0;
+
+        @Override
+        public void onFrameStart(int type, int length) {
+            payloadLen = 0;
+        }
+
+        @Override
+        public void onFramePayload(int type, byte[] buf, int off, int len) {
+            System.arraycopy(buf, off, payload, payloadLen, len);
+            payloadLen += len;
+        }
+
+        @Override
+        public void onFrameEnd(int type) {
+            if (type == ProtocolV2.CONTROL && payload[0] == ProtocolV2.CONTROL_UPLINK_RESET) {
+                assertEquals(AudioCodec.IMA_ADPCM, payload[1]);
+                decoder.reset();
+                resets++;
+            } else if (type == ProtocolV2.AUDIO_UP) {
+                byte[] pcm = new byte[decoder.maxDecodedSize(payloadLen)];
+                decoder.decode(payload, 0, payloadLen, pcm, 0);
+                synchronized (decoded) {
+                    decoded.add(pcm);
+                }
+            }
+        }
+    }
+
+    //服务器不读时上行缓冲满，丢掉的一批让两端的 ADPCM 状态错开；重置之后服务器解出的音频恢复正常
+    @Test
+    public void adpcmRecoversAfterDroppedBatch() throws Exception {
+        ServerSocket server = new ServerSocket();
+        server.setReceiveBufferSize(4096);
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        FayConnection connection = new FayConnection(new FayConnection.Listener() {
+            @Override
+            public void onConnected() {
+                events.add("connected");
+            }
+
+            @Override
+            public void onReceive(byte[] buf, int off, int len) {
+            }
+
+            @Override
+            public void onUplinkDrained() {
+            }
+
+            @Override
+            public void onDisconnected(IOException cause) {
+            }
+        }, 4096);
+        connection.setSocketOptions(true, 4096);
+        UplinkSession session = new UplinkSession(1024, new FayMetrics(), null);
+        connection.start();
+        try {
+            connection.connect("127.0.0.1", server.getLocalPort());
+            final Socket s = server.accept();
+            assertEquals("connected", events.poll(2, TimeUnit.SECONDS));
+            session.start(connection, AudioCodec.IMA_ADPCM, true);
+            session.onCodecAck(AudioCodec.IMA_ADPCM);
+            session.onProtocolAck(ProtocolV2.VERSION);
+
+            int n = 0;
+            long deadline = System.currentTimeMillis() + 5000;
+            while (session.send(batch(n), 0, 640) > 0) {
+                n++;
+                assertTrue("上行缓冲一直没满", System.currentTimeMillis() < deadline);
+            }
+            n++;
+
+            final AdpcmServer adpcm = new AdpcmServer();
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ProtocolV2.Decoder decoder = new ProtocolV2.Decoder(adpcm);
+                    byte[] buf = new byte[4096];
+                    try {
+                        InputStream in = s.getInputStream();
+                        new DataInputStream(in).readFully(new byte[2 * (FrameDecoder.MARKER_LEN + 1)]);
+                        int len;
+                        while ((len = in.read(buf)) > 0) {
+                            decoder.feed(buf, 0, len);
+                        }
+                    } catch (IOException e) {
+                    }
+                }
+            });
+            reader.start();
+
+            List<byte[]> sent = new ArrayList<>();
+            deadline = System.currentTimeMillis() + 5000;
+            while (sent.size() < 25) {
+                byte[] pcm = batch(n++);
+                if (session.send(pcm, 0, pcm.length) > 0) {
+                    sent.add(pcm);
+                } else {
+                    sent.clear();
+                }
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(2);
+            }
+            assertTrue(session.getCodecResets() >= 1);
+            deadline = System.currentTimeMillis() + 2000;
+            while (connection.getPendingUplink() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            s.close();
+            reader.join(1000);
+            assertEquals(session.getCodecResets(), adpcm.resets);
+
+            //最后 25 批两端状态一致，和发出的原始音频比较
+            double signal = 0;
+            double noise = 0;
+            synchronized (adpcm.decoded) {
+                int first = adpcm.decoded.size() - sent.size();
+                for (int k = 0; k < sent.size(); k++) {
+                    byte[] ref = sent.get(k);
+                    byte[] got = adpcm.decoded.get(first + k);
+                    assertEquals(ref.length, got.length);
+                    for (int i = 0; i < ref.length; i += 2) {
+                        int a = AudioCodec.readSample(ref, i);
+                        int b = AudioCodec.readSample(got, i);
+                        signal += (double) a * a;
+                        noise += (double) (a - b) * (a - b);
+                    }
+                }
+            }
+            double snr = 10 * Math.log10(signal / Math.max(noise, 1));
+            System.out.println(String.format("丢掉 1 批后重置，之后的 ADPCM SNR %.1fdB", snr));
+            assertTrue("snr=" + snr, snr > 20);
+        } finally {
+            connection.shutdown();
+            connection.join(1000);
+            server.close();
+        }
+    }
+}
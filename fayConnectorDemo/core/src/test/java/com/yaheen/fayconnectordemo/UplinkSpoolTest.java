@@ -0,0 +1,105 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class UplinkSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] batch(int seed, int size) {
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++) {
+            b[i] = (byte) (seed * 31 + i);
+        }
+        return b;
+    }
+
+    @Test
+    public void replaysInOrderAcrossWrap() throws Exception {
+        //容量放不下整数批，写几轮后一定会跨过文件末尾
+        UplinkSpool spool = new UplinkSpool(new File(folder.getRoot(), "spool"), 3000, 60000, 32, 1000);
+        byte[] out = new byte[8192];
+        long now = 1000;
+        for (int round = 0; round < 10; round++) {
+            spool.write(batch(round * 2, 640), 0, 640, now);
+            spool.write(batch(round * 2 + 1, 640), 0, 640, now);
+            for (int i = 0; i < 2; i++) {
+                now += 100;
+                int n = spool.read(out, 0, 640, now);
+                assertEquals(640, n);
+                byte[] expected = batch(round * 2 + i, 640);
+                for (int j = 0; j < n; j++) {
+                    assertEquals(expected[j], out[j]);
+                }
+            }
+        }
+        assertTrue(spool.isEmpty());
+        assertEquals(12800, spool.getSpooledBytes());
+        assertEquals(12800, spool.getReplayedBytes());
+        spool.close();
+    }
+
+    @Test
+    public void dropsOldestWhenFull() throws Exception {
+        UplinkSpool spool = new UplinkSpool(new File(folder.getRoot(), "spool"), 2 * (UplinkSpool.RECORD_HEADER + 1000), 60000, 32, 4);
+        spool.write(batch(1, 1000), 0, 1000, 0);
+        spool.write(batch(2, 1000), 0, 1000, 0);
+        spool.write(batch(3, 1000), 0, 1000, 0);
+        spool.write(batch(4, 5000), 0, 5000, 0);//比整个缓冲还大
+        assertEquals(6000, spool.getDroppedBytes());
+
+        byte[] out = new byte[4096];
+        assertEquals(2000, spool.read(out, 0, out.length, 10));
+        assertEquals(batch(2, 1)[0], out[0]);
+        assertEquals(batch(3, 1)[0], out[1000]);
+        spool.close();
+    }
+
+    @Test
+    public void expiresStaleSpeech() throws Exception {
+        UplinkSpool spool = new UplinkSpool(new File(folder.getRoot(), "spool"), 64 * 1024, 5000, 32, 4);
+        spool.write(batch(1, 1000), 0, 1000, 0);
+        spool.write(batch(2, 1000), 0, 1000, 3000);
+        spool.write(batch(3, 1000), 0, 1000, 6000);
+
+        byte[] out = new byte[1000];
+        assertEquals(1000, spool.read(out, 0, out.length, 7000));
+        assertEquals(1000, spool.getExpiredBytes());
+        assertEquals(batch(2, 1)[0], out[0]);
+        //再过很久，第三批也过期了
+        assertEquals(0, spool.read(out, 0, out.length, 20000));
+        assertEquals(2000, spool.getExpiredBytes());
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    public void replayIsPacedAtConfiguredSpeed() throws Exception {
+        //32 字节/毫秒的 4 倍速：每毫秒最多补发 128 字节
+        UplinkSpool spool = new UplinkSpool(new File(folder.getRoot(), "spool"), 256 * 1024, 60000, 32, 4);
+        for (int i = 0; i < 100; i++) {
+            spool.write(batch(i, 640), 0, 640, 0);
+        }
+        byte[] out = new byte[8192];
+        long now = 100;
+        long total = spool.read(out, 0, out.length, now);//第一次不限速
+        assertEquals(7680, total);
+        long start = now;
+        while (!spool.isEmpty()) {
+            now += 20;
+            total += spool.read(out, 0, out.length, now);
+        }
+        assertEquals(64000, total);
+        long elapsed = now - start;
+        //剩下 56320 字节在 128 字节/毫秒下约需 440ms
+        assertTrue("elapsed=" + elapsed, elapsed >= 420 && elapsed <= 480);
+        spool.close();
+    }
+}
@@ -0,0 +1,152 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VoiceGateTest {
+
+    private static final int RATE = 16000;
+    private static final int FRAME = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    //生成测试用 wav：底噪 + 两段带包络的浊音
+    private File writeFixture(Random random, double[][] segments) throws Exception {
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        for (double[] segment : segments) {
+            boolean voiced = segment[0] > 0;
+            int samples = (int) (segment[1] * RATE);
+            for (int i = 0; i < samples; i++) {
+                double v = random.nextGaussian() * 60;
+                if (voiced) {
+                    double t = (double) i / RATE;
+                    double env = Math.sin(Math.PI * i / samples);
+                    for (int h = 1; h <= 5; h++) {
+                        v += env * 5000 / h * Math.sin(2 * Math.PI * 150 * h * t);
+                    }
+                }
+                int s = (int) Math.max(-32768, Math.min(32767, v));
+                pcm.write(s);
+                pcm.write(s >> 8);
+            }
+        }
+        File file = folder.newFile();
+        OutputStream out = new FileOutputStream(file);
+        new WavFile(RATE, 1, pcm.toByteArray()).write(out);
+        out.close();
+        return file;
+    }
+
+    private static class CountingListener implements VoiceGate.Listener {
+        int starts = 0;
+        int ends = 0;
+        long bytes = 0;
+
+        @Override
+        public void onFrame(byte[] buf, int off, int len) {
+            bytes += len;
+        }
+
+        @Override
+        public void onUtteranceStart() {
+            starts++;
+        }
+
+        @Override
+        public void onUtteranceEnd() {
+            ends++;
+        }
+    }
+
+    private static VoiceGate run(WavFile wav, CountingListener listener) {
+        VoiceGate gate = new VoiceGate(new EnergyVoiceDetector(), FRAME, 10, 10, listener);
+        for (int off = 0; off + FRAME <= wav.pcm.length; off += FRAME) {
+            gate.process(wav.pcm, off, FRAME);
+        }
+        return gate;
+    }
+
+    @Test
+    public void gatesSilenceAndKeepsUtterances() throws Exception {
+        File file = writeFixture(new Random(1), new double[][]{{0, 2.0}, {1, 1.0}, {0, 3.0}, {1, 0.8}, {0, 2.0}});
+        InputStream in = new FileInputStream(file);
+        WavFile wav = WavFile.read(in);
+        in.close();
+        assertEquals(RATE, wav.sampleRate);
+        assertEquals(1, wav.channels);
+
+        CountingListener listener = new CountingListener();
+        VoiceGate gate = run(wav, listener);
+
+        assertEquals(2, listener.starts);
+        assertEquals(2, listener.ends);
+        assertEquals(listener.bytes, gate.getPassedBytes());
+        //两段语音共 1.8 秒，加上前后补偿也不应超过一半
+        long speechBytes = (long) (1.8 * RATE * 2);
+        assertTrue(gate.getPassedBytes() >= speechBytes * 0.8);
+        assertTrue(gate.getReduction() > 0.5);
+        System.out.println(String.format("VAD 上行流量减少 %.1f%% (%d/%d 字节)",
+                gate.getReduction() * 100, gate.getPassedBytes(), gate.getInputBytes()));
+    }
+
+    @Test
+    public void pureNoiseIsSuppressed() throws Exception {
+        File file = writeFixture(new Random(2), new double[][]{{0, 5.0}});
+        InputStream in = new FileInputStream(file);
+        WavFile wav = WavFile.read(in);
+        in.close();
+
+        CountingListener listener = new CountingListener();
+        VoiceGate gate = run(wav, listener);
+        assertEquals(0, listener.starts);
+        assertEquals(0, gate.getPassedBytes());
+    }
+
+    @Test
+    public void lookbackIsFlushedBeforeSpeech() {
+        final ByteArrayOutputStream passed = new ByteArrayOutputStream();
+        VoiceDetector scripted = new VoiceDetector() {
+            @Override
+            public boolean isSpeech(byte[] pcm, int off, int len) {
+                return pcm[off] == 1;
+            }
+
+            @Override
+            public void reset() {
+            }
+        };
+        VoiceGate gate = new VoiceGate(scripted, 2, 2, 1, new VoiceGate.Listener() {
+            @Override
+            public void onFrame(byte[] buf, int off, int len) {
+                passed.write(buf, off, len);
+            }
+
+            @Override
+            public void onUtteranceStart() {
+            }
+
+            @Override
+            public void onUtteranceEnd() {
+            }
+        });
+        byte[][] frames = {{0, 10}, {0, 11}, {0, 12}, {1, 13}, {0, 14}, {0, 15}};
+        for (byte[] f : frames) {
+            gate.process(f, 0, 2);
+        }
+        //保留最近 2 帧静音，语音后再放行 1 帧
+        assertArrayEquals(new byte[]{0, 11, 0, 12, 1, 13, 0, 14}, passed.toByteArray());
+        assertFalse(gate.isInSpeech());
+    }
+}
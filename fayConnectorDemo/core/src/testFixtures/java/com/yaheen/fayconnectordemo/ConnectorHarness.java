@@ -0,0 +1,294 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不带 Android 部分的连接器：和 FayConnectorService 一样把连接引擎、连接守护、下行解码、上行会话接在一起，
+ * 事件带时间戳放进队列，测试和 benchmark 用它对 FakeFayServer 计时。
+ * setPlayback 后还按服务的两种 mp3 回复方式模拟播放器：先写完文件再播，或者边收边播(ReplyBuffer)，
+ * 播放器读到开头 ReplyBuffer.PREROLL_BYTES 字节(不够时读完整个回复)时记一个 first-audio 事件。
+ */
+public class ConnectorHarness implements FayConnection.Listener, FrameDecoder.Sink, ProtocolV2.ControlListener {
+
+    public static class Event {
+        public final String type;//connected, disconnected, heartbeat, reply-start, reply-end, first-audio
+        public final long time;
+        public final long bytes;//reply-end 时是回复长度
+
+        Event(String type, long time, long bytes) {
+            this.type = type;
+            this.time = time;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return type;
+        }
+    }
+
+    private final FayConnection connection;
+    private final ConnectionSupervisor supervisor;
+    private final DownlinkDecoder decoder = new DownlinkDecoder(this, this);
+    private final UplinkSession uplink;
+    private final FayMetrics metrics = new FayMetrics();
+    private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+    private long replyBytes = 0;
+
+    //回复播放的模拟，playbackDir 为 null 时不模拟；回调都在连接引擎线程
+    private File playbackDir = null;
+    private boolean progressive = false;
+    private ExecutorService player = null;
+    private ExecutorService fileWriter = null;
+    private ReplyBuffer replyBuffer = null;
+    private boolean playStarted = false;
+    private File replyFile = null;
+    private FileOutputStream replyOut = null;
+    private int replyCount = 0;
+
+    //seed 固定重连退避的抖动，结果可以重复
+    public ConnectorHarness(int maxBatch, long seed) {
+        connection = new FayConnection(this, 64 * 1024);
+        supervisor = new ConnectionSupervisor(connection, new Random(seed));
+        uplink = new UplinkSession(maxBatch, metrics, null);
+    }
+
+    public void start(String host, int port) throws IOException {
+        connection.start();
+        supervisor.start(host, port);
+    }
+
+    public void stop() throws InterruptedException {
+        supervisor.stop();
+        connection.shutdown();
+        connection.join(1000);
+        if (player != null) {
+            player.shutdownNow();
+            fileWriter.shutdown();
+            fileWriter.awaitTermination(1000, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    //start 之前调用：回复文件写在 dir 里，progressive 为 true 时边收边播，否则收完写好文件再播
+    public void setPlayback(File dir, boolean progressive) {
+        this.playbackDir = dir;
+        this.progressive = progressive;
+        player = Executors.newSingleThreadExecutor();
+        fileWriter = Executors.newSingleThreadExecutor();
+    }
+
+    //编码、加帧头后交给连接引擎，每次最多 maxBatch 字节，返回被接受的字节数
+    public int send(byte[] pcm, int off, int len) {
+        return uplink.send(pcm, off, len);
+    }
+
+    public FayConnection getConnection() {
+        return connection;
+    }
+
+    public ConnectionSupervisor getSupervisor() {
+        return supervisor;
+    }
+
+    public FayMetrics getMetrics() {
+        return metrics;
+    }
+
+    //等到指定类型的事件，之前的其它事件丢掉；超时返回 null
+    public Event await(String type, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long wait;
+        while ((wait = deadline - System.currentTimeMillis()) > 0) {
+            Event e = events.poll(wait, TimeUnit.MILLISECONDS);
+            if (e != null && e.type.equals(type)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    public void clearEvents() {
+        events.clear();
+    }
+
+    private void event(String type, long bytes) {
+        events.add(new Event(type, System.currentTimeMillis(), bytes));
+    }
+
+    @Override
+    public void onConnected() {
+        decoder.reset();
+        uplink.start(connection, AudioCodec.PCM, false);
+        if (connection.getLastHandshakeMillis() >= 0) {
+            metrics.onTlsHandshake(connection.getLastHandshakeMillis(), connection.isLastHandshakeResumed());
+        }
+        metrics.onConnected();
+        supervisor.onConnected();
+        event("connected", 0);
+    }
+
+    @Override
+    public void onReceive(byte[] buf, int off, int len) {
+        metrics.onDownlink(len);
+        decoder.feed(buf, off, len);
+    }
+
+    @Override
+    public void onUplinkDrained() {
+    }
+
+    @Override
+    public void onDisconnected(IOException cause) {
+        supervisor.onDisconnected(cause);
+        event("disconnected", 0);
+    }
+
+    @Override
+    public void onHeartbeat() {
+        long now = System.currentTimeMillis();
+        metrics.onHeartbeat(now);
+        supervisor.onHeartbeat();
+        uplink.ping(now);
+        event("heartbeat", 0);
+    }
+
+    @Override
+    public void onCodecAck(int codec) {
+        uplink.onCodecAck(codec);
+    }
+
+    @Override
+    public void onProtocolAck(int version) {
+        uplink.onProtocolAck(version);
+    }
+
+    @Override
+    public void onControl(int subtype, byte[] data, int off, int len) {
+        if (subtype == ProtocolV2.CONTROL_PING && len >= 8) {
+            uplink.pong(ProtocolV2.readLong(data, off));
+        }
+    }
+
+    @Override
+    public void onFrameStart() {
+        replyBytes = 0;
+        metrics.onReplyStart(System.currentTimeMillis());
+        event("reply-start", 0);
+        if (playbackDir == null) {
+            return;
+        }
+        replyFile = new File(playbackDir, "sample-" + (replyCount++) + ".mp3");
+        if (progressive) {
+            replyBuffer = new ReplyBuffer();
+            playStarted = false;
+            return;
+        }
+        try {
+            replyOut = new FileOutputStream(replyFile);
+        } catch (IOException e) {
+            replyOut = null;
+        }
+    }
+
+    @Override
+    public void onPayload(byte[] buf, int off, int len) {
+        replyBytes += len;
+        if (replyBuffer != null) {
+            replyBuffer.append(buf, off, len);
+            if (!playStarted && replyBuffer.length() >= ReplyBuffer.PREROLL_BYTES) {
+                playStarted = true;
+                play(replyBuffer, null);
+            }
+        } else if (replyOut != null) {
+            try {
+                replyOut.write(buf, off, len);
+            } catch (IOException e) {
+                closeReply();
+            }
+        }
+    }
+
+    @Override
+    public void onFrameEnd() {
+        metrics.onReplyComplete((int) replyBytes);
+        event("reply-end", replyBytes);
+        if (replyBuffer != null) {
+            replyBuffer.complete();
+            if (!playStarted) {
+                play(replyBuffer, null);
+            }
+            saveInBackground(replyBuffer, replyFile);
+            replyBuffer = null;
+        } else if (replyOut != null) {
+            closeReply();
+            play(null, replyFile);
+        }
+    }
+
+    private void closeReply() {
+        try {
+            replyOut.close();
+        } catch (IOException e) {
+        }
+        replyOut = null;
+    }
+
+    //和服务一样在后台把边收边播的回复写成文件
+    private void saveInBackground(final ReplyBuffer buffer, final File file) {
+        fileWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileOutputStream out = new FileOutputStream(file);
+                    try {
+                        buffer.writeTo(out);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                }
+            }
+        });
+    }
+
+    //播放器线程读开头的数据，相当于 MediaPlayer 准备时读取的部分
+    private void play(final ReplyBuffer buffer, final File file) {
+        player.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] head = new byte[ReplyBuffer.PREROLL_BYTES];
+                int n = 0;
+                int m;
+                try {
+                    if (buffer != null) {
+                        while (n < head.length && (m = buffer.readAt(n, head, n, head.length - n)) > 0) {
+                            n += m;
+                        }
+                    } else {
+                        InputStream in = new FileInputStream(file);
+                        try {
+                            while (n < head.length && (m = in.read(head, n, head.length - n)) > 0) {
+                                n += m;
+                            }
+                        } finally {
+                            in.close();
+                        }
+                    }
+                } catch (IOException | InterruptedException e) {
+                    return;
+                }
+                event("first-audio", n);
+            }
+        });
+    }
+}
@@ -0,0 +1,327 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+/**
+ * 进程内的 Fay 控制器替身，行为和现在的服务器一样：定时发心跳标记，回复是开始标记 + mp3 + 结束标记，
+ * 上行的字节都当作音频。每收到 replyAfterBytes 字节就在 replyDelayMs 后回复一段，回复可以分块限速发送；
+ * dropAll 模拟断线，stop/start 模拟服务器下线；setTls 后用 TLS 监听(可以用自带的自签名证书)。测试和 benchmark 共用。
+ */
+public class FakeFayServer {
+
+    //自签名证书(127.0.0.1 / localhost，有效期 100 年)，在 testFixtures 的资源里
+    private static final String KEYSTORE = "/fake-fay-server.p12";
+    private static final char[] KEYSTORE_PASSWORD = "fayfay".toCharArray();
+
+    private volatile long heartbeatIntervalMs = 5000;
+    private volatile int replyAfterBytes = 0;//0 表示不自动回复
+    private volatile long replyDelayMs = 0;
+    private volatile int replyChunkSize = 4096;
+    private volatile long replyChunkIntervalMs = 0;
+    private volatile byte[] reply = mp3Like(16 * 1024, 1);
+    private volatile SSLContext tls = null;
+
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong repliesSent = new AtomicLong();
+    private final AtomicLong heartbeatsSent = new AtomicLong();
+    private ScheduledExecutorService scheduler = null;
+    private ServerSocket server = null;
+    private int port = 0;
+
+    private class Client {
+        final Socket socket;
+        final OutputStream out;
+        ScheduledFuture<?> heartbeat = null;
+        int sinceReply = 0;//只在读线程里访问
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+        }
+
+        //多个线程会写，整段写出保证标记不被打断
+        synchronized void write(byte[] buf, int off, int len) {
+            try {
+                out.write(buf, off, len);
+                out.flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (heartbeat != null) {
+                heartbeat.cancel(false);
+            }
+            clients.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    //port 为 0 时随机分配，stop 后再 start 会用同一个端口
+    public synchronized void start(int port) throws IOException {
+        SSLContext context = tls;
+        server = context == null ? new ServerSocket() : context.getServerSocketFactory().createServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress("127.0.0.1", port));
+        this.port = server.getLocalPort();
+        scheduler = Executors.newScheduledThreadPool(2);
+        final ServerSocket s = server;
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        serve(s.accept());
+                    }
+                } catch (IOException e) {
+                    //关闭
+                }
+            }
+        }, "fake-fay-accept");
+        acceptor.start();
+    }
+
+    public void start() throws IOException {
+        start(port);
+    }
+
+    //关闭监听和所有连接
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+        }
+        server = null;
+        dropAll();
+        scheduler.shutdownNow();
+    }
+
+    //断开所有连接，服务器继续监听
+    public void dropAll() {
+        for (Client c : clients) {
+            c.close();
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    private void serve(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        final Client client = new Client(socket);
+        clients.add(client);
+        accepted.incrementAndGet();
+        long interval = heartbeatIntervalMs;
+        if (interval > 0) {
+            client.heartbeat = scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    heartbeatsSent.incrementAndGet();
+                    client.write(FrameDecoder.HEARTBEAT_MARKER, 0, FrameDecoder.MARKER_LEN);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buf = new byte[8192];
+                try {
+                    InputStream in = client.socket.getInputStream();
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        receivedBytes.addAndGet(n);
+                        onAudio(client, n);
+                    }
+                } catch (IOException e) {
+                }
+                client.close();
+            }
+        }, "fake-fay-client").start();
+    }
+
+    private void onAudio(final Client client, int n) {
+        int threshold = replyAfterBytes;
+        if (threshold <= 0) {
+            return;
+        }
+        client.sinceReply += n;
+        if (client.sinceReply < threshold) {
+            return;
+        }
+        client.sinceReply = 0;
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                sendReply(client, reply);
+            }
+        }, replyDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    //给所有连接发一段回复
+    public void broadcastReply(byte[] mp3) {
+        for (Client c : clients) {
+            sendReply(c, mp3);
+        }
+    }
+
+    private void sendReply(Client client, byte[] mp3) {
+        //整段回复期间占着连接，心跳不会插到回复中间
+        synchronized (client) {
+            client.write(FrameDecoder.START_MARKER, 0, FrameDecoder.MARKER_LEN);
+            for (int off = 0; off < mp3.length; off += replyChunkSize) {
+                if (off > 0 && replyChunkIntervalMs > 0) {
+                    try {
+                        Thread.sleep(replyChunkIntervalMs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                client.write(mp3, off, Math.min(replyChunkSize, mp3.length - off));
+            }
+            client.write(FrameDecoder.END_MARKER, 0, FrameDecoder.MARKER_LEN);
+        }
+        repliesSent.incrementAndGet();
+    }
+
+    //随机内容，去掉结束标记的首字节，和真实 mp3 一样不会误判出标记
+    public static byte[] mp3Like(int size, long seed) {
+        byte[] b = new byte[size];
+        new Random(seed).nextBytes(b);
+        for (int i = 0; i < size; i++) {
+            if (b[i] == FrameDecoder.END_MARKER[0] || b[i] == FrameDecoder.HEARTBEAT_MARKER[0]) {
+                b[i] = 0x55;
+            }
+        }
+        return b;
+    }
+
+    private static KeyStore keyStore() throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        InputStream in = FakeFayServer.class.getResourceAsStream(KEYSTORE);
+        if (in == null) {
+            throw new IOException("找不到证书:" + KEYSTORE);
+        }
+        try {
+            keyStore.load(in, KEYSTORE_PASSWORD);
+        } finally {
+            in.close();
+        }
+        return keyStore;
+    }
+
+    //用自带自签名证书的服务端 TLS 配置
+    public static SSLContext selfSignedTls() throws IOException, GeneralSecurityException {
+        KeyManagerFactory factory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        factory.init(keyStore(), KEYSTORE_PASSWORD);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(factory.getKeyManagers(), null, null);
+        return context;
+    }
+
+    //自签名证书的指纹，客户端用它固定信任
+    public static String selfSignedFingerprint() throws IOException, GeneralSecurityException {
+        KeyStore keyStore = keyStore();
+        return TlsTransport.fingerprint((X509Certificate) keyStore.getCertificate(keyStore.aliases().nextElement()));
+    }
+
+    //下次 start 生效，null 为明文
+    public void setTls(SSLContext context) {
+        tls = context;
+    }
+
+    //以下设置对之后的连接/回复生效
+    public void setHeartbeatInterval(long millis) {
+        heartbeatIntervalMs = millis;
+    }
+
+    public void setReplyAfterBytes(int bytes) {
+        replyAfterBytes = bytes;
+    }
+
+    public void setReplyDelay(long millis) {
+        replyDelayMs = millis;
+    }
+
+    //按块发送回复，块之间间隔 intervalMs，模拟边合成边发
+    public void setReplyChunking(int chunkSize, long intervalMs) {
+        replyChunkSize = chunkSize;
+        replyChunkIntervalMs = intervalMs;
+    }
+
+    public void setReply(byte[] mp3) {
+        reply = mp3;
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getRepliesSent() {
+        return repliesSent.get();
+    }
+
+    public long getHeartbeatsSent() {
+        return heartbeatsSent.get();
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    //等到收到至少 bytes 字节，超时返回 false
+    public boolean awaitReceived(long bytes, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (receivedBytes.get() < bytes) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    //客户端连上时服务器这边可能还没 accept，断线测试前先等连接登记好
+    public boolean awaitClients(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (clients.size() < count) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,189 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压测工具：按 ramp 时间逐个启动模拟连接器，循环对服务器说同一段 wav，
+ * 定时打印吞吐、回复延迟分位数和错误率。所有连接器共用一个节拍线程发音频。
+ */
+public class LoadGenerator {
+
+    public static class Options {
+        public String host = null;
+        public int port = 0;
+        public int sessions = 10;
+        public String wav = null;//不指定时用合成的 2 秒音频
+        public long durationMs = 60000;
+        public long rampMs = 5000;
+        public long replyTimeoutMs = 15000;
+        public long pauseMs = 1000;
+        public long reportMs = 5000;
+        public int codec = AudioCodec.PCM;
+        public boolean v2 = false;
+
+        public static Options parse(String[] args) {
+            Options o = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String name = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("缺少参数值:" + name);
+                }
+                String value = args[++i];
+                switch (name) {
+                    case "--server":
+                        int colon = value.lastIndexOf(':');
+                        if (colon <= 0) {
+                            throw new IllegalArgumentException("服务器地址应为 host:port");
+                        }
+                        o.host = value.substring(0, colon);
+                        o.port = Integer.parseInt(value.substring(colon + 1));
+                        break;
+                    case "--sessions":
+                        o.sessions = Integer.parseInt(value);
+                        break;
+                    case "--wav":
+                        o.wav = value;
+                        break;
+                    case "--duration":
+                        o.durationMs = Long.parseLong(value) * 1000;
+                        break;
+                    case "--ramp":
+                        o.rampMs = Long.parseLong(value) * 1000;
+                        break;
+                    case "--reply-timeout":
+                        o.replyTimeoutMs = Long.parseLong(value) * 1000;
+                        break;
+                    case "--pause-ms":
+                        o.pauseMs = Long.parseLong(value);
+                        break;
+                    case "--report":
+                        o.reportMs = Long.parseLong(value) * 1000;
+                        break;
+                    case "--codec":
+                        o.codec = AudioCodec.parse(value);
+                        break;
+                    case "--protocol":
+                        o.v2 = "v2".equalsIgnoreCase(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("未知参数:" + name);
+                }
+            }
+            if (o.host == null) {
+                throw new IllegalArgumentException("必须指定 --server");
+            }
+            return o;
+        }
+    }
+
+    private static final String USAGE = "用法: loadgen --server host:port [--sessions 10] [--wav file.wav] [--duration 60]"
+            + " [--ramp 5] [--reply-timeout 15] [--pause-ms 1000] [--report 5] [--codec pcm|mulaw|adpcm] [--protocol v1|v2]";
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        byte[] pcm;
+        try {
+            options = Options.parse(args);
+            pcm = options.wav == null ? syntheticSpeech(2000) : loadPcm(options.wav);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        LoadStats stats = run(options, pcm, true);
+        System.out.println("结束: " + stats.report());
+    }
+
+    //log 为 true 时每 reportMs 打印一次
+    public static LoadStats run(Options options, byte[] pcm, boolean log) throws Exception {
+        final LoadStats stats = new LoadStats();
+        final List<SimulatedConnector> connectors = new CopyOnWriteArrayList<>();
+        ScheduledExecutorService pacer = Executors.newSingleThreadScheduledExecutor();
+        pacer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                for (SimulatedConnector c : connectors) {
+                    c.tick(now);
+                }
+            }
+        }, SimulatedConnector.FRAME_MS, SimulatedConnector.FRAME_MS, TimeUnit.MILLISECONDS);
+
+        long start = System.currentTimeMillis();
+        long end = start + options.durationMs;
+        long nextReport = start + options.reportMs;
+        try {
+            for (int i = 0; i < options.sessions; i++) {
+                //均匀地在 ramp 时间内启动
+                long startAt = start + options.rampMs * i / options.sessions;
+                long wait = startAt - System.currentTimeMillis();
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+                SimulatedConnector c = new SimulatedConnector(options.host, options.port, pcm, options.codec, options.v2,
+                        options.replyTimeoutMs, options.pauseMs, stats);
+                c.start();
+                connectors.add(c);
+                nextReport = report(stats, nextReport, options.reportMs, log);
+            }
+            long now;
+            while ((now = System.currentTimeMillis()) < end) {
+                Thread.sleep(Math.max(1, Math.min(end, nextReport) - now));
+                nextReport = report(stats, nextReport, options.reportMs, log);
+            }
+        } finally {
+            pacer.shutdownNow();
+            for (SimulatedConnector c : connectors) {
+                c.stop();
+            }
+        }
+        return stats;
+    }
+
+    //到时间就打印一次，返回下次打印的时间
+    private static long report(LoadStats stats, long nextReport, long interval, boolean log) {
+        if (System.currentTimeMillis() < nextReport) {
+            return nextReport;
+        }
+        if (log) {
+            System.out.println(stats.report());
+        }
+        return nextReport + interval;
+    }
+
+    //只接受 16k 单声道，和手机上录音的格式一样
+    static byte[] loadPcm(String path) throws IOException {
+        InputStream in = new FileInputStream(path);
+        try {
+            WavFile wav = WavFile.read(in);
+            if (wav.sampleRate != 16000 || wav.channels != 1) {
+                throw new IOException("只支持16k单声道wav:" + wav.sampleRate + "Hz/" + wav.channels + "声道");
+            }
+            return wav.pcm;
+        } finally {
+            in.close();
+        }
+    }
+
+    //合成的"说话"：音节长短的调幅音，能通过能量检测
+    static byte[] syntheticSpeech(int millis) {
+        int samples = millis * 16;
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            double t = i / 16000.0;
+            double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * 4 * t);
+            short v = (short) (8000 * envelope * (Math.sin(2 * Math.PI * 220 * t) + 0.5 * Math.sin(2 * Math.PI * 660 * t)) / 1.5);
+            pcm[i * 2] = (byte) v;
+            pcm[i * 2 + 1] = (byte) (v >> 8);
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,65 @@
+package com.yaheen.fayconnectordemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 所有模拟连接器共用的统计，计数都是原子操作，report 用相邻两次的差值算速率。
+ */
+public class LoadStats {
+
+    //说完最后一帧到收到回复第一个字节
+    public final LatencyHistogram replyLatency = new LatencyHistogram();
+    //建立连接耗时
+    public final LatencyHistogram connectTime = new LatencyHistogram();
+
+    public final AtomicLong connected = new AtomicLong();//当前在线的连接
+    public final AtomicLong connects = new AtomicLong();
+    public final AtomicLong connectFailures = new AtomicLong();
+    public final AtomicLong disconnects = new AtomicLong();
+    public final AtomicLong utterances = new AtomicLong();
+    public final AtomicLong replies = new AtomicLong();
+    public final AtomicLong replyTimeouts = new AtomicLong();
+    public final AtomicLong uplinkBytes = new AtomicLong();
+    public final AtomicLong downlinkBytes = new AtomicLong();
+
+    private long lastTime = 0;
+    private long lastUplink = 0;
+    private long lastDownlink = 0;
+    private long lastReplies = 0;
+
+    //连接失败、意外断开和回复超时都算错误，按说话次数算比例
+    public double getErrorRate() {
+        long total = utterances.get() + connectFailures.get();
+        long errors = connectFailures.get() + disconnects.get() + replyTimeouts.get();
+        return total == 0 ? 0 : (double) errors / total;
+    }
+
+    public synchronized String report() {
+        long now = System.currentTimeMillis();
+        long up = uplinkBytes.get();
+        long down = downlinkBytes.get();
+        long rep = replies.get();
+        double seconds = lastTime == 0 ? 0 : (now - lastTime) / 1000.0;
+        StringBuilder sb = new StringBuilder();
+        sb.append("online=").append(connected.get());
+        sb.append(",connects=").append(connects.get()).append('/').append(connectFailures.get()).append("fail");
+        sb.append(",disconnects=").append(disconnects.get());
+        sb.append(",utterances=").append(utterances.get());
+        sb.append(",replies=").append(rep).append('/').append(replyTimeouts.get()).append("timeout");
+        sb.append(",errors=").append(String.format("%.2f%%", getErrorRate() * 100));
+        sb.append(",up=").append(up / 1024).append("KB");
+        sb.append(",down=").append(down / 1024).append("KB");
+        if (seconds > 0) {
+            sb.append(",rate=").append((long) ((up - lastUplink) / 1024 / seconds)).append("KB/s up/")
+                    .append((long) ((down - lastDownlink) / 1024 / seconds)).append("KB/s down/")
+                    .append(String.format("%.1f", (rep - lastReplies) / seconds)).append(" replies/s");
+        }
+        sb.append(",reply[").append(replyLatency).append(']');
+        sb.append(",connect[").append(connectTime).append(']');
+        lastTime = now;
+        lastUplink = up;
+        lastDownlink = down;
+        lastReplies = rep;
+        return sb.toString();
+    }
+}
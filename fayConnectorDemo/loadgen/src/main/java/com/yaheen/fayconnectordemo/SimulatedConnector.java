@@ -0,0 +1,209 @@
+package com.yaheen.fayconnectordemo;
+
+import java.io.IOException;
+
+/**
+ * 一个模拟的连接器：连上后协商编码/协议，按实时速度发一段 pcm，接着发静音直到收到回复，
+ * 收回复期间不发(和手机播放时关麦一样)，回复结束后停一会再说下一句；断开后隔一段时间重连。
+ * 收发在自己的连接引擎线程里，发音频由外部的节拍线程每 FRAME_MS 调一次 tick。
+ */
+public class SimulatedConnector implements FayConnection.Listener, FrameDecoder.Sink, ProtocolV2.ControlListener {
+
+    //16k/16bit 单声道 20ms
+    public static final int FRAME_BYTES = 640;
+    public static final long FRAME_MS = 20;
+    private static final long RECONNECT_DELAY = 2000;
+    private static final int UPLINK_BUFFER_SIZE = 64 * 1024;
+
+    private enum State {
+        DISCONNECTED,
+        CONNECTING,
+        SPEAKING,
+        WAITING,
+        RECEIVING,
+        PAUSED
+    }
+
+    private final String host;
+    private final int port;
+    private final byte[] pcm;
+    private final int codec;
+    private final boolean v2;
+    private final long replyTimeout;
+    private final long pause;
+    private final LoadStats stats;
+    private final FayConnection connection;
+    private final DownlinkDecoder decoder = new DownlinkDecoder(this, this);
+    private final UplinkSession uplink = new UplinkSession(FRAME_BYTES, null, null);
+    private final byte[] silence = new byte[FRAME_BYTES];
+    private State state = State.DISCONNECTED;
+    private boolean running = false;
+    private int position = 0;
+    private long stateTime = 0;
+    private long speechEnd = 0;
+    private long connectStart = 0;
+
+    public SimulatedConnector(String host, int port, byte[] pcm, int codec, boolean v2, long replyTimeout, long pause, LoadStats stats) {
+        this.host = host;
+        this.port = port;
+        this.pcm = pcm;
+        this.codec = codec;
+        this.v2 = v2;
+        this.replyTimeout = replyTimeout;
+        this.pause = pause;
+        this.stats = stats;
+        this.connection = new FayConnection(this, UPLINK_BUFFER_SIZE);
+    }
+
+    public synchronized void start() throws IOException {
+        running = true;
+        connection.start();
+        connect(System.currentTimeMillis());
+    }
+
+    public void stop() throws InterruptedException {
+        synchronized (this) {
+            running = false;
+        }
+        connection.shutdown();
+        connection.join(1000);
+    }
+
+    private void connect(long now) {
+        state = State.CONNECTING;
+        connectStart = now;
+        connection.connect(host, port);
+    }
+
+    private void setState(State state, long now) {
+        this.state = state;
+        stateTime = now;
+    }
+
+    //节拍线程调用，每次最多发一帧
+    public synchronized void tick(long now) {
+        switch (state) {
+            case DISCONNECTED:
+                if (running && now - stateTime >= RECONNECT_DELAY) {
+                    connect(now);
+                }
+                break;
+            case SPEAKING:
+                if (!uplink.isReady(now)) {
+                    break;//等待服务器确认编码和协议版本
+                }
+                int n = Math.min(FRAME_BYTES, pcm.length - position);
+                stats.uplinkBytes.addAndGet(uplink.send(pcm, position, n));
+                position += n;
+                if (position >= pcm.length) {
+                    stats.utterances.incrementAndGet();
+                    speechEnd = now;
+                    setState(State.WAITING, now);
+                }
+                break;
+            case WAITING:
+                if (now - stateTime >= replyTimeout) {
+                    stats.replyTimeouts.incrementAndGet();
+                    speechEnd = 0;
+                    setState(State.PAUSED, now);
+                    break;
+                }
+                //发静音让服务器判断说话结束
+                stats.uplinkBytes.addAndGet(uplink.send(silence, 0, silence.length));
+                break;
+            case RECEIVING:
+                if (now - stateTime >= replyTimeout) {
+                    stats.replyTimeouts.incrementAndGet();
+                    setState(State.PAUSED, now);
+                }
+                break;
+            case PAUSED:
+                if (now - stateTime >= pause) {
+                    position = 0;
+                    setState(State.SPEAKING, now);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public synchronized void onConnected() {
+        long now = System.currentTimeMillis();
+        stats.connects.incrementAndGet();
+        stats.connected.incrementAndGet();
+        stats.connectTime.record(now - connectStart);
+        decoder.reset();
+        uplink.start(connection, codec, v2);
+        position = 0;
+        setState(State.SPEAKING, now);
+    }
+
+    @Override
+    public void onReceive(byte[] buf, int off, int len) {
+        stats.downlinkBytes.addAndGet(len);
+        decoder.feed(buf, off, len);
+    }
+
+    @Override
+    public void onUplinkDrained() {
+    }
+
+    @Override
+    public synchronized void onDisconnected(IOException cause) {
+        if (state == State.CONNECTING) {
+            stats.connectFailures.incrementAndGet();
+        } else if (state != State.DISCONNECTED) {
+            stats.connected.decrementAndGet();
+            if (running) {
+                stats.disconnects.incrementAndGet();
+            }
+        }
+        setState(State.DISCONNECTED, System.currentTimeMillis());
+    }
+
+    @Override
+    public void onHeartbeat() {
+        uplink.ping(System.currentTimeMillis());
+    }
+
+    @Override
+    public void onCodecAck(int codec) {
+        uplink.onCodecAck(codec);
+    }
+
+    @Override
+    public void onProtocolAck(int version) {
+        uplink.onProtocolAck(version);
+    }
+
+    @Override
+    public void onControl(int subtype, byte[] data, int off, int len) {
+        if (subtype == ProtocolV2.CONTROL_PING && len >= 8) {
+            uplink.pong(ProtocolV2.readLong(data, off));
+        }
+    }
+
+    @Override
+    public synchronized void onFrameStart() {
+        long now = System.currentTimeMillis();
+        if (speechEnd > 0) {
+            stats.replyLatency.record(now - speechEnd);
+            speechEnd = 0;
+        }
+        stats.replies.incrementAndGet();
+        setState(State.RECEIVING, now);
+    }
+
+    @Override
+    public void onPayload(byte[] buf, int off, int len) {
+    }
+
+    @Override
+    public synchronized void onFrameEnd() {
+        if (state == State.RECEIVING) {
+            setState(State.PAUSED, System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.yaheen.fayconnectordemo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void parsesOptions() {
+        LoadGenerator.Options o = LoadGenerator.Options.parse(new String[]{
+                "--server", "10.0.0.2:10001", "--sessions", "200", "--codec", "mulaw", "--protocol", "v2", "--duration", "30"});
+        assertEquals("10.0.0.2", o.host);
+        assertEquals(10001, o.port);
+        assertEquals(200, o.sessions);
+        assertEquals(AudioCodec.MULAW, o.codec);
+        assertTrue(o.v2);
+        assertEquals(30000, o.durationMs);
+        try {
+            LoadGenerator.Options.parse(new String[]{"--sessions", "3"});
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    //每收到一句话加几帧静音就回复一段
+    private static void serve(Socket s, int utteranceBytes) throws IOException {
+        InputStream in = s.getInputStream();
+        OutputStream out = s.getOutputStream();
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        reply.write(FrameDecoder.START_MARKER);
+        reply.write(new byte[1000]);
+        reply.write(FrameDecoder.END_MARKER);
+        byte[] buf = new byte[4096];
+        int received = 0;
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            received += n;
+            if (received >= utteranceBytes + 3 * SimulatedConnector.FRAME_BYTES) {
+                received = 0;
+                out.write(reply.toByteArray());
+            }
+        }
+        s.close();
+    }
+
+    @Test
+    public void runsSessionsAgainstLocalServer() throws Exception {
+        final byte[] pcm = LoadGenerator.syntheticSpeech(200);
+        final ServerSocket server = new ServerSocket(0);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket s = server.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    serve(s, pcm.length);
+                                } catch (IOException e) {
+                                }
+                            }
+                        }).start();
+                    }
+                } catch (IOException e) {
+                }
+            }
+        });
+        acceptor.start();
+
+        LoadGenerator.Options o = LoadGenerator.Options.parse(new String[]{
+                "--server", "127.0.0.1:" + server.getLocalPort(), "--sessions", "3", "--pause-ms", "100"});
+        o.durationMs = 2500;
+        o.rampMs = 300;
+        LoadStats stats = LoadGenerator.run(o, pcm, false);
+        server.close();
+        acceptor.join(1000);
+
+        System.out.println(stats.report());
+        assertEquals(3, stats.connects.get());
+        assertTrue(stats.replies.get() >= 9);
+        assertEquals(0, stats.getErrorRate(), 0);
+        assertTrue(stats.replyLatency.getCount() >= 9);
+        assertEquals(0, stats.connected.get());
+    }
+}